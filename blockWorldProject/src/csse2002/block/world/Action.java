@@ -1,9 +1,7 @@
 package csse2002.block.world;
 
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Set;
-import java.util.HashSet;
+import java.util.List;
 
 /**
  * Represents an Action which can be performed
@@ -28,6 +26,9 @@ public class Action {
     /*DROP action which is represented by integer 3*/
     public static final int DROP = 3;
 
+    /*MOVE_TO action which is represented by integer 4*/
+    public static final int MOVE_TO = 4;
+
     /*The primary action for an instance*/
     private int primaryAction;
 
@@ -40,6 +41,8 @@ public class Action {
      * @require if primaryAction == MOVE_BUILDER or
      * MOVE_BLOCK, secondaryAction must be either
      * "north", "east", "west" or "south".
+     * @require if primaryAction == MOVE_TO, secondaryAction should be the
+     * position to move to, as "x,y".
      * @param primaryAction - the action to be created
      * @param secondaryAction - the supplementary
      * information associated with the primary action
@@ -77,6 +80,8 @@ public class Action {
                 return DIG;
             case "DROP":
                 return DROP;
+            case "MOVE_TO":
+                return MOVE_TO;
             default:
                 return -1;
         }
@@ -135,6 +140,9 @@ public class Action {
             case "DROP":
                 primaryAction = DROP;
                 break;
+            case "MOVE_TO":
+                primaryAction = MOVE_TO;
+                break;
         }
         return new Action(primaryAction, secondaryAction);
     }
@@ -158,21 +166,64 @@ public class Action {
      */
     public static void processActions(java.io.BufferedReader reader,
             WorldMap startingMap) throws ActionFormatException {
-        while (true) {
-            try {
-                reader.mark(1);
-                if (reader.read() == -1) {
-                    break;
+        processActions(reader, startingMap, ActionResultSink.SYSTEM_OUT);
+    }
+
+    /**
+     * Read all the actions from the given reader and perform them on the
+     * given block world, as for processActions(reader, startingMap), but
+     * pass each result to sink rather than printing it. <br>
+     * The sink is flushed before waiting for more input, and when
+     * processing stops.
+     * @param reader - the reader to read actions from
+     * @param startingMap - the starting map that actions will be applied to
+     * @param sink - receives the result of each action
+     * @throws ActionFormatException - if a line is not a valid action
+     * @require - reader != null, startingMap != null, sink != null
+     */
+    static void processActions(java.io.BufferedReader reader,
+            WorldMap startingMap, ActionResultSink sink)
+            throws ActionFormatException {
+        // the common actions are decoded and performed without creating an
+        // Action; the decoder reads ahead of the current line
+        ActionDecoder decoder = new ActionDecoder(reader, sink::flush);
+        try {
+            while (true) {
+                switch (decoder.next()) {
+                    case ActionDecoder.END:
+                        return;
+                    case ActionDecoder.DECODED:
+                        perform(decoder.opcode(), decoder.operand(),
+                                startingMap, sink);
+                        break;
+                    default:
+                        processAction(decoder.action(), startingMap, sink);
+                        break;
                 }
-                reader.reset();
-            } catch (IOException e) {
-                throw new ActionFormatException();
             }
-            Action action = loadAction(reader);
-            processAction(action, startingMap);
+        } finally {
+            sink.flush();
         }
     }
 
+    /**
+     * Read all the actions from the given reader and perform them on the
+     * given block world, as for processActions(reader, startingMap, sink),
+     * but read and decode the actions on one thread, and pass the results
+     * to sink on another (see ActionPipeline). The actions are performed on
+     * the calling thread, in order, and the results are the same.
+     * @param reader - the reader to read actions from
+     * @param startingMap - the starting map that actions will be applied to
+     * @param sink - receives the result of each action
+     * @throws ActionFormatException - if a line is not a valid action
+     * @require - reader != null, startingMap != null, sink != null
+     */
+    static void processActionsPipelined(java.io.BufferedReader reader,
+            WorldMap startingMap, ActionResultSink sink)
+            throws ActionFormatException {
+        new ActionPipeline().run(reader, startingMap, sink);
+    }
+
     /**
      * Perform the given action on a WorldMap, and print output to System.out.
      * After this method finishes, map should be updated. (e.g., If the action
@@ -197,10 +248,16 @@ public class Action {
      *     For MOVE_BUILDER action: call Builder.moveTo(), then print to
      *     console "Moved builder {direction}". The direction is given by
      *     action.getSecondaryAction()
-     *     If action.getPrimaryAction() < 0 or action.getPrimaryAction() > 3,
+     *     For MOVE_TO action: find a route to the tile at position "x,y"
+     *     given by action.getSecondaryAction() (Builder.findPath()), call
+     *     Builder.moveTo() for each tile on it, then print to console
+     *     "Moved builder to x,y". If there is no tile at that position, or
+     *     no route to it, the builder does not move.
+     *     If action.getPrimaryAction() < 0 or action.getPrimaryAction() > 4,
      *     or action.getSecondary() is not a direction
-     *     (for MOVE_BLOCK or MOVE_BUILDER), or a valid integer (for DROP)
-     *     then print to console "Error: Invalid action"
+     *     (for MOVE_BLOCK or MOVE_BUILDER), or a valid integer (for DROP),
+     *     or a position "x,y" (for MOVE_TO) then print to console
+     *     "Error: Invalid action"
      *
      * "{direction}" is one of "north", "east", "south" or "west".
      * For handling exceptions do the following:
@@ -216,70 +273,388 @@ public class Action {
      * @require - action != null, map != null
      */
     public static void processAction(Action action, WorldMap map) {
+        processAction(action, map, ActionResultSink.SYSTEM_OUT);
+    }
+
+    /**
+     * Perform the given action on a WorldMap, as for
+     * processAction(action, map), but pass each result to sink rather than
+     * printing it.
+     * @param action - the action to be done on the map
+     * @param map - the map to perform the action on
+     * @param sink - receives the results of the action
+     * @require - action != null, map != null, sink != null
+     */
+    static void processAction(Action action, WorldMap map,
+            ActionResultSink sink) {
+        if (map.journal != null) {
+            journal(action, map.journal);
+        }
         Builder actionBuilder = map.getBuilder();
         Tile builderTile = actionBuilder.getCurrentTile();
-        if (action.getPrimaryAction() < 0 ||  action.getPrimaryAction() > 3) {
-            System.out.println("Error: Invalid action");
+        if (action.getPrimaryAction() < 0
+                || action.getPrimaryAction() > MOVE_TO) {
+            sink.accept(ActionResult.INVALID_ACTION, null);
         }
         if (action.getPrimaryAction() == MOVE_BUILDER ||
                 action.getPrimaryAction() == MOVE_BLOCK) {
-            Set<String> directions = new HashSet<String>(
-                    Arrays.asList("north", "east", "west", "south"));
-            if (!directions.contains(action.getSecondaryAction())) {
-                System.out.println("Error: Invalid action");
+            if (Direction.fromName(action.getSecondaryAction()) == null) {
+                sink.accept(ActionResult.INVALID_ACTION, null);
             }
         }
 
+        DeltaLog deltas = map.deltas;
         switch (action.getPrimaryAction()) {
             case MOVE_BUILDER:
                 try {
                     String wahu = action.getSecondaryAction();
                     actionBuilder.moveTo(builderTile.getExits().get(wahu));
-                    System.out.println("Moved builder " +
+                    if (deltas != null) {
+                        deltas.builderMoved(builderTile,
+                                actionBuilder.getCurrentTile());
+                    }
+                    sink.accept(ActionResult.MOVED_BUILDER,
                             action.getSecondaryAction());
                 } catch (NoExitException e) {
-                    System.out.println("No exit this way");
+                    sink.accept(ActionResult.NO_EXIT, null);
                 }
                 break;
             case MOVE_BLOCK:
                 try {
+                    Tile exit = builderTile.getExits()
+                            .get(action.getSecondaryAction());
+                    int exitBefore = exit == null
+                            ? 0 : exit.getPackedBlocks();
+                    int tileBefore = builderTile.getPackedBlocks();
                     builderTile.moveBlock(action.getSecondaryAction());
-                    System.out.println("Moved block " +
+                    if (deltas != null) {
+                        deltas.blockMoved(builderTile, tileBefore, exit,
+                                exitBefore);
+                    }
+                    sink.accept(ActionResult.MOVED_BLOCK,
                             action.getSecondaryAction());
                 } catch (TooHighException e) {
-                    System.out.println("Too high");
+                    sink.accept(ActionResult.TOO_HIGH, null);
                 } catch (NoExitException e) {
-                    System.out.println("No exit this way");
+                    sink.accept(ActionResult.NO_EXIT, null);
                 } catch (InvalidBlockException e) {
-                    System.out.println("Cannot use that block");
+                    sink.accept(ActionResult.INVALID_BLOCK, null);
                 }
                 break;
             case DIG:
-                try {
-                    actionBuilder.digOnCurrentTile();
-                    System.out.println("Top block on current tile removed");
-                } catch (InvalidBlockException e) {
-                    System.out.println("Cannot use that block");
-                } catch (TooLowException e) {
-                    System.out.println("Too low");
-                }
+                dig(actionBuilder, deltas, sink);
                 break;
             case DROP:
                 Integer secondary = 0;
                 try {
                     secondary = Integer.valueOf(action.getSecondaryAction());
                 } catch (NumberFormatException e) {
-                    System.out.println("Error: Invalid action");
+                    sink.accept(ActionResult.INVALID_ACTION, null);
                 }
+                drop(actionBuilder, secondary, deltas, sink);
+                break;
+            case MOVE_TO:
                 try {
-                    actionBuilder.dropFromInventory(secondary);
-                    System.out.println("Dropped a block from inventory");
-                } catch (InvalidBlockException e) {
-                    System.out.println("Cannot use that block");
-                } catch (TooHighException e) {
-                    System.out.println("Too high");
+                    moveBuilderTo(action.getSecondaryAction(), map);
+                    if (deltas != null) {
+                        deltas.builderMoved(builderTile,
+                                actionBuilder.getCurrentTile());
+                    }
+                    sink.accept(ActionResult.MOVED_BUILDER_TO,
+                            action.getSecondaryAction());
+                } catch (NumberFormatException e) {
+                    sink.accept(ActionResult.INVALID_ACTION, null);
+                } catch (NoExitException e) {
+                    sink.accept(ActionResult.NO_EXIT, null);
                 }
                 break;
         }
+        if (map.checkpoints != null) {
+            map.checkpoints.actionPerformed();
+        }
+    }
+
+    /**
+     * Perform a batch of actions on a WorldMap, as for
+     * processAction(action, map) on each in turn, printing the results to
+     * System.out.
+     * @param actions - the actions to perform, in order
+     * @param map - the map to perform the actions on
+     * @param atomic - if true, stop at the first action that fails, and
+     *                 undo the actions before it
+     * @return - true if every action succeeded (see processBatch(actions,
+     *           map, atomic, sink))
+     * @require - actions != null, map != null
+     */
+    static boolean processBatch(List<Action> actions, WorldMap map,
+            boolean atomic) {
+        return processBatch(actions, map, atomic, ActionResultSink.SYSTEM_OUT);
+    }
+
+    /**
+     * Perform a batch of actions on a WorldMap, as for
+     * processAction(action, map, sink) on each in turn. An action fails if
+     * any of its results is an error, such as "Too high" or
+     * "Error: Invalid action". <br>
+     * If atomic is true, the batch is a transaction. Each change is
+     * recorded in an undo buffer (see DeltaLog) as it is made. If an action
+     * fails, no more are performed, and the changes made by the batch are
+     * undone: only the tiles the batch touched, and the builder's tile and
+     * inventory, are restored, in time proportional to the size of the
+     * batch. The actions of a batch are only added to the map's journal
+     * (and counted towards its next checkpoint, and added to its undo log)
+     * once the whole batch has succeeded, so a batch is recovered after a
+     * crash either whole or not at all. <br>
+     * The results of each action are passed to sink as it is performed,
+     * including those of a batch that is then undone.
+     * @param actions - the actions to perform, in order
+     * @param map - the map to perform the actions on
+     * @param atomic - if true, stop at the first action that fails, and
+     *                 undo the actions before it
+     * @param sink - receives the results of the actions
+     * @return - true if every action succeeded. If atomic is true and an
+     *           action failed, the map is as it was before the batch.
+     * @require - actions != null, map != null, sink != null
+     */
+    static boolean processBatch(List<Action> actions, WorldMap map,
+            boolean atomic, ActionResultSink sink) {
+        boolean[] failed = {false};
+        ActionResultSink checked = (result, detail) -> {
+            if (result.isFailure()) {
+                failed[0] = true;
+            }
+            sink.accept(result, detail);
+        };
+        if (!atomic) {
+            for (Action action : actions) {
+                processAction(action, map, checked);
+            }
+            return !failed[0];
+        }
+
+        // the batch is recorded in its own log until it succeeds
+        ActionJournal journal = map.journal;
+        CheckpointManager checkpoints = map.checkpoints;
+        DeltaLog deltas = map.deltas;
+        DeltaLog transaction = new DeltaLog(map.getBuilder(),
+                Math.max(1, actions.size()));
+        map.journal = null;
+        map.checkpoints = null;
+        map.deltas = transaction;
+        int performed = 0;
+        boolean committed = false;
+        try {
+            for (Action action : actions) {
+                processAction(action, map, checked);
+                performed++;
+                if (failed[0]) {
+                    break;
+                }
+            }
+            committed = !failed[0];
+        } finally {
+            map.journal = journal;
+            map.checkpoints = checkpoints;
+            map.deltas = deltas;
+            if (!committed) {
+                transaction.undo(performed);
+            }
+        }
+        if (!committed) {
+            return false;
+        }
+
+        if (journal != null) {
+            for (Action action : actions) {
+                journal(action, journal);
+            }
+        }
+        if (deltas != null) {
+            deltas.append(transaction);
+        }
+        if (checkpoints != null) {
+            // only once all the batch is journalled, so a checkpoint taken
+            // now is followed by none of its actions
+            for (int i = 0; i < performed; i++) {
+                checkpoints.actionPerformed();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add an action to a journal, unless it has no valid action number.
+     */
+    private static void journal(Action action, ActionJournal journal) {
+        // actions with no valid action number change nothing, so are not
+        // worth recording
+        if (action.getPrimaryAction() >= 0
+                && action.getPrimaryAction() <= MOVE_TO) {
+            journal.append(action);
+        }
+    }
+
+    /**
+     * Perform an action decoded by an ActionDecoder, with the same results
+     * as processAction().
+     * @param primaryAction - MOVE_BUILDER, MOVE_BLOCK, DIG or DROP
+     * @param operand - the ordinal of the Direction for MOVE_BUILDER and
+     *                  MOVE_BLOCK, or the inventory index for DROP
+     * @param map - the map to perform the action on
+     * @param sink - receives the result of the action
+     */
+    static void perform(int primaryAction, int operand, WorldMap map,
+            ActionResultSink sink) {
+        if (map.journal != null) {
+            map.journal.append(primaryAction, operand);
+        }
+        Builder actionBuilder = map.getBuilder();
+        Tile builderTile = actionBuilder.getCurrentTile();
+        DeltaLog deltas = map.deltas;
+        switch (primaryAction) {
+            case MOVE_BUILDER:
+                Direction direction = Direction.fromOrdinal(operand);
+                Tile exit = builderTile.getExit(direction);
+                int status = actionBuilder.tryMoveTo(exit);
+                if (status == MutationStatus.OK && deltas != null) {
+                    deltas.builderMoved(builderTile, exit);
+                }
+                report(status, ActionResult.MOVED_BUILDER,
+                        direction.getName(), sink);
+                break;
+            case MOVE_BLOCK:
+                direction = Direction.fromOrdinal(operand);
+                exit = builderTile.getExit(direction);
+                int exitBefore = exit == null ? 0 : exit.getPackedBlocks();
+                int tileBefore = builderTile.getPackedBlocks();
+                status = builderTile.tryMoveBlock(direction);
+                if (status == MutationStatus.OK && deltas != null) {
+                    deltas.blockMoved(builderTile, tileBefore, exit,
+                            exitBefore);
+                }
+                report(status, ActionResult.MOVED_BLOCK, direction.getName(),
+                        sink);
+                break;
+            case DIG:
+                dig(actionBuilder, deltas, sink);
+                break;
+            case DROP:
+                drop(actionBuilder, operand, deltas, sink);
+                break;
+        }
+        if (map.checkpoints != null) {
+            map.checkpoints.actionPerformed();
+        }
+    }
+
+    /**
+     * Dig on the builder's current tile, recording the change in deltas if
+     * it is not null, and passing the result to sink.
+     */
+    private static void dig(Builder builder, DeltaLog deltas,
+            ActionResultSink sink) {
+        if (deltas == null) {
+            report(builder.tryDigOnCurrentTile(), ActionResult.DUG, null,
+                    sink);
+            return;
+        }
+        Tile tile = builder.getCurrentTile();
+        int before = tile.getPackedBlocks();
+        int inventorySize = builder.getInventory().size();
+        int status = builder.tryDigOnCurrentTile();
+        if (status == MutationStatus.OK) {
+            List<Block> inventory = builder.getInventory();
+            deltas.dug(tile, before, inventory.size() == inventorySize
+                    ? null : inventory.get(inventorySize));
+        }
+        report(status, ActionResult.DUG, null, sink);
+    }
+
+    /**
+     * Drop a block from the builder's inventory, recording the change in
+     * deltas if it is not null, and passing the result to sink.
+     */
+    private static void drop(Builder builder, int inventoryIndex,
+            DeltaLog deltas, ActionResultSink sink) {
+        if (deltas == null) {
+            report(builder.tryDropFromInventory(inventoryIndex),
+                    ActionResult.DROPPED, null, sink);
+            return;
+        }
+        Tile tile = builder.getCurrentTile();
+        int before = tile.getPackedBlocks();
+        List<Block> inventory = builder.getInventory();
+        Block block = inventoryIndex >= 0 && inventoryIndex < inventory.size()
+                ? inventory.get(inventoryIndex) : null;
+        int status = builder.tryDropFromInventory(inventoryIndex);
+        if (status == MutationStatus.OK) {
+            deltas.dropped(tile, before, inventoryIndex, block);
+        }
+        report(status, ActionResult.DROPPED, null, sink);
+    }
+
+    /**
+     * Pass the result of a change to sink.
+     * @param status - the MutationStatus of the change
+     * @param done - the result if the change was made
+     * @param detail - the detail of done
+     * @param sink - receives the result
+     */
+    private static void report(int status, ActionResult done, String detail,
+            ActionResultSink sink) {
+        switch (status) {
+            case MutationStatus.OK:
+                sink.accept(done, detail);
+                break;
+            case MutationStatus.TOO_HIGH:
+                sink.accept(ActionResult.TOO_HIGH, null);
+                break;
+            case MutationStatus.TOO_LOW:
+                sink.accept(ActionResult.TOO_LOW, null);
+                break;
+            case MutationStatus.NO_EXIT:
+                sink.accept(ActionResult.NO_EXIT, null);
+                break;
+            default:
+                sink.accept(ActionResult.INVALID_BLOCK, null);
+                break;
+        }
+    }
+
+    /**
+     * Move the builder of a map along a shortest route to a position.
+     * @param position - the position to move to, as "x,y"
+     * @param map - the map to move the builder of
+     * @throws NumberFormatException - if position is not two integers
+     *                                 separated by a comma
+     * @throws NoExitException - if there is no tile at the position, or no
+     *                           route to it, or a step of the route cannot
+     *                           be taken. The builder is left on the tile
+     *                           it started on.
+     */
+    private static void moveBuilderTo(String position, WorldMap map)
+            throws NoExitException {
+        int comma = position.indexOf(',');
+        if (comma < 0) {
+            throw new NumberFormatException(position);
+        }
+        int x = Integer.parseInt(position.substring(0, comma));
+        int y = Integer.parseInt(position.substring(comma + 1));
+
+        Builder builder = map.getBuilder();
+        List<Tile> route = builder.findPath(map.getTile(new Position(x, y)));
+        if (route == null) {
+            throw new NoExitException();
+        }
+        Tile start = builder.getCurrentTile();
+        try {
+            for (Tile tile : route) {
+                builder.moveTo(tile);
+            }
+        } catch (NoExitException e) {
+            // don't leave the builder part way along the route
+            builder.setCurrentTile(start);
+            throw e;
+        }
     }
 }
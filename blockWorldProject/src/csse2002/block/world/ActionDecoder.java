@@ -0,0 +1,339 @@
+package csse2002.block.world;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Decodes lines of actions straight into primitive opcodes and operands,
+ * reading through a reusable character buffer. <br>
+ * A line is accepted or rejected exactly as Action.loadAction() would, but
+ * the common actions are decoded without creating any objects:
+ * <ul>
+ * <li> MOVE_BUILDER and MOVE_BLOCK with a direction name decode to the
+ * ordinal of the Direction </li>
+ * <li> DIG decodes with no operand </li>
+ * <li> DROP with a plain decimal index decodes to that index </li>
+ * </ul>
+ * Any other valid line (a MOVE_TO, or an operand that
+ * Action.processAction() would report as invalid) is returned as an Action,
+ * so that it is handled exactly as before. <br>
+ * Before waiting on the reader for more input, the decoder runs a
+ * callback, so that the results of the lines already entered can be sent
+ * on to an interactive user.
+ */
+final class ActionDecoder {
+    /* next() results */
+    static final int END = 0;
+    static final int DECODED = 1;
+    static final int GENERAL = 2;
+
+    /* Initial size of the buffer */
+    private static final int BUFFER_SIZE = 8192;
+
+    /* Action names, indexed by action number (see Action) */
+    private static final String[] NAMES = {
+        "MOVE_BUILDER", "MOVE_BLOCK", "DIG", "DROP", "MOVE_TO"
+    };
+
+    /* Direction names, indexed by ordinal */
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    /* Longest run of digits that cannot overflow an int */
+    private static final int MAX_SAFE_DIGITS = 9;
+
+    /* Where the characters come from */
+    private final Reader reader;
+
+    /* Run before a read that may block */
+    private final Runnable beforeWait;
+
+    /* Characters read but not yet decoded lie in buffer[start, end) */
+    private char[] buffer = new char[BUFFER_SIZE];
+    private int start;
+    private int end;
+
+    /* True once the reader has no more characters */
+    private boolean endOfInput;
+
+    /* True if the last line ended with '\r', so a following '\n' belongs
+     * to it */
+    private boolean skipLineFeed;
+
+    /* The action number of the line last decoded */
+    private int opcode;
+
+    /* The operand of the line last decoded */
+    private int operand;
+
+    /* The line last returned as GENERAL */
+    private Action action;
+
+    /**
+     * Create a decoder reading from reader.
+     * @param reader - the reader to read actions from
+     * @param beforeWait - run before waiting for input, e.g. to flush
+     *                     the results so far
+     */
+    ActionDecoder(Reader reader, Runnable beforeWait) {
+        this.reader = reader;
+        this.beforeWait = beforeWait;
+    }
+
+    /**
+     * Decode the next line.
+     * @return - END at the end of the input, DECODED if opcode() and
+     *           operand() hold the action, or GENERAL if action() does
+     * @throws ActionFormatException - if the line is not a valid action, as
+     *                                 for Action.loadAction(), or the input
+     *                                 cannot be read
+     */
+    int next() throws ActionFormatException {
+        int lineEnd;
+        try {
+            lineEnd = nextLine();
+        } catch (IOException e) {
+            throw new ActionFormatException();
+        }
+        if (lineEnd < 0) {
+            return END;
+        }
+        int lineStart = this.start;
+        this.start = Math.min(lineEnd + 1, this.end);
+        return decode(lineStart, lineEnd);
+    }
+
+    /**
+     * The action number of the line last decoded, e.g. Action.DIG.
+     * @return - the action number
+     */
+    int opcode() {
+        return this.opcode;
+    }
+
+    /**
+     * The operand of the line last decoded: the ordinal of the Direction
+     * for MOVE_BUILDER and MOVE_BLOCK, the inventory index for DROP, and 0
+     * for DIG.
+     * @return - the operand
+     */
+    int operand() {
+        return this.operand;
+    }
+
+    /**
+     * The action on the line last returned as GENERAL.
+     * @return - the action
+     */
+    Action action() {
+        return this.action;
+    }
+
+    /**
+     * Decode the line in buffer[from, to), splitting it on spaces as
+     * Action.loadAction() does.
+     */
+    private int decode(int from, int to) throws ActionFormatException {
+        // String.split() drops trailing empty fields
+        while (to > from && this.buffer[to - 1] == ' ') {
+            to--;
+        }
+        int space = indexOfSpace(from, to);
+        int verbEnd = space < 0 ? to : space;
+        int verb = verb(from, verbEnd);
+        if (verb < 0) {
+            throw new ActionFormatException();
+        }
+        if (space < 0) {
+            if (verb != Action.DIG) {
+                throw new ActionFormatException();
+            }
+            return decoded(Action.DIG, 0);
+        }
+
+        int operandStart = space + 1;
+        if (indexOfSpace(operandStart, to) >= 0) {
+            // more than two fields
+            throw new ActionFormatException();
+        }
+        switch (verb) {
+            case Action.MOVE_BUILDER:
+            case Action.MOVE_BLOCK:
+                int direction = direction(operandStart, to);
+                if (direction >= 0) {
+                    return decoded(verb, direction);
+                }
+                break;
+            case Action.DIG:
+                return decoded(Action.DIG, 0);
+            case Action.DROP:
+                int length = to - operandStart;
+                int digits = this.buffer[operandStart] == '-'
+                        || this.buffer[operandStart] == '+'
+                        ? length - 1 : length;
+                if (digits > 0 && digits <= MAX_SAFE_DIGITS
+                        && isDecimal(to - digits, to)) {
+                    return decoded(Action.DROP,
+                            parseDecimal(operandStart, to));
+                }
+                break;
+        }
+        this.action = new Action(verb,
+                new String(this.buffer, operandStart, to - operandStart));
+        return GENERAL;
+    }
+
+    /**
+     * Record a decoded action.
+     */
+    private int decoded(int opcode, int operand) {
+        this.opcode = opcode;
+        this.operand = operand;
+        return DECODED;
+    }
+
+    /**
+     * The action number named by buffer[from, to), or -1 if it names no
+     * action.
+     */
+    private int verb(int from, int to) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (matches(from, to, NAMES[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The ordinal of the Direction named by buffer[from, to), or -1 if it
+     * names no direction.
+     */
+    private int direction(int from, int to) {
+        for (Direction direction : DIRECTIONS) {
+            if (matches(from, to, direction.getName())) {
+                return direction.ordinal();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check if buffer[from, to) holds exactly the characters of name.
+     */
+    private boolean matches(int from, int to, String name) {
+        if (to - from != name.length()) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (this.buffer[i] != name.charAt(i - from)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check that buffer[from, to) only holds the digits '0' to '9'.
+     */
+    private boolean isDecimal(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (this.buffer[i] < '0' || this.buffer[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse an optional sign followed by at most MAX_SAFE_DIGITS digits.
+     */
+    private int parseDecimal(int from, int to) {
+        boolean negative = this.buffer[from] == '-';
+        if (negative || this.buffer[from] == '+') {
+            from++;
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            value = 10 * value + (this.buffer[i] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * The index of the first space in buffer[from, to), or -1 if there is
+     * none.
+     */
+    private int indexOfSpace(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (this.buffer[i] == ' ') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the end of the next line, reading more input as needed. Lines
+     * end at '\n', '\r' or "\r\n", or at the end of the input, as for
+     * BufferedReader.readLine().
+     * @return - the index in buffer of the end of the line, or -1 if there
+     *           are no more lines. The line starts at start.
+     */
+    private int nextLine() throws IOException {
+        // characters after start already known not to end the line
+        int scanned = 0;
+        while (true) {
+            if (this.skipLineFeed && this.start < this.end) {
+                if (this.buffer[this.start] == '\n') {
+                    this.start++;
+                }
+                this.skipLineFeed = false;
+            }
+            for (int i = this.start + scanned; i < this.end; i++) {
+                char c = this.buffer[i];
+                if (c == '\n' || c == '\r') {
+                    this.skipLineFeed = c == '\r';
+                    return i;
+                }
+            }
+            scanned = this.end - this.start;
+            if (!fill()) {
+                // the last line may have no line terminator
+                return this.start == this.end ? -1 : this.end;
+            }
+        }
+    }
+
+    /**
+     * Read more characters into the buffer, moving the current line to the
+     * front or growing the buffer if there is no room.
+     * @return - false if the end of the input was reached
+     */
+    private boolean fill() throws IOException {
+        if (this.start > 0) {
+            System.arraycopy(this.buffer, this.start, this.buffer, 0,
+                    this.end - this.start);
+            this.end -= this.start;
+            this.start = 0;
+        }
+        if (this.end == this.buffer.length) {
+            char[] larger = new char[2 * this.buffer.length];
+            System.arraycopy(this.buffer, 0, larger, 0, this.end);
+            this.buffer = larger;
+        }
+        if (this.endOfInput) {
+            return false;
+        }
+        if (!this.reader.ready()) {
+            this.beforeWait.run();
+        }
+        int read = this.reader.read(this.buffer, this.end,
+                this.buffer.length - this.end);
+        if (read < 0) {
+            this.endOfInput = true;
+            return false;
+        }
+        this.end += read;
+        return true;
+    }
+}
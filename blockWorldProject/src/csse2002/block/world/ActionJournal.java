@@ -0,0 +1,344 @@
+package csse2002.block.world;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only file of the actions performed on a WorldMap since it was
+ * last saved, so that the map can be rebuilt after a crash by loading the
+ * save and performing the actions again (see WorldMap.recover()). <br>
+ * Each action is added to the journal before it is performed. Records are
+ * collected in memory and forced to disk together (group commit): at
+ * most syncMillis after the first unforced record, or immediately if
+ * syncMillis is 0. A crash loses at most the actions of the last
+ * syncMillis. <br>
+ * The file is a sequence of records:
+ * <pre>
+ *  byte    DECODED, for an action performed by Action.perform()
+ *  byte    the action number (see Action)
+ *  int     the operand
+ *
+ *  byte    GENERAL, for an action performed by Action.processAction()
+ *  byte    the action number
+ *  int     the number of characters in the secondary action
+ *  char[]  the secondary action
+ * </pre>
+ * A record cut short by a crash is ignored, and dropped when the journal
+ * is next opened. <br>
+ * Once a write or sync fails, the journal refuses every later append by
+ * throwing an UncheckedIOException, before the action is performed. So
+ * the file always holds every action performed up to some point, with no
+ * gaps, and a failure loses no more than a crash would. The failure is
+ * also thrown by sync() and close(). <br>
+ * Appends may come from one thread while another syncs, but appends
+ * themselves must come from one thread at a time.
+ */
+final class ActionJournal implements Closeable {
+    /* Record types */
+    static final byte DECODED = 'd';
+    static final byte GENERAL = 'g';
+
+    /* Size of the buffer records are collected in */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /* The journal file, opened for appending */
+    private final FileChannel channel;
+
+    /* Records not yet written to the channel */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /* The longest a record may wait to be forced to disk, in ms */
+    private final long syncMillis;
+
+    /* Forces records to disk every syncMillis. Null if syncMillis is 0 */
+    private final ScheduledExecutorService syncer;
+
+    /* True if records have been appended since the last sync */
+    private boolean dirty;
+
+    /* The first failed write or sync, if any. Once set, appends are
+     * refused */
+    private volatile IOException failure;
+
+    /**
+     * Open a journal for appending, creating the file if it does not
+     * exist. Any record cut short at the end of the file is dropped.
+     * @param path - the journal file
+     * @param syncMillis - the longest a record may wait before it is
+     *                     forced to disk, in ms. 0 forces every record as
+     *                     it is appended.
+     * @throws IOException - if the file cannot be opened
+     * @require - syncMillis &ge; 0
+     */
+    ActionJournal(Path path, long syncMillis) throws IOException {
+        long length = Files.exists(path) ? validLength(path) : 0;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        this.channel.truncate(length);
+        this.channel.position(length);
+        this.syncMillis = syncMillis;
+        if (syncMillis > 0) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "journal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.syncer.scheduleWithFixedDelay(this::syncQuietly,
+                    syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+    }
+
+    /**
+     * Add an action decoded by ActionDecoder to the journal.
+     * @param primaryAction - the action number
+     * @param operand - the operand (see ActionDecoder.operand())
+     * @throws UncheckedIOException - if the journal has failed, or the
+     *                                record cannot be written. The action
+     *                                must not be performed.
+     */
+    void append(int primaryAction, int operand) {
+        synchronized (this) {
+            refuseIfFailed();
+            reserve(6);
+            this.buffer.put(DECODED);
+            this.buffer.put((byte) primaryAction);
+            this.buffer.putInt(operand);
+            this.dirty = true;
+        }
+        if (this.syncMillis == 0) {
+            // the record may have reached the file even if forcing it
+            // fails, so the action goes ahead, and the appends after it
+            // are refused
+            syncQuietly();
+        }
+    }
+
+    /**
+     * Add an action performed by Action.processAction() to the journal.
+     * @param action - the action
+     * @throws UncheckedIOException - as for append(primaryAction, operand)
+     */
+    void append(Action action) {
+        String secondary = action.getSecondaryAction();
+        if (secondary == null) {
+            // processAction() treats null as it does any other invalid
+            // secondary action
+            secondary = "";
+        }
+        synchronized (this) {
+            refuseIfFailed();
+            reserve(6);
+            this.buffer.put(GENERAL);
+            this.buffer.put((byte) action.getPrimaryAction());
+            this.buffer.putInt(secondary.length());
+            for (int i = 0; i < secondary.length(); i++) {
+                reserve(2);
+                this.buffer.putChar(secondary.charAt(i));
+            }
+            this.dirty = true;
+        }
+        if (this.syncMillis == 0) {
+            // the record may have reached the file even if forcing it
+            // fails, so the action goes ahead, and the appends after it
+            // are refused
+            syncQuietly();
+        }
+    }
+
+    /**
+     * Force every record appended so far to disk.
+     * @throws IOException - if writing fails now, or failed in the
+     *                       background since the journal was opened
+     */
+    void sync() throws IOException {
+        try {
+            synchronized (this) {
+                throwFailure();
+                if (!this.dirty) {
+                    return;
+                }
+                drain();
+                this.dirty = false;
+            }
+            // forcing outside the lock lets appends carry on meanwhile; the
+            // next sync forces anything they write
+            this.channel.force(false);
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Sync, then close the journal file.
+     * @throws IOException - if writing fails, now or in the background
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.syncer != null) {
+            this.syncer.shutdown();
+        }
+        try {
+            sync();
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Perform the actions in a journal on a map, in order, discarding
+     * their results. A record cut short at the end of the file is ignored.
+     * @param path - the journal file
+     * @param map - the map to perform the actions on
+     * @return - the number of actions performed
+     * @throws IOException - if the file cannot be read, or is not a journal
+     */
+    static long replay(Path path, WorldMap map) throws IOException {
+        return scan(path, map);
+    }
+
+    /**
+     * The length of the complete records at the start of a journal.
+     */
+    private static long validLength(Path path) throws IOException {
+        return scan(path, null);
+    }
+
+    /**
+     * Read the complete records of a journal, performing them on map if it
+     * is not null.
+     * @return - the number of records read if map is not null, otherwise
+     *           the number of bytes they take up
+     */
+    private static long scan(Path path, WorldMap map) throws IOException {
+        long records = 0;
+        long length = 0;
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path),
+                        BUFFER_SIZE))) {
+            while (true) {
+                int type = input.read();
+                if (type < 0) {
+                    break;
+                }
+                int primaryAction = input.readByte();
+                int operand = input.readInt();
+                long size = 6;
+                Action action = null;
+                if (type == GENERAL) {
+                    char[] secondary = new char[operand];
+                    for (int i = 0; i < operand; i++) {
+                        secondary[i] = input.readChar();
+                    }
+                    action = new Action(primaryAction, new String(secondary));
+                    size += 2L * operand;
+                } else if (type != DECODED) {
+                    throw new IOException("Not an action journal: " + path);
+                }
+
+                if (map != null) {
+                    if (action == null) {
+                        Action.perform(primaryAction, operand, map,
+                                ActionResultSink.DISCARD);
+                    } else {
+                        Action.processAction(action, map,
+                                ActionResultSink.DISCARD);
+                    }
+                }
+                records++;
+                length += size;
+            }
+        } catch (EOFException e) {
+            // the last record was cut short
+        }
+        return map == null ? length : records;
+    }
+
+    /**
+     * Make room for bytes more bytes in the buffer, writing it out if it
+     * is full. Must hold the lock.
+     * @throws UncheckedIOException - if the buffer cannot be written
+     */
+    private void reserve(int bytes) {
+        if (this.buffer.remaining() < bytes) {
+            try {
+                drain();
+            } catch (IOException e) {
+                fail(e);
+                refuseIfFailed();
+            }
+        }
+    }
+
+    /**
+     * Refuse an append if a write or sync has failed, as the actions after
+     * the failure could not all be recorded. Must hold the lock.
+     * @throws UncheckedIOException - if the journal has failed
+     */
+    private void refuseIfFailed() {
+        if (this.failure != null) {
+            throw new UncheckedIOException("Journal stopped after a failed "
+                    + "write", this.failure);
+        }
+    }
+
+
+    /**
+     * Write the buffer to the channel. Must hold the lock.
+     */
+    private void drain() throws IOException {
+        this.buffer.flip();
+        try {
+            while (this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+        } finally {
+            this.buffer.clear();
+        }
+    }
+
+    /**
+     * Sync, keeping any failure for sync() to throw and appends to refuse.
+     * Used where there is no caller to throw to: the syncer thread, and
+     * appends.
+     */
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            // kept by sync()
+        }
+    }
+
+    /**
+     * Keep the first failure, for sync() to throw and appends to refuse.
+     */
+    private void fail(IOException e) {
+        if (this.failure == null) {
+            this.failure = e;
+        }
+    }
+
+    /**
+     * Throw the first failed write or sync, if any.
+     */
+    private void throwFailure() throws IOException {
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+}
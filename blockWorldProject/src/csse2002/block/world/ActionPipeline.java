@@ -0,0 +1,379 @@
+package csse2002.block.world;
+
+import java.io.Reader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Processes actions in three stages, each on its own thread:
+ * <ol>
+ * <li> a reader thread decodes lines into batches of opcodes and operands
+ *      (see ActionDecoder) </li>
+ * <li> the calling thread performs each batch on the map, collecting the
+ *      results into batches </li>
+ * <li> an output thread passes each batch of results on to the sink </li>
+ * </ol>
+ * Batches are handed on through bounded queues and recycled, so a stage
+ * that gets ahead waits for the next one, and steady-state processing
+ * creates no objects. The map is only touched by the calling thread, in
+ * input order, so the results are exactly those of
+ * Action.processActions(). <br>
+ * A stage with nothing left to do hands on what it has before waiting,
+ * so an interactive user still sees the result of each line as it is
+ * entered.
+ */
+final class ActionPipeline {
+    /* Actions per batch */
+    private static final int BATCH_SIZE = 1024;
+
+    /* Batches that may be waiting between two stages */
+    private static final int QUEUE_SIZE = 8;
+
+    /* Opcode of an action that must be performed by processAction() */
+    private static final int GENERAL = -1;
+
+    /**
+     * Decoded actions, passed from the reader to the map.
+     */
+    private static final class ActionBatch {
+        /* The action numbers (see Action), or GENERAL */
+        final int[] opcodes = new int[BATCH_SIZE];
+
+        /* The operands of decoded actions (see ActionDecoder) */
+        final int[] operands = new int[BATCH_SIZE];
+
+        /* The GENERAL actions, null elsewhere */
+        final Action[] actions = new Action[BATCH_SIZE];
+
+        /* The number of actions in the batch */
+        int size;
+
+        /* True if this is the last batch */
+        boolean last;
+
+        /* Thrown after the actions in the batch, if not null */
+        ActionFormatException error;
+    }
+
+    /**
+     * Results, passed from the map to the output.
+     */
+    private static final class ResultBatch {
+        final ActionResult[] results = new ActionResult[BATCH_SIZE];
+        final String[] details = new String[BATCH_SIZE];
+
+        /* The number of results in the batch */
+        int size;
+
+        /* True if this is the last batch */
+        boolean last;
+    }
+
+    /* Filled by the reader, emptied by the calling thread */
+    private final BlockingQueue<ActionBatch> decoded =
+            new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final BlockingQueue<ActionBatch> freeActions =
+            new ArrayBlockingQueue<>(QUEUE_SIZE + 2);
+
+    /* Filled by the calling thread, emptied by the output */
+    private final BlockingQueue<ResultBatch> performed =
+            new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final BlockingQueue<ResultBatch> freeResults =
+            new ArrayBlockingQueue<>(QUEUE_SIZE + 2);
+
+    /* The batch being filled by the reader thread */
+    private ActionBatch reading;
+
+    /* The results of the current batch of actions, on the calling thread */
+    private ResultBatch results;
+
+    /* Thrown by the output thread, to be rethrown by the calling thread */
+    private volatile RuntimeException outputFailure;
+
+    /**
+     * Create a pipeline, with all its batches ready for use.
+     */
+    ActionPipeline() {
+        for (int i = 0; i < QUEUE_SIZE + 2; i++) {
+            this.freeActions.add(new ActionBatch());
+            this.freeResults.add(new ResultBatch());
+        }
+    }
+
+    /**
+     * Read all the actions from reader and perform them on map, as for
+     * Action.processActions(reader, map, sink). <br>
+     * The pipeline can only be run once. If the calling thread is
+     * interrupted, processing stops after the action being performed and
+     * the interrupt is kept; results not yet passed to sink are dropped,
+     * and no more actions are performed.
+     * @param reader - the reader to read actions from
+     * @param map - the map to perform the actions on
+     * @param sink - receives the result of each action, on another thread
+     * @throws ActionFormatException - if a line is not a valid action. The
+     *                                 actions before it are performed, and
+     *                                 their results passed to sink, first.
+     * @throws RuntimeException - if performing an action throws (e.g. a
+     *                            journal refusing it). The results of the
+     *                            actions before it are passed to sink first.
+     */
+    void run(Reader reader, WorldMap map, ActionResultSink sink)
+            throws ActionFormatException {
+        Thread input = daemon(() -> read(reader), "action-reader");
+        Thread output = daemon(() -> write(sink), "action-output");
+        input.start();
+        output.start();
+
+        ActionFormatException error;
+        try {
+            this.results = this.freeResults.take();
+            try {
+                error = performAll(map);
+            } catch (RuntimeException | Error e) {
+                // pass on the results of the actions before the failure, as
+                // processActions() does
+                finishOutput(output);
+                throw e;
+            }
+            handOnResults(true);
+            output.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            input.interrupt();
+            output.interrupt();
+            return;
+        } finally {
+            if (output.isAlive()) {
+                // stop the output if handing on the results failed
+                output.interrupt();
+            }
+            input.interrupt();
+        }
+
+        if (this.outputFailure != null) {
+            throw this.outputFailure;
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * The calling thread's stage: perform each batch of actions on map,
+     * until the last batch.
+     * @return - the error that ended the input, or null
+     */
+    private ActionFormatException performAll(WorldMap map)
+            throws InterruptedException {
+        ActionResultSink collector = this::collect;
+        while (true) {
+            ActionBatch batch = this.decoded.poll();
+            if (batch == null) {
+                // let the output catch up while waiting for input
+                handOnResults(false);
+                batch = this.decoded.take();
+            }
+            for (int i = 0; i < batch.size; i++) {
+                if (batch.opcodes[i] == GENERAL) {
+                    Action.processAction(batch.actions[i], map, collector);
+                    batch.actions[i] = null;
+                } else {
+                    Action.perform(batch.opcodes[i], batch.operands[i], map,
+                            collector);
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    // e.g. collect() could not hand on a full batch
+                    throw new InterruptedException();
+                }
+            }
+            boolean last = batch.last;
+            ActionFormatException error = batch.error;
+            batch.size = 0;
+            batch.last = false;
+            batch.error = null;
+            this.freeActions.put(batch);
+            if (last) {
+                return error;
+            }
+        }
+    }
+
+    /**
+     * Hand on the results collected so far as the last batch, and wait for
+     * the output to pass them on. If interrupted, the interrupt is kept and
+     * the results may be dropped.
+     */
+    private void finishOutput(Thread output) {
+        try {
+            handOnResults(true);
+            output.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Create a daemon thread, which cannot keep the program alive if it is
+     * left waiting for input.
+     */
+    private static Thread daemon(Runnable stage, String name) {
+        Thread thread = new Thread(stage, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * The reader stage: decode batches of actions until the end of the
+     * input or an invalid line.
+     */
+    private void read(Reader reader) {
+        try {
+            this.reading = this.freeActions.take();
+            ActionDecoder decoder = new ActionDecoder(reader, () -> {
+                // hand on what has been decoded before waiting for more
+                try {
+                    handOnActions(false);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            while (!Thread.currentThread().isInterrupted()) {
+                int next;
+                try {
+                    next = decoder.next();
+                } catch (ActionFormatException e) {
+                    this.reading.error = e;
+                    next = ActionDecoder.END;
+                }
+                if (next == ActionDecoder.END) {
+                    handOnActions(true);
+                    return;
+                }
+
+                ActionBatch batch = this.reading;
+                int i = batch.size++;
+                if (next == ActionDecoder.DECODED) {
+                    batch.opcodes[i] = decoder.opcode();
+                    batch.operands[i] = decoder.operand();
+                } else {
+                    batch.opcodes[i] = GENERAL;
+                    batch.actions[i] = decoder.action();
+                }
+                if (batch.size == BATCH_SIZE) {
+                    handOnActions(false);
+                }
+            }
+        } catch (InterruptedException e) {
+            // the calling thread has stopped
+        }
+    }
+
+    /**
+     * Pass the current batch of actions to the calling thread, if it has
+     * any or is the last, and start a new one.
+     */
+    private void handOnActions(boolean last) throws InterruptedException {
+        if (this.reading.size == 0 && !last) {
+            return;
+        }
+        this.reading.last = last;
+        this.decoded.put(this.reading);
+        if (!last) {
+            this.reading = this.freeActions.take();
+        }
+    }
+
+    /**
+     * The output stage: pass each batch of results on to sink, until the
+     * last one.
+     */
+    private void write(ActionResultSink sink) {
+        try {
+            while (true) {
+                ResultBatch batch = this.performed.poll();
+                if (batch == null) {
+                    flush(sink);
+                    batch = this.performed.take();
+                }
+                for (int i = 0; i < batch.size; i++) {
+                    if (this.outputFailure == null) {
+                        accept(sink, batch.results[i], batch.details[i]);
+                    }
+                    batch.details[i] = null;
+                }
+                boolean last = batch.last;
+                batch.size = 0;
+                batch.last = false;
+                this.freeResults.put(batch);
+                if (last) {
+                    flush(sink);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // the calling thread has stopped
+        }
+    }
+
+    /**
+     * Pass a result to sink. If the sink fails, the failure is kept for
+     * the calling thread, and the output stage carries on taking batches,
+     * without passing them on, so that the calling thread is not blocked.
+     */
+    private void accept(ActionResultSink sink, ActionResult result,
+            String detail) {
+        try {
+            sink.accept(result, detail);
+        } catch (RuntimeException e) {
+            this.outputFailure = e;
+        }
+    }
+
+    /**
+     * Flush sink, keeping any failure as accept() does.
+     */
+    private void flush(ActionResultSink sink) {
+        if (this.outputFailure != null) {
+            return;
+        }
+        try {
+            sink.flush();
+        } catch (RuntimeException e) {
+            this.outputFailure = e;
+        }
+    }
+
+    /**
+     * Collect a result on the calling thread. If the thread is interrupted
+     * while waiting for the output, the result is dropped and the
+     * interrupt kept, so that run() stops after the current action.
+     */
+    private void collect(ActionResult result, String detail) {
+        if (this.results.size == BATCH_SIZE) {
+            try {
+                handOnResults(false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        this.results.results[this.results.size] = result;
+        this.results.details[this.results.size] = detail;
+        this.results.size++;
+    }
+
+    /**
+     * Pass the current batch of results to the output, if it has any or is
+     * the last, and start a new one.
+     */
+    private void handOnResults(boolean last) throws InterruptedException {
+        if (this.results.size == 0 && !last) {
+            return;
+        }
+        this.results.last = last;
+        this.performed.put(this.results);
+        if (!last) {
+            this.results = this.freeResults.take();
+        }
+    }
+}
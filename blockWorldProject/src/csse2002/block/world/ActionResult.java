@@ -0,0 +1,53 @@
+package csse2002.block.world;
+
+/**
+ * The outcomes of performing an action, each with the text that
+ * Action.processAction() prints for it.
+ */
+enum ActionResult {
+    MOVED_BUILDER("Moved builder"),
+    MOVED_BLOCK("Moved block"),
+    DUG("Top block on current tile removed"),
+    DROPPED("Dropped a block from inventory"),
+    MOVED_BUILDER_TO("Moved builder to"),
+    INVALID_ACTION("Error: Invalid action"),
+    NO_EXIT("No exit this way"),
+    TOO_HIGH("Too high"),
+    TOO_LOW("Too low"),
+    INVALID_BLOCK("Cannot use that block");
+
+    /* The printed text, before any detail */
+    private final String text;
+
+    ActionResult(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Get the printed text of the result, without any detail.
+     * @return - e.g. "Moved builder"
+     */
+    String getText() {
+        return this.text;
+    }
+
+    /**
+     * Check if the result reports an action that failed or was invalid,
+     * rather than a change made.
+     * @return - true for INVALID_ACTION and the results after it
+     */
+    boolean isFailure() {
+        // the failures are listed last
+        return compareTo(INVALID_ACTION) >= 0;
+    }
+
+    /**
+     * Get the line printed for the result.
+     * @param detail - the detail of the result, or null if it has none
+     * @return - the text, followed by a space and the detail if there is
+     *           one, e.g. "Moved builder north"
+     */
+    String message(String detail) {
+        return detail == null ? this.text : this.text + " " + detail;
+    }
+}
@@ -0,0 +1,37 @@
+package csse2002.block.world;
+
+/**
+ * Receives the result of each action performed by Action.processAction()
+ * and Action.processActions(). <br>
+ * The detail of a result is the direction for MOVED_BUILDER and
+ * MOVED_BLOCK, the position "x,y" for MOVED_BUILDER_TO, and null for every
+ * other result.
+ */
+interface ActionResultSink {
+    /**
+     * Prints each result to System.out with System.out.println(), as the
+     * public Action methods always have.
+     */
+    ActionResultSink SYSTEM_OUT = (result, detail) ->
+            System.out.println(result.message(detail));
+
+    /**
+     * Ignores every result.
+     */
+    ActionResultSink DISCARD = (result, detail) -> {
+    };
+
+    /**
+     * Receive the result of an action.
+     * @param result - what happened
+     * @param detail - the detail of the result, or null if it has none
+     */
+    void accept(ActionResult result, String detail);
+
+    /**
+     * Pass on any results held back so far. Called before waiting for
+     * more actions to be read, and when processing finishes.
+     */
+    default void flush() {
+    }
+}
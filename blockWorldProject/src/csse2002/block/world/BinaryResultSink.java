@@ -0,0 +1,72 @@
+package csse2002.block.world;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes results as compact binary events. <br>
+ * Each event is:
+ * <ul>
+ * <li> one byte, the ordinal of the ActionResult </li>
+ * <li> a big-endian int, the number of characters in the detail, or -1 if
+ *      there is no detail </li>
+ * <li> the characters of the detail, two bytes each, as for
+ *      DataOutputStream.writeChars() </li>
+ * </ul>
+ * As with PrintStream, write errors are not thrown but recorded, and can
+ * be checked with checkError().
+ */
+final class BinaryResultSink implements ActionResultSink {
+    /* Number of bytes held before they are written out */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /* Where the events go */
+    private final DataOutputStream out;
+
+    /* True once writing has failed */
+    private boolean error;
+
+    /**
+     * Create a sink writing events to out.
+     * @param out - the stream to write to
+     */
+    BinaryResultSink(OutputStream out) {
+        this.out = new DataOutputStream(
+                new BufferedOutputStream(out, BUFFER_SIZE));
+    }
+
+    @Override
+    public void accept(ActionResult result, String detail) {
+        try {
+            this.out.writeByte(result.ordinal());
+            if (detail == null) {
+                this.out.writeInt(-1);
+            } else {
+                this.out.writeInt(detail.length());
+                this.out.writeChars(detail);
+            }
+        } catch (IOException e) {
+            this.error = true;
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            this.out.flush();
+        } catch (IOException e) {
+            this.error = true;
+        }
+    }
+
+    /**
+     * Flush the sink, and check whether writing has ever failed.
+     * @return - true if a write or flush has failed
+     */
+    boolean checkError() {
+        flush();
+        return this.error;
+    }
+}
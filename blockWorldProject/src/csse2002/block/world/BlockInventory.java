@@ -0,0 +1,275 @@
+package csse2002.block.world;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * An ordered inventory of blocks that keeps a count of each block type. <br>
+ * Blocks are kept in an append-only log. Removing a block leaves a null in
+ * its slot, and a Fenwick tree over the slots counts the blocks still in
+ * the log, so the slot of the block at any index is found in O(log n). The
+ * log is compacted once it is more than half empty, so removal is O(log n)
+ * amortised. <br>
+ * The count of each type is updated as blocks are added and removed, so
+ * count() is O(1).
+ */
+final class BlockInventory {
+    /* Initial number of slots in the log */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /* The log is never compacted while it has fewer empty slots than this */
+    private static final int MIN_COMPACT_SLOTS = 64;
+
+    /* The blocks, in inventory order. A null entry marks a removed block */
+    private Block[] log;
+
+    /* Fenwick tree over log, counting the blocks in each range of slots.
+     * tree[i] covers the slots ending at i - 1 */
+    private int[] tree;
+
+    /* The number of slots of log that have been used */
+    private int end;
+
+    /* The number of blocks in the inventory */
+    private int size;
+
+    /* The number of blocks of each type, indexed by block code (see
+     * BlockStacks) */
+    private final int[] counts = new int[BlockStacks.STONE + 1];
+
+    /* The number of blocks of types without a block code, by type name.
+     * Null until one is added */
+    private Map<String, Integer> otherCounts;
+
+    /* The read-only view returned by view() */
+    private final List<Block> view = new View();
+
+    /**
+     * Construct an empty inventory.
+     */
+    BlockInventory() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Get a read-only view of the blocks, in the order they were added.
+     * The view changes as the inventory does.
+     * @return - the blocks in the inventory
+     */
+    List<Block> view() {
+        return this.view;
+    }
+
+    /**
+     * Get the number of blocks in the inventory.
+     * @return - the number of blocks
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the block at an index.
+     * @param index - the index of the block
+     * @return - the block
+     * @require 0 &le; index &lt; size()
+     */
+    Block get(int index) {
+        return this.log[slotOf(index)];
+    }
+
+    /**
+     * Add a block to the end of the inventory.
+     * @param block - the block to add
+     */
+    void add(Block block) {
+        if (this.end == this.log.length) {
+            compact(Math.max(INITIAL_CAPACITY, 2 * this.size));
+        }
+        this.log[this.end] = block;
+        increment(this.end, 1);
+        this.end++;
+        this.size++;
+        count(block, 1);
+    }
+
+    /**
+     * Remove the block at an index. Later blocks move down one index.
+     * @param index - the index of the block
+     * @return - the block removed
+     * @require 0 &le; index &lt; size()
+     */
+    Block remove(int index) {
+        int slot = slotOf(index);
+        Block block = this.log[slot];
+        this.log[slot] = null;
+        increment(slot, -1);
+        this.size--;
+        count(block, -1);
+
+        int emptySlots = this.end - this.size;
+        if (emptySlots >= MIN_COMPACT_SLOTS && emptySlots > this.size) {
+            compact(this.log.length);
+        }
+        return block;
+    }
+
+    /**
+     * Insert a block at an index. Later blocks move up one index. <br>
+     * If the slot before the block now at index is empty, as it is just
+     * after remove(index), the block goes in that slot in O(log n) time.
+     * Otherwise the log is compacted around it, in O(n) time.
+     * @param index - the index to insert at
+     * @param block - the block to insert
+     * @require 0 &le; index &le; size()
+     */
+    void insert(int index, Block block) {
+        if (index == this.size) {
+            add(block);
+            return;
+        }
+        int free = slotOf(index) - 1;
+        if (free >= 0 && this.log[free] == null) {
+            this.log[free] = block;
+            increment(free, 1);
+        } else {
+            Block[] old = this.log;
+            int oldEnd = this.end;
+            allocate(Math.max(INITIAL_CAPACITY, 2 * (this.size + 1)));
+            for (int slot = 0; slot < oldEnd; slot++) {
+                if (old[slot] == null) {
+                    continue;
+                }
+                if (this.end == index) {
+                    this.log[this.end++] = block;
+                }
+                this.log[this.end++] = old[slot];
+            }
+            buildTree();
+        }
+        this.size++;
+        count(block, 1);
+    }
+
+    /**
+     * Get the number of blocks of a type in the inventory.
+     * @param blockType - a name returned by Block.getBlockType()
+     * @return - the number of blocks with that type
+     */
+    int count(String blockType) {
+        int code = BlockRegistry.codeOfType(blockType);
+        if (code != BlockStacks.NO_CODE) {
+            return this.counts[code];
+        }
+        if (this.otherCounts == null) {
+            return 0;
+        }
+        return this.otherCounts.getOrDefault(blockType, 0);
+    }
+
+    /**
+     * Add change to the count of the type of block.
+     */
+    private void count(Block block, int change) {
+        String type = block.getBlockType();
+        int code = BlockRegistry.codeOfType(type);
+        if (code != BlockStacks.NO_CODE) {
+            this.counts[code] += change;
+            return;
+        }
+        if (this.otherCounts == null) {
+            this.otherCounts = new HashMap<>();
+        }
+        if (this.otherCounts.merge(type, change, Integer::sum) == 0) {
+            this.otherCounts.remove(type);
+        }
+    }
+
+    /**
+     * Find the slot of the block at an index, by walking down the Fenwick
+     * tree.
+     */
+    private int slotOf(int index) {
+        int position = 0;
+        int remaining = index + 1;
+        for (int step = Integer.highestOneBit(this.log.length); step > 0;
+                step >>>= 1) {
+            int next = position + step;
+            if (next <= this.log.length && this.tree[next] < remaining) {
+                position = next;
+                remaining -= this.tree[next];
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Add change to the number of blocks in slot.
+     */
+    private void increment(int slot, int change) {
+        for (int i = slot + 1; i < this.tree.length; i += i & -i) {
+            this.tree[i] += change;
+        }
+    }
+
+    /**
+     * Move the blocks to the start of a new log with capacity slots, and
+     * rebuild the tree. Takes O(capacity) time.
+     */
+    private void compact(int capacity) {
+        Block[] old = this.log;
+        int oldEnd = this.end;
+        allocate(capacity);
+        for (int slot = 0; slot < oldEnd; slot++) {
+            if (old[slot] != null) {
+                this.log[this.end++] = old[slot];
+            }
+        }
+        buildTree();
+    }
+
+    /**
+     * Build the tree over a log whose blocks fill its first end slots.
+     */
+    private void buildTree() {
+        for (int i = 1; i < this.tree.length; i++) {
+            if (i <= this.end) {
+                this.tree[i]++;
+            }
+            int parent = i + (i & -i);
+            if (parent < this.tree.length) {
+                this.tree[parent] += this.tree[i];
+            }
+        }
+    }
+
+    /**
+     * Replace the log and tree with empty ones of the given capacity.
+     */
+    private void allocate(int capacity) {
+        this.log = new Block[capacity];
+        this.tree = new int[capacity + 1];
+        this.end = 0;
+    }
+
+    /**
+     * The read-only list returned by view().
+     */
+    private final class View extends AbstractList<Block>
+            implements RandomAccess {
+        @Override
+        public Block get(int index) {
+            Objects.checkIndex(index, size);
+            return BlockInventory.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package csse2002.block.world;
+
+/**
+ * One shared instance of each type of block. <br>
+ * Blocks have no state of their own, so every SoilBlock is the same as any
+ * other, and so on. Tiles, the map loaders and the builder's inventory take
+ * their blocks from here rather than creating a new object per block.
+ */
+final class BlockRegistry {
+    /* The shared block of each type, indexed by block code (see
+     * BlockStacks) */
+    private static final Block[] BLOCKS = {
+        new SoilBlock(), new GrassBlock(), new WoodBlock(), new StoneBlock()
+    };
+
+    private BlockRegistry() {
+    }
+
+    /**
+     * Get the shared block with a code.
+     * @param code - a block code (see BlockStacks)
+     * @return - the block of that type
+     * @require BlockStacks.SOIL &le; code &le; BlockStacks.STONE
+     */
+    static Block forCode(int code) {
+        return BLOCKS[code];
+    }
+
+    /**
+     * Get the code of a block type.
+     * @param type - a name returned by Block.getBlockType(), e.g. "soil"
+     * @return - the code of that type (see BlockStacks), or
+     *           BlockStacks.NO_CODE if type is not the type of any block
+     *           here
+     */
+    static int codeOfType(String type) {
+        for (int code = 0; code < BLOCKS.length; code++) {
+            if (BLOCKS[code].getBlockType().equals(type)) {
+                return code;
+            }
+        }
+        return BlockStacks.NO_CODE;
+    }
+
+    /**
+     * Get the shared block whose type name is in part of a scanner's buffer.
+     * @param input - the scanner holding the name
+     * @param from - the index of the start of the name
+     * @param to - the index after the end of the name
+     * @return - the block of that type, or null if the name is not the type
+     *           of any block
+     */
+    static Block forType(WorldMapScanner input, int from, int to) {
+        for (Block block : BLOCKS) {
+            if (input.matches(from, to, block.getBlockType())) {
+                return block;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,215 @@
+package csse2002.block.world;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Operations on stacks of blocks packed into an int. <br>
+ * There are only four types of block, so each block is stored as a 2-bit
+ * code (see SOIL, GRASS, WOOD and STONE), with the lowest block in the
+ * lowest bits. A tile holds at most MAX_HEIGHT blocks, so the codes fit in
+ * the low 16 bits, and the height is stored above them from HEIGHT_SHIFT.
+ * Bits for codes above the top of the stack are always zero.
+ */
+final class BlockStacks {
+    /* Block codes */
+    static final int SOIL = 0;
+    static final int GRASS = 1;
+    static final int WOOD = 2;
+    static final int STONE = 3;
+
+    /* Returned by codeOf() for a block that is not one of the four types */
+    static final int NO_CODE = -1;
+
+    /* A stack with no blocks */
+    static final int EMPTY = 0;
+
+    /* The most blocks a tile can hold (see Tile(List)) */
+    static final int MAX_HEIGHT = 8;
+
+    /* The most ground blocks a tile can hold (see Tile(List)) */
+    static final int MAX_GROUND_HEIGHT = 3;
+
+    /* Position of the height in a packed stack, above the block codes */
+    static final int HEIGHT_SHIFT = 16;
+
+    /* Bits used by each block code */
+    private static final int BITS_PER_BLOCK = 2;
+
+    /* Mask for one block code */
+    private static final int BLOCK_MASK = (1 << BITS_PER_BLOCK) - 1;
+
+    /* Mask for every block code in a stack */
+    private static final int CODES_MASK = (1 << HEIGHT_SHIFT) - 1;
+
+    /* Adding this to a stack adds one to its height */
+    private static final int ONE_BLOCK = 1 << HEIGHT_SHIFT;
+
+    /* Bit c is set if blocks with code c are ground blocks */
+    private static final int GROUND = (1 << SOIL) | (1 << GRASS);
+
+    /* Bit c is set if blocks with code c are diggable */
+    private static final int DIGGABLE = propertyBits(Block::isDiggable);
+
+    /* Bit c is set if blocks with code c are moveable */
+    private static final int MOVEABLE = propertyBits(Block::isMoveable);
+
+    /**
+     * The bits of a property of each block type, taken from the block
+     * classes themselves so they cannot disagree.
+     */
+    private static int propertyBits(Predicate<Block> property) {
+        int bits = 0;
+        for (int code = SOIL; code <= STONE; code++) {
+            if (property.test(BlockRegistry.forCode(code))) {
+                bits |= 1 << code;
+            }
+        }
+        return bits;
+    }
+
+    private BlockStacks() {
+    }
+
+    /**
+     * Get the number of blocks in a stack.
+     * @param stack - a packed stack
+     * @return - the height of the stack
+     */
+    static int height(int stack) {
+        return stack >>> HEIGHT_SHIFT;
+    }
+
+    /**
+     * Get the code of one block in a stack.
+     * @param stack - a packed stack
+     * @param index - the index of the block, 0 being the bottom
+     * @return - the code of the block
+     * @require 0 &le; index &lt; height(stack)
+     */
+    static int codeAt(int stack, int index) {
+        return (stack >>> (BITS_PER_BLOCK * index)) & BLOCK_MASK;
+    }
+
+    /**
+     * Get the code of the top block in a stack.
+     * @param stack - a packed stack
+     * @return - the code of the top block
+     * @require height(stack) &gt; 0
+     */
+    static int topCode(int stack) {
+        return codeAt(stack, height(stack) - 1);
+    }
+
+    /**
+     * Add a block to the top of a stack.
+     * @param stack - a packed stack
+     * @param code - the code of the block to add
+     * @return - the stack with the block added
+     * @require height(stack) &lt; MAX_HEIGHT
+     */
+    static int push(int stack, int code) {
+        return (stack + ONE_BLOCK)
+                | (code << (BITS_PER_BLOCK * height(stack)));
+    }
+
+    /**
+     * Remove the top block of a stack.
+     * @param stack - a packed stack
+     * @return - the stack without its top block
+     * @require height(stack) &gt; 0
+     */
+    static int pop(int stack) {
+        int top = BITS_PER_BLOCK * (height(stack) - 1);
+        return (stack - ONE_BLOCK) & ~(BLOCK_MASK << top);
+    }
+
+    /**
+     * Check if blocks with a code are ground blocks.
+     * @param code - a block code
+     * @return - true if the block type is a GroundBlock
+     */
+    static boolean isGround(int code) {
+        return ((GROUND >>> code) & 1) != 0;
+    }
+
+    /**
+     * Check if blocks with a code are diggable.
+     * @param code - a block code
+     * @return - true if the block type is diggable
+     */
+    static boolean isDiggable(int code) {
+        return ((DIGGABLE >>> code) & 1) != 0;
+    }
+
+    /**
+     * Check if blocks with a code are moveable.
+     * @param code - a block code
+     * @return - true if the block type is moveable
+     */
+    static boolean isMoveable(int code) {
+        return ((MOVEABLE >>> code) & 1) != 0;
+    }
+
+    /**
+     * Get the code for a block.
+     * @param block - the block
+     * @return - the code of its type, or NO_CODE if it is not a SoilBlock,
+     *           GrassBlock, WoodBlock or StoneBlock
+     */
+    static int codeOf(Block block) {
+        if (block instanceof SoilBlock) {
+            return SOIL;
+        } else if (block instanceof GrassBlock) {
+            return GRASS;
+        } else if (block instanceof WoodBlock) {
+            return WOOD;
+        } else if (block instanceof StoneBlock) {
+            return STONE;
+        }
+        return NO_CODE;
+    }
+
+    /**
+     * Pack a list of blocks into a stack.
+     * @param blocks - the blocks, from the bottom up
+     * @return - the packed stack
+     * @throws IllegalArgumentException - if there are more than MAX_HEIGHT
+     *                                    blocks, or a block has no code
+     */
+    static int pack(List<Block> blocks) {
+        if (blocks.size() > MAX_HEIGHT) {
+            throw new IllegalArgumentException();
+        }
+        int stack = EMPTY;
+        for (Block block : blocks) {
+            int code = codeOf(block);
+            if (code == NO_CODE) {
+                throw new IllegalArgumentException(block.getBlockType());
+            }
+            stack = push(stack, code);
+        }
+        return stack;
+    }
+
+    /**
+     * Check that an int could be the packed blocks of a tile, with at most
+     * MAX_HEIGHT blocks, no ground blocks above MAX_GROUND_HEIGHT (see
+     * Tile(List)) and no bits set above the top block.
+     * @param stack - the int to check
+     * @return - true if the stack is valid
+     */
+    static boolean isValid(int stack) {
+        int height = height(stack);
+        if (height > MAX_HEIGHT
+                || (stack & CODES_MASK) >>> (BITS_PER_BLOCK * height) != 0) {
+            return false;
+        }
+        for (int i = MAX_GROUND_HEIGHT; i < height; i++) {
+            if (isGround(codeAt(stack, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -13,4 +13,18 @@ public class BlockWorldException extends Exception {
         super(message);
     }
 
+    /**
+     * Create an exception that may have no stack trace. <br>
+     * The exceptions thrown by Tile and Builder report ordinary rejected
+     * moves, which are common and expected. Walking the stack to fill in a
+     * trace costs far more than the move itself, and the trace says
+     * nothing the exception type does not.
+     * @param message the detail message, or null
+     * @param writableStackTrace false to leave out the stack trace
+     */
+    protected BlockWorldException(String message,
+            boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+    }
+
 }
@@ -1,9 +1,6 @@
 package csse2002.block.world;
 
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * A Player who modifies the map. <br>
@@ -14,7 +11,7 @@ import java.util.Map;
  */
 public class Builder {
     /* Our inventory */
-    private List<Block> contents;
+    private final BlockInventory contents = new BlockInventory();
 
     /* Where the builder currently is */
     private Tile currentTile;
@@ -33,7 +30,6 @@ public class Builder {
     public Builder(String name, Tile startingTile) {
         this.name = name;
         currentTile = startingTile;
-        contents = new LinkedList<Block>();
     }
 
     /**
@@ -58,7 +54,6 @@ public class Builder {
             List<Block> startingInventory) throws InvalidBlockException {
         this.name = name;
         currentTile = startingTile;
-        contents = new LinkedList<Block>();
 
         // copy starting inventory into contents
         for (Block block: startingInventory) {
@@ -91,7 +86,16 @@ public class Builder {
      * @return blocks in the inventory
      */
     public List<Block> getInventory() {
-        return Collections.unmodifiableList(this.contents);
+        return this.contents.view();
+    }
+
+    /**
+     * Count the blocks of a type in the Builder's inventory.
+     * @param blockType the type of block, as given by Block.getBlockType()
+     * @return the number of blocks in getInventory() with that type
+     */
+    public int countInventory(String blockType) {
+        return this.contents.count(blockType);
     }
 
     /**
@@ -123,16 +127,34 @@ public class Builder {
      */
     public void dropFromInventory(int inventoryIndex) throws
             InvalidBlockException, TooHighException {
-        if (inventoryIndex < 0 || inventoryIndex >= contents.size()) {
-            throw new InvalidBlockException();
+        switch (tryDropFromInventory(inventoryIndex)) {
+            case MutationStatus.INVALID_BLOCK:
+                throw new InvalidBlockException();
+            case MutationStatus.TOO_HIGH:
+                throw new TooHighException();
         }
+    }
 
-        Block block = contents.get(inventoryIndex);
-
-        // should handle the TooHighException
-        currentTile.placeBlock(block);
+    /**
+     * Attempt to drop a block from inventory on the top of the current
+     * tile, as for dropFromInventory(), but return a status code rather
+     * than throwing an exception.
+     * @param inventoryIndex the index in the inventory to place
+     * @return MutationStatus.OK if the block was dropped,
+     *         MutationStatus.INVALID_BLOCK if the inventoryIndex is out of
+     *         the inventory range, or MutationStatus.TOO_HIGH if there is
+     *         no room for the block on the current tile
+     */
+    public int tryDropFromInventory(int inventoryIndex) {
+        if (inventoryIndex < 0 || inventoryIndex >= contents.size()) {
+            return MutationStatus.INVALID_BLOCK;
+        }
 
-        contents.remove(inventoryIndex);
+        int status = currentTile.tryPlaceBlock(contents.get(inventoryIndex));
+        if (status == MutationStatus.OK) {
+            contents.remove(inventoryIndex);
+        }
+        return status;
     }
 
     /**
@@ -156,15 +178,34 @@ public class Builder {
      */
     public void digOnCurrentTile() throws TooLowException,
             InvalidBlockException {
+        switch (tryDigOnCurrentTile()) {
+            case MutationStatus.TOO_LOW:
+                throw new TooLowException();
+            case MutationStatus.INVALID_BLOCK:
+                throw new InvalidBlockException();
+        }
+    }
 
-        // throws TooLowException if no blocks, and InvalidBlockException if
-        // not diggable.
-        Block block = currentTile.dig();
+    /**
+     * Attempt to dig in the current tile, as for digOnCurrentTile(), but
+     * return a status code rather than throwing an exception.
+     * @return MutationStatus.OK if the top block was removed,
+     *         MutationStatus.TOO_LOW if there are no blocks on the current
+     *         tile, or MutationStatus.INVALID_BLOCK if the top block is not
+     *         diggable
+     */
+    public int tryDigOnCurrentTile() {
+        int stack = currentTile.getPackedBlocks();
+        int status = currentTile.tryDig();
 
         // only add the block to the inventory if it is carryable.
-        if (block.isCarryable()) {
-            contents.add(block);
+        if (status == MutationStatus.OK) {
+            Block block = BlockRegistry.forCode(BlockStacks.topCode(stack));
+            if (block.isCarryable()) {
+                contents.add(block);
+            }
         }
+        return status;
     }
 
     /**
@@ -187,17 +228,9 @@ public class Builder {
             return false;
         }
 
-        boolean tilesAreConnected = false;
+        boolean tilesAreConnected = currentTile.hasExitTo(newTile);
         boolean heightsAreCompatible = false;
 
-        for (Map.Entry<String,
-                       Tile> entry : currentTile.getExits().entrySet()) {
-            if (entry.getValue() == newTile) {
-                tilesAreConnected = true;
-                break;
-            }
-        }
-
         if (Math.abs(newTile.getBlocks().size()
                      - currentTile.getBlocks().size()) <= 1) {
             heightsAreCompatible = true;
@@ -207,6 +240,45 @@ public class Builder {
         return tilesAreConnected && heightsAreCompatible;
     }
 
+    /**
+     * Find a shortest route from the current tile to a target tile. <br>
+     * Each step of the route is through a "north", "east", "south" or
+     * "west" exit, to a tile that can be entered from the one before it
+     * (see canEnter()). Heights are those at the time of the call.
+     * @param target the tile to go to
+     * @return the tiles to pass to moveTo() in order, ending with target.
+     *         Empty if target is the current tile, or null if target is
+     *         null or cannot be reached.
+     */
+    public List<Tile> findPath(Tile target) {
+        if (target == null) {
+            return null;
+        }
+        return PathFinder.findPath(currentTile, target);
+    }
+
+    /**
+     * Check if the builder could walk from the current tile to a target
+     * tile, i.e. findPath(target) != null. <br>
+     * Within a SparseTileArray the answer comes from an index that is kept
+     * up to date as blocks and exits change, so it is usually found without
+     * a search. Maps shared through a ConcurrentWorld keep no index, and
+     * always search.
+     * @param target the tile to go to
+     * @return true if there is a route to target
+     */
+    public boolean canReach(Tile target) {
+        if (target == null) {
+            return false;
+        }
+        SparseTileArray array = currentTile.sparseTileArray;
+        if (array != null && target.sparseTileArray == array
+                && array.reachesByIndex()) {
+            return array.canReach(currentTile, target);
+        }
+        return findPath(target) != null;
+    }
+
     /**
      * Move the builder to a new tile. <br>
      * If canEnter(newTile) == true then
@@ -218,11 +290,42 @@ public class Builder {
      * @throws NoExitException if canEnter(newTile) == false
      */
     public void moveTo(Tile newTile) throws NoExitException {
-        if (!canEnter(newTile)) {
+        if (tryMoveTo(newTile) != MutationStatus.OK) {
             throw new NoExitException();
         }
+    }
+
+    /**
+     * Attempt to move the builder to a new tile, as for moveTo(), but
+     * return a status code rather than throwing an exception.
+     * @param newTile the tile to move to
+     * @return MutationStatus.OK if the builder moved, or
+     *         MutationStatus.NO_EXIT if canEnter(newTile) == false
+     */
+    public int tryMoveTo(Tile newTile) {
+        if (!canEnter(newTile)) {
+            return MutationStatus.NO_EXIT;
+        }
 
         currentTile = newTile;
+        return MutationStatus.OK;
+    }
+
+    /**
+     * Put the builder on a tile without checking that it can enter it,
+     * e.g. to undo a move (see DeltaLog).
+     * @param tile the tile to put the builder on
+     */
+    void setCurrentTile(Tile tile) {
+        currentTile = tile;
+    }
+
+    /**
+     * Get the builder's inventory itself, which may be changed.
+     * @return the inventory
+     */
+    BlockInventory inventory() {
+        return contents;
     }
 
 }
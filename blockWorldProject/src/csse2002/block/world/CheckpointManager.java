@@ -0,0 +1,359 @@
+package csse2002.block.world;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a directory of checkpoints of a WorldMap and journals of the
+ * actions performed since them, so that after a crash the map can be
+ * rebuilt (see recover()) by replaying at most one checkpoint interval of
+ * actions, however long the session was. <br>
+ * The directory holds:
+ * <pre>
+ *  checkpoint.N    the map after the actions of all journals before N, in
+ *                  the binary format (see WorldMapBinaryFormat)
+ *  journal.N       the actions performed after checkpoint N was taken
+ *                  (see ActionJournal)
+ * </pre>
+ * A checkpoint is taken after every everyActions actions, or after the
+ * first action everyMillis after the last one, whichever comes first. It
+ * is taken between two actions, on the thread performing them: the
+ * journal is forced to disk, the state of the tiles is copied, and the
+ * journal moves on to a new file. The copy is then written out on a
+ * background thread while actions carry on. Once the checkpoint is safely
+ * on disk, the older checkpoints and journals are deleted. <br>
+ * If a checkpoint is still being written when the next is due, the next
+ * waits for a later action, so at most one copy of the tiles is kept. A
+ * checkpoint that fails to be written leaves the older files in place,
+ * so recovery is still possible, and the failure is thrown by close().
+ */
+final class CheckpointManager implements Closeable {
+    /* File name prefixes, followed by the sequence number */
+    private static final String CHECKPOINT = "checkpoint.";
+    private static final String JOURNAL = "journal.";
+
+    /* Suffix of a checkpoint still being written */
+    private static final String TEMPORARY = ".tmp";
+
+    /* The map being checkpointed */
+    private final WorldMap map;
+
+    /* The directory of checkpoints and journals */
+    private final Path directory;
+
+    /* Actions between checkpoints, or 0 for no limit */
+    private final long everyActions;
+
+    /* Passed on to each journal (see ActionJournal) */
+    private final long syncMillis;
+
+    /* Writes checkpoints, and marks them due every everyMillis */
+    private final ScheduledExecutorService writer;
+
+    /* The sequence number of the current journal */
+    private long sequence;
+
+    /* Actions performed since the last checkpoint */
+    private long actions;
+
+    /* Set when everyMillis have passed since the last checkpoint */
+    private volatile boolean due;
+
+    /* True while a checkpoint is being written */
+    private volatile boolean writing;
+
+    /* The first failure of a background write, if any */
+    private volatile IOException failure;
+
+    /**
+     * Start checkpointing a map. A first checkpoint of the map is written
+     * before this returns, and a journal started after it (replacing any
+     * journal the map had).
+     * @param map - the map to checkpoint
+     * @param directory - the directory to keep checkpoints and journals
+     *                    in, created if it does not exist. Files left by an
+     *                    earlier session are deleted once the first
+     *                    checkpoint is written.
+     * @param everyActions - the most actions between checkpoints, or 0
+     * @param everyMillis - the longest time between checkpoints, in ms, or
+     *                      0. A checkpoint is only taken after an action.
+     * @param syncMillis - the longest an action may wait before it is
+     *                     forced to disk, in ms (see ActionJournal)
+     * @throws IOException - if the first checkpoint or journal cannot be
+     *                       written
+     * @require - everyActions &ge; 0, everyMillis &ge; 0, syncMillis &ge; 0
+     */
+    CheckpointManager(WorldMap map, Path directory, long everyActions,
+            long everyMillis, long syncMillis) throws IOException {
+        this.map = map;
+        this.directory = directory;
+        this.everyActions = everyActions;
+        this.syncMillis = syncMillis;
+
+        Files.createDirectories(directory);
+        this.sequence = lastSequence(directory) + 1;
+        writeCheckpoint(new WorldMapBinaryFormat.Snapshot(map),
+                this.sequence);
+        map.stopJournal();
+        map.journal = new ActionJournal(file(JOURNAL, this.sequence),
+                syncMillis);
+        deleteBefore(this.sequence);
+
+        this.writer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (everyMillis > 0) {
+            this.writer.scheduleWithFixedDelay(() -> this.due = true,
+                    everyMillis, everyMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Count an action performed on the map, taking a checkpoint if one is
+     * due. Must be called on the thread performing actions, after the
+     * action.
+     */
+    void actionPerformed() {
+        this.actions++;
+        if ((this.everyActions > 0 && this.actions >= this.everyActions)
+                || this.due) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Take a checkpoint now, unless one is still being written. Must be
+     * called on the thread performing actions, between actions.
+     * @return - true if a checkpoint was taken, false if the last one is
+     *           still being written, or the current journal could not be
+     *           forced to disk or a new journal could not be opened
+     */
+    boolean checkpoint() {
+        if (this.writing) {
+            return false;
+        }
+        ActionJournal previous = this.map.journal;
+        long next = this.sequence + 1;
+        ActionJournal journal;
+        try {
+            // until the checkpoint is written, recovery replays this journal
+            // and then the next, so it must be complete before the next
+            // gets any actions
+            if (previous != null) {
+                previous.sync();
+            }
+            journal = new ActionJournal(file(JOURNAL, next), this.syncMillis);
+        } catch (IOException e) {
+            // carry on with the current journal, which refuses actions if
+            // it could not be forced
+            fail(e);
+            return false;
+        }
+        WorldMapBinaryFormat.Snapshot snapshot =
+                new WorldMapBinaryFormat.Snapshot(this.map);
+        this.map.journal = journal;
+        this.sequence = next;
+        this.actions = 0;
+        this.due = false;
+
+        this.writing = true;
+        this.writer.execute(() -> {
+            try {
+                if (previous != null) {
+                    previous.close();
+                }
+            } catch (IOException e) {
+                // its actions were forced before the switch, so none are
+                // lost
+                fail(e);
+            }
+            try {
+                writeCheckpoint(snapshot, next);
+                deleteBefore(next);
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new IOException(e));
+            } finally {
+                this.writing = false;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Stop checkpointing, waiting for a checkpoint being written, then
+     * close the journal. The map is left with no journal started.
+     * @throws IOException - if writing a checkpoint or journal failed
+     */
+    @Override
+    public void close() throws IOException {
+        this.writer.shutdown();
+        try {
+            this.writer.awaitTermination(Long.MAX_VALUE,
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            this.map.stopJournal();
+        } catch (IOException e) {
+            fail(e);
+        }
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    /**
+     * Rebuild a map from a directory kept by a CheckpointManager, by
+     * loading the latest checkpoint and performing the actions in the
+     * journals since it.
+     * @param directory - the directory of checkpoints and journals
+     * @return - the rebuilt map, with no journal started
+     * @throws WorldMapFormatException - if the checkpoint is not a binary
+     * map
+     * @throws WorldMapInconsistentException - if the checkpoint has
+     * inconsistencies (such as overlapping tiles)
+     * @throws IOException - if there is no checkpoint, or a file cannot be
+     * read
+     */
+    static WorldMap recover(Path directory) throws WorldMapFormatException,
+            WorldMapInconsistentException, IOException {
+        long checkpoint = -1;
+        List<Long> journals = new ArrayList<>();
+        try (DirectoryStream<Path> files =
+                Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long number = sequenceOf(name, CHECKPOINT);
+                if (number >= 0) {
+                    checkpoint = Math.max(checkpoint, number);
+                }
+                number = sequenceOf(name, JOURNAL);
+                if (number >= 0) {
+                    journals.add(number);
+                }
+            }
+        }
+        if (checkpoint < 0) {
+            throw new IOException("No checkpoint in " + directory);
+        }
+
+        WorldMap map = WorldMapBinaryFormat.read(
+                directory.resolve(CHECKPOINT + checkpoint));
+        Collections.sort(journals);
+        for (long journal : journals) {
+            // journals before the checkpoint may be left by a crash while
+            // deleting them, and are already part of it
+            if (journal >= checkpoint) {
+                ActionJournal.replay(directory.resolve(JOURNAL + journal),
+                        map);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Write a checkpoint to a temporary file, force it to disk, then give
+     * it its name, so a checkpoint file is always complete.
+     */
+    private void writeCheckpoint(WorldMapBinaryFormat.Snapshot snapshot,
+            long number) throws IOException {
+        Path temporary = this.directory.resolve(
+                CHECKPOINT + number + TEMPORARY);
+        WorldMapBinaryFormat.write(snapshot, temporary);
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, file(CHECKPOINT, number),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Delete the checkpoints and journals before a checkpoint, including
+     * checkpoints left half-written.
+     */
+    private void deleteBefore(long number) throws IOException {
+        try (DirectoryStream<Path> files =
+                Files.newDirectoryStream(this.directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMPORARY)) {
+                    name = name.substring(0,
+                            name.length() - TEMPORARY.length());
+                }
+                long sequence = Math.max(sequenceOf(name, CHECKPOINT),
+                        sequenceOf(name, JOURNAL));
+                if (sequence >= 0 && sequence < number) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * The highest sequence number of a file in a directory, or -1 if it
+     * has none.
+     */
+    private static long lastSequence(Path directory) throws IOException {
+        long last = -1;
+        try (DirectoryStream<Path> files =
+                Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                last = Math.max(last, Math.max(sequenceOf(name, CHECKPOINT),
+                        sequenceOf(name, JOURNAL)));
+            }
+        }
+        return last;
+    }
+
+    /**
+     * The sequence number of a file named prefix followed by a number, or
+     * -1 if the name is not of that form.
+     */
+    private static long sequenceOf(String name, String prefix) {
+        if (!name.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            long number = Long.parseLong(name.substring(prefix.length()));
+            return number < 0 ? -1 : number;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The file with a prefix and sequence number in the directory.
+     */
+    private Path file(String prefix, long number) {
+        return this.directory.resolve(prefix + number);
+    }
+
+    /**
+     * Keep the first failure, for close() to throw.
+     */
+    private void fail(IOException e) {
+        if (this.failure == null) {
+            this.failure = e;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package csse2002.block.world;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A block world map shared by many builders, each driven by its own
+ * thread. <br>
+ * Changes to tiles go through this class, which guards each tile with a
+ * lock chosen by the tile's position (see StripedTileLocks). Operations on
+ * two tiles, such as moving a block or a builder through an exit, lock
+ * both tiles in a fixed order, so builders cannot deadlock. Builders
+ * working in different regions of the map seldom share a lock, so they
+ * can work at the same time. <br>
+ * The map keeps no reachability index while shared (see
+ * SparseTileArray.disableReachability()), as every height change would
+ * have to update it under one lock; Builder.canReach() searches instead.
+ * <br>
+ * Each builder, and its inventory, must only be used by one thread at a
+ * time. The exits of the map must not change while the world is in use.
+ * @serial exclude
+ */
+public class ConcurrentWorld {
+    /* The map being shared */
+    private final WorldMap map;
+
+    /* Locks guarding the tiles of the map, by position */
+    private final StripedTileLocks locks;
+
+    /* The builders working in the map */
+    private final List<Builder> builders = new CopyOnWriteArrayList<>();
+
+    /**
+     * Share a map between builders. The map's own builder is the first
+     * builder in the world.
+     * @param map the map to share
+     */
+    public ConcurrentWorld(WorldMap map) {
+        this(map, new StripedTileLocks());
+    }
+
+    /**
+     * Share a map between builders, guarding its tiles with at least
+     * stripes locks.
+     * @param map the map to share
+     * @param stripes the least number of locks to share between tiles
+     */
+    public ConcurrentWorld(WorldMap map, int stripes) {
+        this(map, new StripedTileLocks(stripes));
+    }
+
+    private ConcurrentWorld(WorldMap map, StripedTileLocks locks) {
+        this.map = map;
+        this.locks = locks;
+        // drop any tiles left unreachable, so that later position lookups
+        // only read the array
+        map.getTiles();
+        map.sparseTile.disableReachability();
+        if (map.getBuilder() != null) {
+            builders.add(map.getBuilder());
+        }
+    }
+
+    /**
+     * Get the shared map.
+     * @return the map
+     */
+    public WorldMap getMap() {
+        return map;
+    }
+
+    /**
+     * Add a builder to the world.
+     * @param builder the builder, whose current tile must be a tile of the
+     *                map
+     */
+    public void addBuilder(Builder builder) {
+        builders.add(builder);
+    }
+
+    /**
+     * Get the builders in the world, in the order they were added.
+     * @return a read-only list of the builders
+     */
+    public List<Builder> getBuilders() {
+        return Collections.unmodifiableList(builders);
+    }
+
+    /**
+     * Dig on a builder's current tile, as for Builder.digOnCurrentTile(),
+     * while holding the tile's lock.
+     * @param builder the builder who digs
+     * @throws TooLowException if there are no blocks on the current tile.
+     * @throws InvalidBlockException if the top block is not diggable
+     */
+    public void dig(Builder builder) throws TooLowException,
+            InvalidBlockException {
+        long position = positionOf(builder.getCurrentTile());
+        locks.lock(position);
+        try {
+            builder.digOnCurrentTile();
+        } finally {
+            locks.unlock(position);
+        }
+    }
+
+    /**
+     * Drop a block from a builder's inventory on the current tile, as for
+     * Builder.dropFromInventory(), while holding the tile's lock.
+     * @param builder the builder who drops the block
+     * @param inventoryIndex the index in the inventory to place
+     * @throws InvalidBlockException if the inventoryIndex is out of the
+     *                               inventory range
+     * @throws TooHighException if the block cannot be placed on the tile
+     */
+    public void dropFromInventory(Builder builder, int inventoryIndex)
+            throws InvalidBlockException, TooHighException {
+        long position = positionOf(builder.getCurrentTile());
+        locks.lock(position);
+        try {
+            builder.dropFromInventory(inventoryIndex);
+        } finally {
+            locks.unlock(position);
+        }
+    }
+
+    /**
+     * Place a block on a builder's current tile, as for Tile.placeBlock(),
+     * while holding the tile's lock.
+     * @param builder the builder who places the block
+     * @param block the block to place
+     * @throws TooHighException if there are already 8 blocks on the tile, or
+     *                          if this is a ground block and there are
+     *                          already 3 or more blocks on the tile.
+     * @throws InvalidBlockException if the block is null, or is not a
+     *                               SoilBlock, GrassBlock, WoodBlock or
+     *                               StoneBlock
+     */
+    public void placeBlock(Builder builder, Block block)
+            throws TooHighException, InvalidBlockException {
+        Tile tile = builder.getCurrentTile();
+        long position = positionOf(tile);
+        locks.lock(position);
+        try {
+            tile.placeBlock(block);
+        } finally {
+            locks.unlock(position);
+        }
+    }
+
+    /**
+     * Move the top block of a builder's current tile through an exit, as
+     * for Tile.moveBlock(), while holding the locks of both tiles.
+     * @param builder the builder who moves the block
+     * @param direction the direction of the exit to move the block to
+     * @throws TooHighException if the target tile is &ge; to the current
+     *                          one.
+     * @throws InvalidBlockException if the block is not moveable
+     * @throws NoExitException if direction is null or there is no exit that
+     *                         way
+     */
+    public void moveBlock(Builder builder, Direction direction)
+            throws TooHighException, InvalidBlockException,
+            NoExitException {
+        Tile tile = builder.getCurrentTile();
+        Tile exit = direction == null ? null : tile.getExit(direction);
+        if (exit == null) {
+            throw new NoExitException();
+        }
+
+        long from = positionOf(tile);
+        long to = positionOf(exit);
+        locks.lock(from, to);
+        try {
+            tile.moveBlock(direction);
+        } finally {
+            locks.unlock(from, to);
+        }
+    }
+
+    /**
+     * Move a builder through an exit, as for Builder.moveTo(), while
+     * holding the locks of both tiles so their heights cannot change
+     * during the move.
+     * @param builder the builder to move
+     * @param direction the direction of the exit to move through
+     * @throws NoExitException if direction is null, there is no exit that
+     *                         way, or the builder cannot enter the tile
+     */
+    public void moveBuilder(Builder builder, Direction direction)
+            throws NoExitException {
+        Tile tile = builder.getCurrentTile();
+        Tile exit = direction == null ? null : tile.getExit(direction);
+        if (exit == null) {
+            throw new NoExitException();
+        }
+
+        long from = positionOf(tile);
+        long to = positionOf(exit);
+        locks.lock(from, to);
+        try {
+            builder.moveTo(exit);
+        } finally {
+            locks.unlock(from, to);
+        }
+    }
+
+    /**
+     * The position of a tile in the map. As exits do not change, this only
+     * reads the map's SparseTileArray, so it is safe to call from any
+     * thread. Tiles outside the map all share the lock of Position.NONE.
+     */
+    private long positionOf(Tile tile) {
+        return map.sparseTile.positionOf(tile);
+    }
+}
@@ -0,0 +1,35 @@
+package csse2002.block.world;
+
+/**
+ * Counts the results of each kind, and keeps nothing else.
+ */
+final class CountingResultSink implements ActionResultSink {
+    /* The number of results of each kind, indexed by ordinal */
+    private final long[] counts = new long[ActionResult.values().length];
+
+    /* The number of results of any kind */
+    private long total;
+
+    @Override
+    public void accept(ActionResult result, String detail) {
+        this.counts[result.ordinal()]++;
+        this.total++;
+    }
+
+    /**
+     * Get the number of results of one kind.
+     * @param result - the kind of result
+     * @return - the number received
+     */
+    long getCount(ActionResult result) {
+        return this.counts[result.ordinal()];
+    }
+
+    /**
+     * Get the number of results received.
+     * @return - the number of results of any kind
+     */
+    long getTotal() {
+        return this.total;
+    }
+}
@@ -0,0 +1,252 @@
+package csse2002.block.world;
+
+/**
+ * A bounded log of the changes made by actions to a WorldMap, so that they
+ * can be undone and redone (see WorldMap.undo() and WorldMap.redo()). <br>
+ * Each action is kept as a delta holding just enough to reverse it:
+ * <ul>
+ * <li> a move of the builder keeps the tiles it moved from and to </li>
+ * <li> a dig keeps the tile, its blocks before the dig (in the packed form
+ *      of BlockStacks), and the block added to the inventory, if any </li>
+ * <li> a drop keeps the tile, its blocks before the drop, the inventory
+ *      index and the block dropped </li>
+ * <li> a move of a block keeps both tiles and their blocks before the
+ *      move </li>
+ * </ul>
+ * Deltas are kept in parallel arrays used as a ring, so recording,
+ * undoing and redoing an action each take O(1) time (apart from restoring
+ * an inventory index, see BlockInventory.insert()), and no tiles are
+ * copied. Once the ring is full, recording an action forgets the oldest.
+ * Recording an action forgets any undone actions, which can no longer be
+ * redone. <br>
+ * Deltas restore state rather than repeat the action's checks, so the map
+ * must only be changed by actions while the log is in use.
+ */
+final class DeltaLog {
+    /* Kinds of delta */
+    private static final byte MOVE_BUILDER = 0;
+    private static final byte DIG = 1;
+    private static final byte DROP = 2;
+    private static final byte MOVE_BLOCK = 3;
+
+    /* The builder whose actions are logged */
+    private final Builder builder;
+
+    /* The deltas, indexed by slot. first and second are the tiles changed
+     * (for MOVE_BUILDER, the tiles moved from and to), and firstBefore and
+     * secondBefore their packed blocks before the change, firstAfter and
+     * secondAfter after it */
+    private final byte[] kinds;
+    private final Tile[] first;
+    private final Tile[] second;
+    private final int[] firstBefore;
+    private final int[] firstAfter;
+    private final int[] secondBefore;
+    private final int[] secondAfter;
+
+    /* For DIG, the block carried, or null. For DROP, the block dropped */
+    private final Block[] blocks;
+
+    /* For DROP, the inventory index of the block dropped */
+    private final int[] indexes;
+
+    /* The slot of the oldest delta */
+    private int oldest;
+
+    /* The number of deltas that can be undone */
+    private int done;
+
+    /* The number of deltas, including those undone that can be redone */
+    private int size;
+
+    /**
+     * Create an empty log.
+     * @param builder - the builder whose actions are logged
+     * @param capacity - the most actions the log can undo
+     * @require capacity &gt; 0
+     */
+    DeltaLog(Builder builder, int capacity) {
+        this.builder = builder;
+        this.kinds = new byte[capacity];
+        this.first = new Tile[capacity];
+        this.second = new Tile[capacity];
+        this.firstBefore = new int[capacity];
+        this.firstAfter = new int[capacity];
+        this.secondBefore = new int[capacity];
+        this.secondAfter = new int[capacity];
+        this.blocks = new Block[capacity];
+        this.indexes = new int[capacity];
+    }
+
+    /**
+     * Record that the builder moved between tiles.
+     * @param from - the tile the builder left
+     * @param to - the tile the builder is now on
+     */
+    void builderMoved(Tile from, Tile to) {
+        int slot = push(MOVE_BUILDER, from, 0);
+        this.second[slot] = to;
+    }
+
+    /**
+     * Record a dig on a tile.
+     * @param tile - the tile dug on
+     * @param before - the tile's packed blocks before the dig
+     * @param carried - the block added to the end of the inventory, or null
+     */
+    void dug(Tile tile, int before, Block carried) {
+        int slot = push(DIG, tile, before);
+        this.blocks[slot] = carried;
+    }
+
+    /**
+     * Record a drop from the inventory onto a tile.
+     * @param tile - the tile dropped on
+     * @param before - the tile's packed blocks before the drop
+     * @param index - the inventory index the block was dropped from
+     * @param block - the block dropped
+     */
+    void dropped(Tile tile, int before, int index, Block block) {
+        int slot = push(DROP, tile, before);
+        this.indexes[slot] = index;
+        this.blocks[slot] = block;
+    }
+
+    /**
+     * Record a move of a block between tiles.
+     * @param from - the tile the block was moved from
+     * @param fromBefore - its packed blocks before the move
+     * @param to - the tile the block was moved to
+     * @param toBefore - its packed blocks before the move
+     */
+    void blockMoved(Tile from, int fromBefore, Tile to, int toBefore) {
+        int slot = push(MOVE_BLOCK, from, fromBefore);
+        this.second[slot] = to;
+        this.secondBefore[slot] = toBefore;
+        this.secondAfter[slot] = to.getPackedBlocks();
+    }
+
+    /**
+     * Record the actions another log can undo, in the order they were
+     * performed, as if they had been recorded here. Used to keep the
+     * actions of a batch once it succeeds (see Action.processBatch()).
+     * @param other - the log to copy from
+     */
+    void append(DeltaLog other) {
+        for (int i = 0; i < other.done; i++) {
+            int from = other.slotOf(i);
+            int slot = push(other.kinds[from], other.first[from],
+                    other.firstBefore[from]);
+            this.firstAfter[slot] = other.firstAfter[from];
+            this.second[slot] = other.second[from];
+            this.secondBefore[slot] = other.secondBefore[from];
+            this.secondAfter[slot] = other.secondAfter[from];
+            this.blocks[slot] = other.blocks[from];
+            this.indexes[slot] = other.indexes[from];
+        }
+    }
+
+    /**
+     * Undo the most recent actions not yet undone.
+     * @param count - the most actions to undo
+     * @return - the number of actions undone, fewer than count if the log
+     *           ran out
+     */
+    int undo(int count) {
+        int undone = 0;
+        while (undone < count && this.done > 0) {
+            this.done--;
+            int slot = slotOf(this.done);
+            switch (this.kinds[slot]) {
+                case MOVE_BUILDER:
+                    this.builder.setCurrentTile(this.first[slot]);
+                    break;
+                case DIG:
+                    this.first[slot].setPackedBlocks(this.firstBefore[slot]);
+                    if (this.blocks[slot] != null) {
+                        BlockInventory inventory = this.builder.inventory();
+                        inventory.remove(inventory.size() - 1);
+                    }
+                    break;
+                case DROP:
+                    this.first[slot].setPackedBlocks(this.firstBefore[slot]);
+                    this.builder.inventory().insert(this.indexes[slot],
+                            this.blocks[slot]);
+                    break;
+                case MOVE_BLOCK:
+                    this.first[slot].setPackedBlocks(this.firstBefore[slot]);
+                    this.second[slot].setPackedBlocks(
+                            this.secondBefore[slot]);
+                    break;
+            }
+            undone++;
+        }
+        return undone;
+    }
+
+    /**
+     * Redo the actions most recently undone.
+     * @param count - the most actions to redo
+     * @return - the number of actions redone, fewer than count if there
+     *           were fewer undone
+     */
+    int redo(int count) {
+        int redone = 0;
+        while (redone < count && this.done < this.size) {
+            int slot = slotOf(this.done);
+            this.done++;
+            switch (this.kinds[slot]) {
+                case MOVE_BUILDER:
+                    this.builder.setCurrentTile(this.second[slot]);
+                    break;
+                case DIG:
+                    this.first[slot].setPackedBlocks(this.firstAfter[slot]);
+                    if (this.blocks[slot] != null) {
+                        this.builder.inventory().add(this.blocks[slot]);
+                    }
+                    break;
+                case DROP:
+                    this.first[slot].setPackedBlocks(this.firstAfter[slot]);
+                    this.builder.inventory().remove(this.indexes[slot]);
+                    break;
+                case MOVE_BLOCK:
+                    this.first[slot].setPackedBlocks(this.firstAfter[slot]);
+                    this.second[slot].setPackedBlocks(this.secondAfter[slot]);
+                    break;
+            }
+            redone++;
+        }
+        return redone;
+    }
+
+    /**
+     * Add a delta for a change to one tile, forgetting any undone deltas,
+     * and the oldest delta if the log is full.
+     * @return - the slot of the new delta
+     */
+    private int push(byte kind, Tile tile, int before) {
+        if (this.done == this.kinds.length) {
+            this.oldest = slotOf(1);
+            this.done--;
+        }
+        int slot = slotOf(this.done);
+        this.done++;
+        this.size = this.done;
+
+        this.kinds[slot] = kind;
+        this.first[slot] = tile;
+        this.firstBefore[slot] = before;
+        this.firstAfter[slot] = tile.getPackedBlocks();
+        this.second[slot] = null;
+        this.blocks[slot] = null;
+        return slot;
+    }
+
+    /**
+     * The slot of the delta made after the oldest by count actions.
+     */
+    private int slotOf(int count) {
+        int slot = this.oldest + count;
+        return slot >= this.kinds.length ? slot - this.kinds.length : slot;
+    }
+}
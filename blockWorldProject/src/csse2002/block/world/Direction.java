@@ -0,0 +1,98 @@
+package csse2002.block.world;
+
+/**
+ * The four directions a tile can have an exit in. <br>
+ * Each direction has the exit name used by Tile.getExits() and the map
+ * files ("north", "east", "south" or "west"), and the change in (x, y) of
+ * moving one tile that way, where north is towards smaller y.
+ */
+public enum Direction {
+    NORTH("north", 0, -1),
+    EAST("east", 1, 0),
+    SOUTH("south", 0, 1),
+    WEST("west", -1, 0);
+
+    /* Every direction, in order, so that values() is not cloned */
+    private static final Direction[] DIRECTIONS = values();
+
+    /* The exit name of the direction */
+    private final String name;
+
+    /* The change in x of moving one tile in this direction */
+    private final int dx;
+
+    /* The change in y of moving one tile in this direction */
+    private final int dy;
+
+    Direction(String name, int dx, int dy) {
+        this.name = name;
+        this.dx = dx;
+        this.dy = dy;
+    }
+
+    /**
+     * Get the exit name of this direction.
+     * @return "north", "east", "south" or "west"
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Get the change in x of moving one tile in this direction.
+     * @return -1, 0 or 1
+     */
+    public int getDx() {
+        return this.dx;
+    }
+
+    /**
+     * Get the change in y of moving one tile in this direction.
+     * @return -1, 0 or 1
+     */
+    public int getDy() {
+        return this.dy;
+    }
+
+    /**
+     * Get the direction pointing the other way.
+     * @return the opposite direction, e.g. SOUTH for NORTH
+     */
+    public Direction opposite() {
+        return DIRECTIONS[(ordinal() + 2) % DIRECTIONS.length];
+    }
+
+    /**
+     * Get the direction with an exit name.
+     * @param name the exit name, which may be null
+     * @return the direction named name, or null if name is not "north",
+     *         "east", "south" or "west"
+     */
+    public static Direction fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+        switch (name) {
+            case "north":
+                return NORTH;
+            case "east":
+                return EAST;
+            case "south":
+                return SOUTH;
+            case "west":
+                return WEST;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get a direction by its ordinal, without cloning values().
+     * @param ordinal the ordinal of the direction
+     * @return the direction
+     * @require 0 &le; ordinal &lt; 4
+     */
+    static Direction fromOrdinal(int ordinal) {
+        return DIRECTIONS[ordinal];
+    }
+}
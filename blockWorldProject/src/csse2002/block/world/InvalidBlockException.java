@@ -5,5 +5,11 @@ package csse2002.block.world;
 * @serial exclude
 */
 public class InvalidBlockException extends BlockWorldException {
-
+    /**
+     * Create the exception, without a stack trace (see
+     * BlockWorldException).
+     */
+    public InvalidBlockException() {
+        super(null, false);
+    }
 }
@@ -49,7 +49,9 @@ public class Main {
         }
 
         try {
-            Action.processActions(input, map);
+            // results are buffered rather than printed one at a time
+            TextResultSink output = new TextResultSink(System.out);
+            Action.processActions(input, map, output);
         } catch (ActionFormatException e) {
             System.err.println(e);
             System.exit(4);
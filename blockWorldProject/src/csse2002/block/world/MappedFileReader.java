@@ -0,0 +1,131 @@
+package csse2002.block.world;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads big-endian numbers from a file through memory-mapped windows. <br>
+ * A single MappedByteBuffer cannot be larger than 2GB, so the file is
+ * mapped one window at a time, moving the window forward as the file is
+ * read. Bytes are read straight from the page cache rather than being
+ * copied through a heap buffer.
+ */
+final class MappedFileReader {
+    /* The most bytes mapped at once */
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    /* The file being read */
+    private final FileChannel channel;
+
+    /* The size of the file */
+    private final long size;
+
+    /* The offset in the file of the start of window */
+    private long windowStart;
+
+    /* The mapped part of the file. Its position is the next byte to read */
+    private MappedByteBuffer window;
+
+    /**
+     * Create a reader starting at the beginning of a file.
+     * @param channel - the file to read, which must stay open while reading
+     * @throws IOException - if the file cannot be mapped
+     */
+    MappedFileReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        map(0);
+    }
+
+    /**
+     * Get the size of the file.
+     * @return - the size in bytes
+     */
+    long size() {
+        return this.size;
+    }
+
+    /**
+     * Check if every byte has been read.
+     * @return - true if there is nothing left to read
+     */
+    boolean atEnd() {
+        return this.windowStart + this.window.position() == this.size;
+    }
+
+    /**
+     * Read one unsigned byte.
+     * @return - the byte, from 0 to 255
+     * @throws EOFException - if there is nothing left to read
+     * @throws IOException - if the file cannot be mapped
+     */
+    int readUnsignedByte() throws IOException {
+        require(Byte.BYTES);
+        return this.window.get() & 0xFF;
+    }
+
+    /**
+     * Read one big-endian unsigned short.
+     * @return - the short, from 0 to 65535
+     * @throws EOFException - if there are fewer than 2 bytes left
+     * @throws IOException - if the file cannot be mapped
+     */
+    int readUnsignedShort() throws IOException {
+        require(Short.BYTES);
+        return this.window.getShort() & 0xFFFF;
+    }
+
+    /**
+     * Read one big-endian int.
+     * @return - the int
+     * @throws EOFException - if there are fewer than 4 bytes left
+     * @throws IOException - if the file cannot be mapped
+     */
+    int readInt() throws IOException {
+        require(Integer.BYTES);
+        return this.window.getInt();
+    }
+
+    /**
+     * Fill an array with the next bytes of the file.
+     * @param bytes - the array to fill
+     * @throws EOFException - if there are fewer bytes left than bytes.length
+     * @throws IOException - if the file cannot be mapped
+     */
+    void readFully(byte[] bytes) throws IOException {
+        int read = 0;
+        while (read < bytes.length) {
+            require(1);
+            int count = Math.min(bytes.length - read,
+                    this.window.remaining());
+            this.window.get(bytes, read, count);
+            read += count;
+        }
+    }
+
+    /**
+     * Make sure the window holds at least count more bytes, moving it
+     * forward if needed.
+     */
+    private void require(int count) throws IOException {
+        if (this.window.remaining() >= count) {
+            return;
+        }
+        long next = this.windowStart + this.window.position();
+        if (this.size - next < count) {
+            throw new EOFException();
+        }
+        map(next);
+    }
+
+    /**
+     * Map the window starting at the given offset in the file.
+     */
+    private void map(long start) throws IOException {
+        this.windowStart = start;
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(WINDOW_SIZE, this.size - start));
+    }
+}
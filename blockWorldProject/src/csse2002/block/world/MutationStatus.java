@@ -0,0 +1,29 @@
+package csse2002.block.world;
+
+/**
+ * Status codes returned by the try* methods of Tile and Builder. <br>
+ * Each method has the same checks as its exception-throwing counterpart,
+ * e.g. Tile.tryPlaceBlock() and Tile.placeBlock(). But each rejection
+ * returns the code of the exception that would have been thrown, so
+ * rejected changes cost no more than successful ones.
+ */
+public final class MutationStatus {
+
+    /*The change was made, represented by integer 0*/
+    public static final int OK = 0;
+
+    /*The change was rejected as for TooHighException*/
+    public static final int TOO_HIGH = 1;
+
+    /*The change was rejected as for TooLowException*/
+    public static final int TOO_LOW = 2;
+
+    /*The change was rejected as for NoExitException*/
+    public static final int NO_EXIT = 3;
+
+    /*The change was rejected as for InvalidBlockException*/
+    public static final int INVALID_BLOCK = 4;
+
+    private MutationStatus() {
+    }
+}
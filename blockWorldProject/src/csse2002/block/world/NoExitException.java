@@ -5,5 +5,11 @@ package csse2002.block.world;
  * @serial exclude
  */
 public class NoExitException extends BlockWorldException {
-
+    /**
+     * Create the exception, without a stack trace (see
+     * BlockWorldException).
+     */
+    public NoExitException() {
+        super(null, false);
+    }
 }
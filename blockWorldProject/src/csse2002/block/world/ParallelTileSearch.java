@@ -0,0 +1,181 @@
+package csse2002.block.world;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A breadth-first search over linked tiles that expands each level of the
+ * search in parallel with fork-join tasks. <br>
+ * Tiles and positions are claimed in a concurrent {@link TileClaimTable},
+ * so the same geometric inconsistencies are found as by the sequential
+ * search in SparseTileArray. Within a level, a tile is credited to the
+ * first exit (in frontier order, then north, east, south, west) that
+ * reaches it, so the resulting order is exactly the sequential
+ * breadth-first search order.
+ */
+final class ParallelTileSearch {
+    /* Frontier tiles handled by one task before it stops splitting */
+    private static final int THRESHOLD = 1024;
+
+    /* Exit directions, in the order the search follows them */
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    /* The pool the level expansions are run in */
+    private final ForkJoinPool pool;
+
+    /* Claims made so far */
+    private final TileClaimTable claims = new TileClaimTable(16);
+
+    /* Set once any task finds an inconsistency */
+    private volatile boolean inconsistent;
+
+    /**
+     * Create a search that runs in the given pool.
+     * @param pool - the pool to run level expansions in
+     */
+    ParallelTileSearch(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Search every tile reachable from startingTile.
+     * @param startingTile - the first tile in the search
+     * @param startingX - the x coordinate of startingTile
+     * @param startingY - the y coordinate of startingTile
+     * @param order - every reached tile is added to this, in breadth-first
+     *                search order
+     * @return - the packed position of each tile in order, at the same index
+     * @throws WorldMapInconsistentException - if the tiles are not
+     *                                         geometrically consistent
+     */
+    long[] search(Tile startingTile, int startingX, int startingY,
+            List<Tile> order) throws WorldMapInconsistentException {
+        long startingPosition = Position.pack(startingX, startingY);
+        this.claims.claimTile(startingTile, startingPosition, -1);
+        this.claims.claimPosition(startingPosition, startingTile);
+
+        Tile[] frontier = {startingTile};
+        long[] frontierPositions = {startingPosition};
+        int frontierSize = 1;
+        long[] positions = new long[16];
+        int level = 0;
+        while (frontierSize > 0) {
+            if (order.size() + frontierSize > positions.length) {
+                positions = Arrays.copyOf(positions,
+                        Math.max(positions.length * 2,
+                                order.size() + frontierSize));
+            }
+            System.arraycopy(frontierPositions, 0, positions, order.size(),
+                    frontierSize);
+            for (int i = 0; i < frontierSize; i++) {
+                order.add(frontier[i]);
+            }
+
+            this.claims.ensureCapacity(order.size() + 4 * frontierSize);
+            Tile[] candidates = new Tile[4 * frontierSize];
+            int[] candidateClaims = new int[4 * frontierSize];
+            this.pool.invoke(new ExpandTask(frontier, frontierPositions,
+                    candidates, candidateClaims, level, 0, frontierSize));
+            if (this.inconsistent) {
+                throw new WorldMapInconsistentException();
+            }
+
+            // keep each candidate only at the first slot that reached it
+            frontierSize = 0;
+            frontier = new Tile[candidates.length];
+            frontierPositions = new long[candidates.length];
+            for (int slot = 0; slot < candidates.length; slot++) {
+                if (candidates[slot] != null && this.claims.firstReachedFrom(
+                        candidateClaims[slot]) == slot) {
+                    frontier[frontierSize] = candidates[slot];
+                    frontierPositions[frontierSize] =
+                            this.claims.positionAt(candidateClaims[slot]);
+                    frontierSize++;
+                }
+            }
+            level++;
+        }
+        return Arrays.copyOf(positions, order.size());
+    }
+
+    /**
+     * Expands a range of the frontier, claiming each exit and recording it
+     * (and its claim) at slot (4 * frontier index + direction).
+     */
+    private final class ExpandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Tile[] frontier;
+        private final long[] frontierPositions;
+        private final Tile[] candidates;
+        private final int[] candidateClaims;
+        private final int level;
+        private final int from;
+        private final int to;
+
+        ExpandTask(Tile[] frontier, long[] frontierPositions,
+                Tile[] candidates, int[] candidateClaims, int level,
+                int from, int to) {
+            this.frontier = frontier;
+            this.frontierPositions = frontierPositions;
+            this.candidates = candidates;
+            this.candidateClaims = candidateClaims;
+            this.level = level;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > THRESHOLD) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(split(this.from, middle), split(middle, this.to));
+                return;
+            }
+            for (int i = this.from; i < this.to && !inconsistent; i++) {
+                long position = this.frontierPositions[i];
+                int x = Position.unpackX(position);
+                int y = Position.unpackY(position);
+                Tile tile = this.frontier[i];
+                for (Direction direction : DIRECTIONS) {
+                    Tile exit = tile.getExit(direction);
+                    if (exit != null) {
+                        expand(exit, Position.pack(x + direction.getDx(),
+                                y + direction.getDy()),
+                                4 * i + direction.ordinal());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Claim one exit at the given position. Sets inconsistent if the
+         * tile or position is already claimed differently.
+         */
+        private void expand(Tile exit, long position, int slot) {
+            int claim = claims.claimTile(exit, position, this.level);
+            if (claims.positionAt(claim) != position) {
+                inconsistent = true;
+                return;
+            }
+            Tile occupant = claims.claimPosition(position, exit);
+            if (occupant != null && occupant != exit) {
+                inconsistent = true;
+                return;
+            }
+            if (claims.levelAt(claim) == this.level) {
+                claims.reachedFrom(claim, slot);
+                this.candidates[slot] = exit;
+                this.candidateClaims[slot] = claim;
+            }
+        }
+
+        private ExpandTask split(int from, int to) {
+            return new ExpandTask(this.frontier, this.frontierPositions,
+                    this.candidates, this.candidateClaims, this.level,
+                    from, to);
+        }
+    }
+}
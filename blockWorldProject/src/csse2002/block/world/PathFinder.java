@@ -0,0 +1,169 @@
+package csse2002.block.world;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the shortest route a builder can walk between two tiles, using A*
+ * search over the north, east, south and west exits of each tile. <br>
+ * A step is only allowed where Builder.canEnter() would allow it, i.e. the
+ * heights of the two tiles differ by at most 1. <br>
+ * When both tiles are in the same SparseTileArray, the heuristic is the
+ * Manhattan distance between positions in that array. Every step moves one
+ * position, so the heuristic never overestimates and a tile's cost is final
+ * once it is taken from the queue. Otherwise there are no positions to
+ * compare, and the search is a plain breadth-first search.
+ */
+final class PathFinder {
+    /* Exit directions, in the order the search follows them */
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    /**
+     * A tile reached by the search.
+     */
+    private static final class Node implements Comparable<Node> {
+        /* The tile reached */
+        final Tile tile;
+
+        /* The position of the tile, or undefined if positions are unknown */
+        final int x;
+        final int y;
+
+        /* The number of steps from the starting tile */
+        final int cost;
+
+        /* cost plus the heuristic distance to the target */
+        final int estimate;
+
+        /* The node this one was reached from, or null for the start */
+        final Node previous;
+
+        /* Set once the tile has been taken from the queue, or once a
+         * shorter route to the tile has replaced this node */
+        boolean closed;
+
+        Node(Tile tile, int x, int y, int cost, int estimate,
+                Node previous) {
+            this.tile = tile;
+            this.x = x;
+            this.y = y;
+            this.cost = cost;
+            this.estimate = estimate;
+            this.previous = previous;
+        }
+
+        @Override
+        public int compareTo(Node other) {
+            if (this.estimate != other.estimate) {
+                return Integer.compare(this.estimate, other.estimate);
+            }
+            // of equal estimates, prefer the one closest to the target
+            return Integer.compare(other.cost, this.cost);
+        }
+    }
+
+    private PathFinder() {
+    }
+
+    /**
+     * Find a shortest route from start to target.
+     * @param start - the tile to start from
+     * @param target - the tile to go to
+     * @return - the tiles entered on the way, in order, ending with target.
+     *           Empty if start == target, or null if there is no route.
+     * @require - start != null, target != null
+     */
+    static List<Tile> findPath(Tile start, Tile target) {
+        if (start == target) {
+            return new ArrayList<>();
+        }
+
+        // positions are only known if both tiles are in the same array
+        SparseTileArray array = start.sparseTileArray;
+        long startPosition = Position.NONE;
+        long targetPosition = Position.NONE;
+        if (array != null) {
+            startPosition = array.positionOf(start);
+            targetPosition = array.positionOf(target);
+        }
+        boolean positioned = startPosition != Position.NONE
+                && targetPosition != Position.NONE;
+        int targetX = Position.unpackX(targetPosition);
+        int targetY = Position.unpackY(targetPosition);
+
+        Map<Tile, Node> reached = new IdentityHashMap<>();
+        PriorityQueue<Node> open = new PriorityQueue<>();
+        int startX = Position.unpackX(startPosition);
+        int startY = Position.unpackY(startPosition);
+        Node first = new Node(start, startX, startY, 0, positioned
+                ? distance(startX, startY, targetX, targetY) : 0, null);
+        reached.put(start, first);
+        open.add(first);
+
+        while (!open.isEmpty()) {
+            Node current = open.poll();
+            if (current.closed) {
+                // replaced when a shorter route was found
+                continue;
+            }
+            if (current.tile == target) {
+                return route(current);
+            }
+            current.closed = true;
+
+            int height = BlockStacks.height(current.tile.getPackedBlocks());
+            for (Direction direction : DIRECTIONS) {
+                Tile exit = current.tile.getExit(direction);
+                if (exit == null || Math.abs(BlockStacks.height(
+                        exit.getPackedBlocks()) - height) > 1) {
+                    continue;
+                }
+                Node previous = reached.get(exit);
+                if (previous != null) {
+                    if (previous.closed
+                            || previous.cost <= current.cost + 1) {
+                        continue;
+                    }
+                    // nodes in the queue cannot change their estimate, so
+                    // replace the node rather than updating it
+                    previous.closed = true;
+                }
+
+                // tiles in the array are placed one step apart, so the
+                // position of an exit follows from its direction
+                int x = current.x + direction.getDx();
+                int y = current.y + direction.getDy();
+                int cost = current.cost + 1;
+                Node next = new Node(exit, x, y, cost, cost + (positioned
+                        ? distance(x, y, targetX, targetY) : 0), current);
+                reached.put(exit, next);
+                open.add(next);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The Manhattan distance between (x1, y1) and (x2, y2).
+     */
+    private static int distance(int x1, int y1, int x2, int y2) {
+        return Math.abs(x1 - x2) + Math.abs(y1 - y2);
+    }
+
+    /**
+     * The tiles entered on the way to end, following previous back to the
+     * starting tile.
+     */
+    private static List<Tile> route(Node end) {
+        List<Tile> route = new ArrayList<>(end.cost);
+        for (Node node = end; node.previous != null; node = node.previous) {
+            route.add(node.tile);
+        }
+        Collections.reverse(route);
+        return route;
+    }
+}
@@ -1,6 +1,10 @@
 package csse2002.block.world;
 
 public class Position implements java.lang.Comparable<Position> {
+    /*Packed value reserved to mean "no position". It is the packed form of
+     * (Integer.MIN_VALUE, Integer.MIN_VALUE), which is never used by a map*/
+    static final long NONE = pack(Integer.MIN_VALUE, Integer.MIN_VALUE);
+
     /*The x coordinate for a position*/
     int x;
 
@@ -33,6 +37,35 @@ public class Position implements java.lang.Comparable<Position> {
         return this.y;
     }
 
+    /**
+     * Pack the coordinates (x, y) into a single long, with x in the high
+     * 32 bits and y in the low 32 bits.
+     * @param x - the x coordinate
+     * @param y - the y coordinate
+     * @return - the packed position
+     */
+    static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the x coordinate of a packed position.
+     * @param packed - a position produced by pack(x, y)
+     * @return - the x coordinate
+     */
+    static int unpackX(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    /**
+     * Get the y coordinate of a packed position.
+     * @param packed - a position produced by pack(x, y)
+     * @return - the y coordinate
+     */
+    static int unpackY(long packed) {
+        return (int) packed;
+    }
+
     /**
      * Indicates whether some other object is "equal to" this one.
      * (see https://docs.oracle.com/javase/8/docs/api/java/lang/Object.html)
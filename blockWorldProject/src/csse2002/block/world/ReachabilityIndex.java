@@ -0,0 +1,465 @@
+package csse2002.block.world;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers whether a builder can walk from one tile to another, as for
+ * Builder.findPath(), without searching in the common case. <br>
+ * Each north, east, south or west exit has a cached walkable bit (the
+ * heights of the two tiles differ by at most 1) and a mutual bit (it is
+ * walkable and the tile it goes to has a walkable exit straight back).
+ * Tiles joined by mutual exits share a component label, and every tile in
+ * a component can reach every other. <br>
+ * When a tile's height or exits change, only the exits into and out of that
+ * tile are looked at again. Gaining a mutual exit merges two components,
+ * relabelling the smaller one. Losing one may split a component, which is
+ * checked by searching from both ends of the lost exit at once: the search
+ * stops as soon as the two meet, or one side runs out of tiles, which are
+ * then split off. Either way the work is local to the change unless the
+ * component really is cut in two large pieces. <br>
+ * If no walkable exit is one-way, tiles in different components cannot
+ * reach each other. Otherwise a question the components cannot answer falls
+ * back to a PathFinder search.
+ */
+final class ReachabilityIndex {
+    /* Initial number of tiles there is room for */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /* Exit directions, indexed by ordinal */
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    /* Number of directions, and of exit slots per tile */
+    private static final int EXITS = 4;
+
+    /* Marks an exit slot with no tile */
+    private static final int NONE = -1;
+
+    /* IDs of the tiles in the index, keyed by identity */
+    private final Map<Tile, Integer> ids = new IdentityHashMap<>();
+
+    /* Tiles by ID */
+    private Tile[] tiles;
+
+    /* ID of the tile each exit goes to, or NONE. Exit d of tile a is at
+     * EXITS * a + d */
+    private int[] out;
+
+    /* ID of the tile whose exit in direction d goes to tile b, or NONE, at
+     * EXITS * b + d */
+    private int[] in;
+
+    /* Bit d is set if exit d of the tile is walkable */
+    private byte[] walkable;
+
+    /* Bit d is set if exit d of the tile is mutual */
+    private byte[] mutual;
+
+    /* The component label of each tile */
+    private int[] label;
+
+    /* The next and previous tiles with the same label, in a circular list */
+    private int[] next;
+    private int[] previous;
+
+    /* The number of tiles with each label */
+    private int[] labelSize;
+
+    /* A tile with each label */
+    private int[] labelMember;
+
+    /* Labels that are not in use, which are reused before new ones */
+    private final ArrayDeque<Integer> freeLabels = new ArrayDeque<>();
+
+    /* The number of labels handed out, including free ones */
+    private int labelCount;
+
+    /* The number of tiles in the index */
+    private int size;
+
+    /* The two searches made by split(). A tile has been seen by search s
+     * if seen[s][tile] == searchCount, and the tiles are queued in order
+     * in queue[s] */
+    private int[][] seen = new int[2][];
+    private int[][] queue = new int[2][];
+
+    /* The number of splits checked so far */
+    private int searchCount;
+
+    /* The number of walkable exits that are not mutual */
+    private int oneWay;
+
+    /* Tiles added to the index whose exits have not been looked at yet */
+    private final ArrayDeque<Integer> pending = new ArrayDeque<>();
+
+    /**
+     * Build an index of some tiles and every tile reachable from them
+     * through exits.
+     * @param tiles - the tiles to start from
+     */
+    ReachabilityIndex(List<Tile> tiles) {
+        allocate(Math.max(INITIAL_CAPACITY, tiles.size()));
+        for (Tile tile : tiles) {
+            idOf(tile);
+        }
+        processPending();
+    }
+
+    /**
+     * Check whether a builder on one tile could walk to another through
+     * north, east, south and west exits, with each step allowed by
+     * Builder.canEnter().
+     * @param from - the tile to start from
+     * @param to - the tile to go to
+     * @return - true if there is a route from from to to
+     * @require - from != null, to != null
+     */
+    boolean canReach(Tile from, Tile to) {
+        if (from == to) {
+            return true;
+        }
+        Integer fromID = this.ids.get(from);
+        Integer toID = this.ids.get(to);
+        if (fromID != null && toID != null) {
+            if (this.label[fromID] == this.label[toID]) {
+                return true;
+            }
+            if (this.oneWay == 0) {
+                return false;
+            }
+        }
+        return PathFinder.findPath(from, to) != null;
+    }
+
+    /**
+     * Look again at every exit into and out of a tile, after its height or
+     * exits have changed. Does nothing if the tile is not in the index.
+     * @param tile - the tile that changed
+     */
+    void update(Tile tile) {
+        Integer id = this.ids.get(tile);
+        if (id == null) {
+            return;
+        }
+        for (int d = 0; d < EXITS; d++) {
+            refresh(id, d);
+        }
+        for (int d = 0; d < EXITS; d++) {
+            int from = this.in[EXITS * id + d];
+            if (from != NONE) {
+                refresh(from, d);
+            }
+        }
+        processPending();
+    }
+
+    /**
+     * Look at the exits of each tile added since the last call.
+     */
+    private void processPending() {
+        while (!this.pending.isEmpty()) {
+            int id = this.pending.poll();
+            for (int d = 0; d < EXITS; d++) {
+                refresh(id, d);
+            }
+        }
+    }
+
+    /**
+     * Get the ID of a tile, adding it to the index (in a component of its
+     * own) if it is not already there.
+     */
+    private int idOf(Tile tile) {
+        Integer id = this.ids.get(tile);
+        if (id != null) {
+            return id;
+        }
+        if (this.size == this.tiles.length) {
+            grow();
+        }
+        int added = this.size++;
+        this.ids.put(tile, added);
+        this.tiles[added] = tile;
+        int newLabel = newLabel();
+        this.label[added] = newLabel;
+        this.next[added] = added;
+        this.previous[added] = added;
+        this.labelSize[newLabel] = 1;
+        this.labelMember[newLabel] = added;
+        this.pending.add(added);
+        return added;
+    }
+
+    /**
+     * Reread exit d of tile a from the tile, and update the bits of that
+     * exit and of the exits that go back the other way.
+     */
+    private void refresh(int a, int d) {
+        Tile target = this.tiles[a].getExit(DIRECTIONS[d]);
+        int b = target == null ? NONE : idOf(target);
+        int old = this.out[EXITS * a + d];
+        if (old != b) {
+            if (isSet(this.mutual, a, d)) {
+                // the mutual exit to old is gone
+                setBits(a, d, isSet(this.walkable, a, d), false);
+                split(a, old);
+            }
+            if (old != NONE && this.in[EXITS * old + d] == a) {
+                this.in[EXITS * old + d] = NONE;
+            }
+            this.out[EXITS * a + d] = b;
+            if (b != NONE) {
+                this.in[EXITS * b + d] = a;
+            }
+        }
+
+        setBits(a, d, b != NONE && Math.abs(height(a) - height(b)) <= 1,
+                isSet(this.mutual, a, d));
+        int back = opposite(d);
+        refreshMutual(a, d);
+        if (old != NONE && old != b) {
+            refreshMutual(old, back);
+        }
+        if (b != NONE) {
+            refreshMutual(b, back);
+        }
+    }
+
+    /**
+     * Update the mutual bit of exit d of tile a from the walkable bits,
+     * merging or marking components as needed.
+     */
+    private void refreshMutual(int a, int d) {
+        int b = this.out[EXITS * a + d];
+        int back = opposite(d);
+        boolean isMutual = b != NONE && isSet(this.walkable, a, d)
+                && this.out[EXITS * b + back] == a
+                && isSet(this.walkable, b, back);
+        if (isMutual == isSet(this.mutual, a, d)) {
+            return;
+        }
+        setBits(a, d, isSet(this.walkable, a, d), isMutual);
+        if (isMutual) {
+            merge(a, b);
+        } else {
+            split(a, b);
+        }
+    }
+
+    /**
+     * Set the walkable and mutual bits of exit d of tile a, keeping oneWay
+     * up to date.
+     */
+    private void setBits(int a, int d, boolean isWalkable,
+            boolean isMutual) {
+        if (isSet(this.walkable, a, d) && !isSet(this.mutual, a, d)) {
+            this.oneWay--;
+        }
+        this.walkable[a] = with(this.walkable[a], d, isWalkable);
+        this.mutual[a] = with(this.mutual[a], d, isMutual);
+        if (isWalkable && !isMutual) {
+            this.oneWay++;
+        }
+    }
+
+    /**
+     * Give two tiles the same label, relabelling the tiles of the smaller
+     * component.
+     */
+    private void merge(int a, int b) {
+        int keep = this.label[a];
+        int drop = this.label[b];
+        if (keep == drop) {
+            return;
+        }
+        if (this.labelSize[keep] < this.labelSize[drop]) {
+            int swap = keep;
+            keep = drop;
+            drop = swap;
+        }
+        int first = this.labelMember[drop];
+        int member = first;
+        do {
+            this.label[member] = keep;
+            member = this.next[member];
+        } while (member != first);
+
+        // join the two circular lists
+        int keepFirst = this.labelMember[keep];
+        int keepLast = this.previous[keepFirst];
+        int dropLast = this.previous[first];
+        this.next[keepLast] = first;
+        this.previous[first] = keepLast;
+        this.next[dropLast] = keepFirst;
+        this.previous[keepFirst] = dropLast;
+
+        this.labelSize[keep] += this.labelSize[drop];
+        this.freeLabels.push(drop);
+    }
+
+    /**
+     * After the mutual exit between a and b is lost, check whether they
+     * are still joined by other mutual exits, and if not give the tiles on
+     * one side a new label. <br>
+     * A breadth-first search is run from each of a and b in turn, one tile
+     * at a time, until one reaches a tile the other has seen, or one runs
+     * out of tiles to search.
+     */
+    private void split(int a, int b) {
+        if (this.label[a] != this.label[b]) {
+            return;
+        }
+        this.searchCount++;
+        int[] start = {a, b};
+        int[] head = new int[2];
+        int[] tail = new int[2];
+        for (int s = 0; s < 2; s++) {
+            this.seen[s][start[s]] = this.searchCount;
+            this.queue[s][tail[s]++] = start[s];
+        }
+        while (true) {
+            for (int s = 0; s < 2; s++) {
+                if (head[s] == tail[s]) {
+                    // side s is cut off from the other
+                    splitOff(this.queue[s], tail[s]);
+                    return;
+                }
+                int current = this.queue[s][head[s]++];
+                for (int d = 0; d < EXITS; d++) {
+                    if (!isSet(this.mutual, current, d)) {
+                        continue;
+                    }
+                    int exit = this.out[EXITS * current + d];
+                    if (this.seen[1 - s][exit] == this.searchCount) {
+                        // the searches have met
+                        return;
+                    }
+                    if (this.seen[s][exit] != this.searchCount) {
+                        this.seen[s][exit] = this.searchCount;
+                        this.queue[s][tail[s]++] = exit;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Move some tiles of one component into a new component.
+     * @param members - the tiles to move, in the first count entries
+     */
+    private void splitOff(int[] members, int count) {
+        int oldLabel = this.label[members[0]];
+        int newLabel = newLabel();
+        for (int i = 0; i < count; i++) {
+            int member = members[i];
+            // unlink from the old list
+            this.next[this.previous[member]] = this.next[member];
+            this.previous[this.next[member]] = this.previous[member];
+            if (this.labelMember[oldLabel] == member) {
+                this.labelMember[oldLabel] = this.next[member];
+            }
+            // link into the new list after the first member
+            int first = members[0];
+            if (i == 0) {
+                this.next[member] = member;
+                this.previous[member] = member;
+            } else {
+                this.next[member] = this.next[first];
+                this.previous[member] = first;
+                this.previous[this.next[first]] = member;
+                this.next[first] = member;
+            }
+            this.label[member] = newLabel;
+        }
+        this.labelSize[oldLabel] -= count;
+        this.labelSize[newLabel] = count;
+        this.labelMember[newLabel] = members[0];
+    }
+
+    /**
+     * Get an unused label.
+     */
+    private int newLabel() {
+        if (!this.freeLabels.isEmpty()) {
+            return this.freeLabels.pop();
+        }
+        return this.labelCount++;
+    }
+
+    /**
+     * The height of a tile.
+     */
+    private int height(int id) {
+        return BlockStacks.height(this.tiles[id].getPackedBlocks());
+    }
+
+    /**
+     * The ordinal of the direction opposite direction d.
+     */
+    private static int opposite(int d) {
+        return (d + 2) % EXITS;
+    }
+
+    /**
+     * Check bit d of bits[id].
+     */
+    private static boolean isSet(byte[] bits, int id, int d) {
+        return (bits[id] & (1 << d)) != 0;
+    }
+
+    /**
+     * bits with bit d set to value.
+     */
+    private static byte with(byte bits, int d, boolean value) {
+        return (byte) (value ? bits | (1 << d) : bits & ~(1 << d));
+    }
+
+    /**
+     * Make room for twice as many tiles.
+     */
+    private void grow() {
+        int capacity = 2 * this.tiles.length;
+        int oldExits = this.out.length;
+        this.tiles = Arrays.copyOf(this.tiles, capacity);
+        this.out = Arrays.copyOf(this.out, EXITS * capacity);
+        this.in = Arrays.copyOf(this.in, EXITS * capacity);
+        Arrays.fill(this.out, oldExits, this.out.length, NONE);
+        Arrays.fill(this.in, oldExits, this.in.length, NONE);
+        this.walkable = Arrays.copyOf(this.walkable, capacity);
+        this.mutual = Arrays.copyOf(this.mutual, capacity);
+        this.label = Arrays.copyOf(this.label, capacity);
+        this.next = Arrays.copyOf(this.next, capacity);
+        this.previous = Arrays.copyOf(this.previous, capacity);
+        this.labelSize = Arrays.copyOf(this.labelSize, capacity);
+        this.labelMember = Arrays.copyOf(this.labelMember, capacity);
+        for (int s = 0; s < 2; s++) {
+            this.seen[s] = Arrays.copyOf(this.seen[s], capacity);
+            this.queue[s] = Arrays.copyOf(this.queue[s], capacity);
+        }
+    }
+
+    /**
+     * Create empty arrays with room for capacity tiles.
+     */
+    private void allocate(int capacity) {
+        this.tiles = new Tile[capacity];
+        this.out = new int[EXITS * capacity];
+        this.in = new int[EXITS * capacity];
+        Arrays.fill(this.out, NONE);
+        Arrays.fill(this.in, NONE);
+        this.walkable = new byte[capacity];
+        this.mutual = new byte[capacity];
+        this.label = new int[capacity];
+        this.next = new int[capacity];
+        this.previous = new int[capacity];
+        this.labelSize = new int[capacity];
+        this.labelMember = new int[capacity];
+        for (int s = 0; s < 2; s++) {
+            this.seen[s] = new int[capacity];
+            this.queue[s] = new int[capacity];
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package csse2002.block.world;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -16,11 +18,35 @@ public class SparseTileArray {
     /*The array of tiles. Breadth-first search order*/
     private List<Tile> tileArray;
 
-    /*A map mapping position to tile*/
-    private Map<Position, Tile> positionToTile;
+    /*Maps packed positions to tiles and tiles to packed positions. Keyed by
+     * identity, doubles as the visited set for the breadth-first search*/
+    private TilePositionIndex positions;
 
-    /*A map mapping tile to position*/
-    private Map<Tile, Position> tileToPosition;
+    /*The tile passed to addLinkedTiles, which getTiles() starts from*/
+    private Tile startingTile;
+
+    /*True if tileArray is no longer in breadth-first search order, or still
+     * holds tiles that were removed*/
+    private boolean orderStale;
+
+    /*True if each tile's arrayParent is the tile it was first reached
+     * from, so the tiles reached from startingTile form a tree. False after
+     * a parallel search, which does not record them*/
+    private boolean parentsKnown;
+
+    /*If not null, addLinkedTiles searches each level in parallel in this
+     * pool*/
+    private ForkJoinPool indexingPool;
+
+    /*Answers canReach(). Null until canReach() is first called, and again
+     * whenever tiles are unlinked. Heights may change from several threads
+     * (see ConcurrentWorld), so the index is only used while holding its
+     * lock*/
+    private volatile ReachabilityIndex reachability;
+
+    /*True once the array is shared between threads that change heights
+     * under their own locks (see disableReachability())*/
+    private volatile boolean reachabilityDisabled;
 
     /**
      * Constructor for a SparseTileArray. Initializes an empty array,
@@ -28,8 +54,7 @@ public class SparseTileArray {
      */
     public SparseTileArray() {
         this.tileArray = new ArrayList<>();
-        this.positionToTile = new HashMap<>();
-        this.tileToPosition = new HashMap<>();
+        this.positions = new TilePositionIndex();
     }
 
     /**
@@ -40,10 +65,63 @@ public class SparseTileArray {
      * @require - position != null
      */
     public Tile getTile(Position position) {
-        if (this.tileArray.size() == 0) {
-            return null;
-        }
-        return this.positionToTile.get(position);
+        return getTile(position.getX(), position.getY());
+    }
+
+    /**
+     * Get the tile at position (x, y). Return null if there is no tile at
+     * (x, y). Does not allocate.
+     * @param x - the x coordinate of the tile
+     * @param y - the y coordinate of the tile
+     * @return - the tile at (x, y) or null if no such tile exists.
+     */
+    Tile getTile(int x, int y) {
+        return this.positions.getTile(Position.pack(x, y));
+    }
+
+    /**
+     * Get the position of a tile, packed into a long (see Position.pack()).
+     * Use Position.unpackX() and Position.unpackY() to read the coordinates.
+     * Does not allocate.
+     * @param tile - the tile to find
+     * @return - the packed position of tile, or Position.NONE if the tile is
+     *           not in the array.
+     */
+    long positionOf(Tile tile) {
+        return this.positions.positionOf(tile);
+    }
+
+    /**
+     * Get every tile with a position inside the rectangle from min to max,
+     * including the edges (i.e. min.getX() &le; x &le; max.getX() and
+     * min.getY() &le; y &le; max.getY()). Only the chunks of the array that
+     * overlap the rectangle are looked at, so the cost depends on the size
+     * of the rectangle and the result, not the number of tiles in the
+     * array. Tiles are grouped by chunk, and ordered by y then x within a
+     * chunk.
+     * @param min - the corner of the rectangle with the smallest x and y
+     * @param max - the corner of the rectangle with the largest x and y
+     * @return - the tiles in the rectangle. Empty if
+     *           min.getX() &gt; max.getX() or min.getY() &gt; max.getY().
+     * @require - min != null, max != null
+     */
+    List<Tile> getTilesInRegion(Position min, Position max) {
+        List<Tile> result = new ArrayList<>();
+        this.positions.collectRegion(min.getX(), min.getY(), max.getX(),
+                max.getY(), result);
+        return result;
+    }
+
+    /**
+     * Set the pool used to index tiles in parallel. If pool is not null,
+     * later calls to addLinkedTiles() expand each level of the
+     * breadth-first search with fork-join tasks in pool, giving the same
+     * result as the sequential search. If pool is null, indexing is
+     * sequential (the default).
+     * @param pool - the pool to index in, or null
+     */
+    void setIndexingPool(ForkJoinPool pool) {
+        this.indexingPool = pool;
     }
 
     /**
@@ -57,9 +135,15 @@ public class SparseTileArray {
      * startingTile. The list returned by getTiles may be immutable, and if not,
      * changing the list (i.e., adding or removing elements) should not change
      * that returned by subsequent calls to getTiles().
+     * Exit changes keep the positions up to date as they happen, but not
+     * the order: the first call after tiles are linked or exits change
+     * walks every tile in the array again, taking O(n) time.
      * @return - a list of tiles in breadth-first-search order.
      */
     public java.util.List<Tile> getTiles() {
+        if (this.orderStale) {
+            reorder();
+        }
         List<Tile> unModifiableTiles =
                 Collections.unmodifiableList(this.tileArray);
         return unModifiableTiles;
@@ -67,8 +151,9 @@ public class SparseTileArray {
 
     /**
      * Processes the "north" exit of a tile.
-     * @param current - The tile whose north exit will be processed.
-     * @param toSearch - The Linked List of all current (and future) tiles
+     * @param north - The tile at the north exit of the current tile, or null
+     *                if there is no such exit.
+     * @param toSearch - The queue of all current (and future) tiles
      *                   That need to be processed. The north exit will be
      *                   Added to this.
      * @param currentX - Point on X axis of current tile.
@@ -77,43 +162,16 @@ public class SparseTileArray {
      *                   Errors include: A tile existing in multiple locations,
      *                   One location having multiple tiles.
      */
-    private void processNorth(Tile current, LinkedList<Tile> toSearch,
-            int currentX, int currentY) throws WorldMapInconsistentException{
-        int flag = 0;
-        if (current.getExits().get("north") != null) {
-            Object tempForChecking =
-                    this.positionToTile.put(new Position(currentX,
-                                    currentY - 1),
-                    current.getExits().get("north"));
-            if (tempForChecking != null) {
-                flag = 1;
-                if (tempForChecking != current.getExits().get("north")) {
-                    throw new WorldMapInconsistentException();
-                }
-            }
-            Object otherTempForChecking =
-                    this.tileToPosition.put(current.getExits().get("north"),
-                    new Position(currentX, currentY - 1));
-            if (otherTempForChecking != null) {
-                flag = 1;
-                if (((Position) otherTempForChecking).compareTo(new
-                        Position(currentX,
-                        currentY - 1)) != 0) {
-                    throw new WorldMapInconsistentException();
-                }
-            }
-
-        }
-        if (flag != 1 && current.getExits().get("north") != null) {
-            toSearch.add(current.getExits().get("north"));
-        }
+    private void processNorth(Tile north, ArrayDeque<Tile> toSearch,
+            int currentX, int currentY) throws WorldMapInconsistentException {
+        processExit(north, toSearch, currentX, currentY - 1);
     }
 
-
     /**
      * Processes the "east" exit of a tile.
-     * @param current - The tile whose east exit will be processed.
-     * @param toSearch - The Linked List of all current (and future) tiles
+     * @param east - The tile at the east exit of the current tile, or null
+     *               if there is no such exit.
+     * @param toSearch - The queue of all current (and future) tiles
      *                   That need to be processed. The east exit will be
      *                   Added to this.
      * @param currentX - Point on X axis of current tile.
@@ -122,42 +180,16 @@ public class SparseTileArray {
      *                   Errors include: A tile existing in multiple locations,
      *                   One location having multiple tiles.
      */
-    private void processEast(Tile current, LinkedList<Tile> toSearch,
+    private void processEast(Tile east, ArrayDeque<Tile> toSearch,
             int currentX, int currentY) throws WorldMapInconsistentException {
-        int flag = 0;
-        if (current.getExits().get("east") != null) {
-            Object tempForChecking =
-                    this.positionToTile.put(new Position(currentX + 1,
-                                    currentY),
-                            current.getExits().get("east"));
-            if (tempForChecking != null) {
-                flag = 1;
-                if (tempForChecking != current.getExits().get("east")) {
-                    throw new WorldMapInconsistentException();
-                }
-            }
-            Object otherTempForChecking =
-                    this.tileToPosition.put(current.getExits().get("east"),
-                    new Position(currentX + 1, currentY));
-            if (otherTempForChecking != null) {
-                flag = 1;
-                if (((Position) otherTempForChecking).compareTo(new
-                        Position(currentX + 1,
-                        currentY)) != 0) {
-                    throw new WorldMapInconsistentException();
-                }
-            }
-
-            if (flag != 1 && current.getExits().get("east") != null) {
-                toSearch.add(current.getExits().get("east"));
-            }
-        }
+        processExit(east, toSearch, currentX + 1, currentY);
     }
 
     /**
      * Processes the "south" exit of a tile.
-     * @param current - The tile whose south exit will be processed.
-     * @param toSearch - The Linked List of all current (and future) tiles
+     * @param south - The tile at the south exit of the current tile, or null
+     *                if there is no such exit.
+     * @param toSearch - The queue of all current (and future) tiles
      *                   That need to be processed. The south exit will be
      *                   Added to this.
      * @param currentX - Point on X axis of current tile.
@@ -166,43 +198,17 @@ public class SparseTileArray {
      *                   Errors include: A tile existing in multiple locations,
      *                   One location having multiple tiles.
      */
-    private void processSouth(Tile current, LinkedList<Tile> toSearch,
-    int currentX, int currentY) throws WorldMapInconsistentException {
-        int flag = 0;
-        if (current.getExits().get("south") != null) {
-            Object tempForChecking =
-                    this.positionToTile.put(new Position(currentX,
-                                    currentY + 1),
-                            current.getExits().get("south"));
-            if (tempForChecking != null) {
-                flag = 1;
-                if (tempForChecking != current.getExits().get("south")) {
-                    throw new WorldMapInconsistentException();
-                }
-            }
-            Object otherTempForChecking =
-                    this.tileToPosition.put(current.getExits().get("south"),
-                    new Position(currentX, currentY + 1));
-            if (otherTempForChecking != null) {
-                flag = 1;
-                if (((Position) otherTempForChecking).compareTo(new
-                        Position(currentX,
-                        currentY + 1)) != 0) {
-                    throw new WorldMapInconsistentException();
-                }
-            }
-
-            if (flag != 1 && current.getExits().get("south") != null) {
-                toSearch.add(current.getExits().get("south"));
-            }
-        }
+    private void processSouth(Tile south, ArrayDeque<Tile> toSearch,
+            int currentX, int currentY) throws WorldMapInconsistentException {
+        processExit(south, toSearch, currentX, currentY + 1);
     }
 
     /**
      * Processes the "west" exit of a tile.
-     * @param current - The tile whose west exit will be processed.
-     * @param toSearch - The Linked List of all current (and future) tiles
-     *                   That need to be processed. The north exit will be
+     * @param west - The tile at the west exit of the current tile, or null
+     *               if there is no such exit.
+     * @param toSearch - The queue of all current (and future) tiles
+     *                   That need to be processed. The west exit will be
      *                   Added to this.
      * @param currentX - Point on X axis of current tile.
      * @param currentY - Point on Y axis of current tile.
@@ -210,37 +216,80 @@ public class SparseTileArray {
      *                   Errors include: A tile existing in multiple locations,
      *                   One location having multiple tiles.
      */
-    private void processWest(Tile current, LinkedList<Tile> toSearch,
+    private void processWest(Tile west, ArrayDeque<Tile> toSearch,
             int currentX, int currentY) throws WorldMapInconsistentException {
-        int flag = 0;
-        if (current.getExits().get("west") != null) {
-            Object tempForChecking =
-                    this.positionToTile.put(new Position(currentX - 1,
-                                    currentY),
-                            current.getExits().get("west"));
-            if (tempForChecking != null) {
-                flag = 1;
-                if (tempForChecking != current.getExits().get("west")) {
-                    throw new WorldMapInconsistentException();
-                }
-            }
+        processExit(west, toSearch, currentX - 1, currentY);
+    }
 
-            Object otherTempForChecking
-                    = this.tileToPosition.put(current.getExits().get("west"),
-                    new Position(currentX - 1, currentY));
-            if (otherTempForChecking != null) {
-                flag = 1;
-                if (((Position) otherTempForChecking).compareTo(new
-                        Position(currentX - 1, currentY)) != 0) {
-                    throw new WorldMapInconsistentException();
-                }
+    /**
+     * Places a single exit tile at (exitX, exitY), queueing it for searching
+     * if it has not been visited yet.
+     * @param exit - The exit tile to place, or null if there is no exit.
+     * @param toSearch - The queue of tiles that still need to be processed.
+     * @param exitX - Point on X axis the exit tile should be at.
+     * @param exitY - Point on Y axis the exit tile should be at.
+     * @throws WorldMapInconsistentException - If the exit tile has already
+     *                   been placed somewhere else, or another tile already
+     *                   occupies (exitX, exitY).
+     */
+    private void processExit(Tile exit, ArrayDeque<Tile> toSearch,
+            int exitX, int exitY) throws WorldMapInconsistentException {
+        if (exit == null) {
+            return;
+        }
+        long exitPosition = Position.pack(exitX, exitY);
+        if (this.positions.containsTile(exit)) {
+            // already visited, so it must have been placed at the same spot
+            if (this.positions.positionOf(exit) != exitPosition) {
+                throw new WorldMapInconsistentException();
             }
-
+            return;
         }
-        if (flag != 1 && current.getExits().get("west") != null) {
-            toSearch.add(current.getExits().get("west"));
+        if (this.positions.getTile(exitPosition) != null) {
+            // a different tile already occupies this position
+            throw new WorldMapInconsistentException();
         }
+        this.positions.put(exitPosition, exit);
+        exit.sparseTileArray = this;
+        toSearch.add(exit);
+    }
 
+    /**
+     * Run the breadth-first search over every tile in toSearch (each of which
+     * must already have a position) and the unvisited tiles reachable
+     * from them. Each newly visited tile's arrayParent is set to the tile
+     * it was reached from.
+     * @param toSearch - The queue of tiles that still need to be processed.
+     * @param visited - Each processed tile is added to this, in
+     *                  breadth-first search order.
+     * @throws WorldMapInconsistentException - If the tiles are not
+     *                  geometrically consistent.
+     */
+    private void search(ArrayDeque<Tile> toSearch, List<Tile> visited)
+            throws WorldMapInconsistentException {
+        // each tile is queued exactly once, when it is first visited
+        while (!toSearch.isEmpty()) {
+            Tile current = toSearch.poll();
+            visited.add(current);
+            long currentPosition = this.positions.positionOf(current);
+            int currentX = Position.unpackX(currentPosition);
+            int currentY = Position.unpackY(currentPosition);
+
+            int queued = toSearch.size();
+            processNorth(current.getExit(Direction.NORTH), toSearch,
+                    currentX, currentY);
+            processEast(current.getExit(Direction.EAST), toSearch,
+                    currentX, currentY);
+            processSouth(current.getExit(Direction.SOUTH), toSearch,
+                    currentX, currentY);
+            processWest(current.getExit(Direction.WEST), toSearch,
+                    currentX, currentY);
+            // the tiles just queued were first reached from current
+            Iterator<Tile> added = toSearch.descendingIterator();
+            for (int i = toSearch.size() - queued; i > 0; i--) {
+                added.next().arrayParent = current;
+            }
+        }
     }
 
     /**
@@ -274,38 +323,392 @@ public class SparseTileArray {
      */
     public void addLinkedTiles(csse2002.block.world.Tile startingTile,
             int startingX, int startingY) throws WorldMapInconsistentException {
-        //this.tileArray.clear();
-        this.positionToTile.clear();
-        this.tileToPosition.clear();
+        this.positions.clear();
         this.tileArray.clear();
-        Position startingPosition = new Position(startingX, startingY);
-        this.positionToTile.put(startingPosition, startingTile);
-        this.tileToPosition.put(startingTile, startingPosition);
-        LinkedList<Tile> toSearch = new LinkedList<>();
-        toSearch.add(startingTile);
-        int currentX, currentY;
-        while(toSearch.peekFirst() != null) {
-            Tile current = toSearch.getFirst();
-            currentX = this.tileToPosition.get(current).getX();
-            currentY = this.tileToPosition.get(current).getY();
-
-            processNorth(current, toSearch, currentX, currentY);
-            processEast(current, toSearch, currentX, currentY);
-            processSouth(current, toSearch, currentX, currentY);
-            processWest(current, toSearch, currentX, currentY);
-            int flag = 0;
-            for (int i = 0; i < this.tileArray.size(); i++) {
-                if (this.tileArray.get(i) == current) {
-                    flag = 1;
+        this.orderStale = false;
+        this.parentsKnown = this.indexingPool == null;
+        this.startingTile = startingTile;
+        this.reachability = null;
+        try {
+            if (this.indexingPool != null) {
+                parallelSearch(startingTile, startingX, startingY);
+                return;
+            }
+            this.positions.put(Position.pack(startingX, startingY),
+                    startingTile);
+            startingTile.sparseTileArray = this;
+            startingTile.arrayParent = null;
+            ArrayDeque<Tile> toSearch = new ArrayDeque<>();
+            toSearch.add(startingTile);
+            search(toSearch, this.tileArray);
+        } catch (WorldMapInconsistentException e) {
+            this.positions.clear();
+            this.tileArray.clear();
+            this.startingTile = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Fill the array using a ParallelTileSearch in indexingPool.
+     * @throws WorldMapInconsistentException - If the tiles are not
+     *                   geometrically consistent.
+     */
+    private void parallelSearch(Tile startingTile, int startingX,
+            int startingY) throws WorldMapInconsistentException {
+        ParallelTileSearch search = new ParallelTileSearch(this.indexingPool);
+        long[] tilePositions = search.search(startingTile, startingX,
+                startingY, this.tileArray);
+        for (int i = 0; i < tilePositions.length; i++) {
+            Tile tile = this.tileArray.get(i);
+            this.positions.put(tilePositions[i], tile);
+            tile.sparseTileArray = this;
+        }
+    }
+
+    /**
+     * Link a single tile into the array at (x, y), along with every tile
+     * reachable from it that is not already in the array. Only the newly
+     * reached tiles are searched; the rest of the array is left alone. <br>
+     * If the array is empty, tile becomes the starting tile, as if passed
+     * to addLinkedTiles(). Otherwise tile should be reachable from the
+     * starting tile, or it will be dropped the next time getTiles() is
+     * called. <br>
+     * If an exception is thrown, the array is left as it was before the
+     * call.
+     * @param tile - the tile to link
+     * @param x - the x coordinate of tile in the array
+     * @param y - the y coordinate of tile in the array
+     * @throws WorldMapInconsistentException - if tile is already in the array
+     *                                         at a different position, another
+     *                                         tile is at (x, y), or the newly
+     *                                         reached tiles are not
+     *                                         geometrically consistent
+     * @require - tile != null
+     */
+    void linkTile(Tile tile, int x, int y)
+            throws WorldMapInconsistentException {
+        if (this.startingTile == null) {
+            addLinkedTiles(tile, x, y);
+            return;
+        }
+        long position = Position.pack(x, y);
+        if (this.positions.containsTile(tile)) {
+            if (this.positions.positionOf(tile) != position) {
+                throw new WorldMapInconsistentException();
+            }
+            return;
+        }
+        if (this.positions.getTile(position) != null) {
+            throw new WorldMapInconsistentException();
+        }
+        this.positions.put(position, tile);
+        tile.sparseTileArray = this;
+        tile.arrayParent = null;
+        ArrayDeque<Tile> toSearch = new ArrayDeque<>();
+        toSearch.add(tile);
+        List<Tile> linked = new ArrayList<>();
+        try {
+            search(toSearch, linked);
+        } catch (WorldMapInconsistentException e) {
+            // undo only what this call added: the visited tiles, plus those
+            // still waiting in the queue
+            for (Tile added : linked) {
+                this.positions.remove(added);
+            }
+            for (Tile added : toSearch) {
+                this.positions.remove(added);
+            }
+            throw e;
+        }
+        this.tileArray.addAll(linked);
+        this.orderStale = true;
+    }
+
+    /**
+     * Remove a single tile from the array. The exits to it from the tiles
+     * beside it in the array are removed (see Tile.removeExit()), so no
+     * tile left in the array leads to it. Tiles that were only reachable
+     * from the starting tile through this tile are removed with it. If tile
+     * is the starting tile, the array is emptied.
+     * @param tile - the tile to remove
+     */
+    void unlinkTile(Tile tile) {
+        this.reachability = null;
+        if (tile == this.startingTile) {
+            this.positions.clear();
+            this.tileArray.clear();
+            this.startingTile = null;
+            this.orderStale = false;
+            return;
+        }
+        long position = this.positions.positionOf(tile);
+        if (position == Position.NONE) {
+            return;
+        }
+        int x = Position.unpackX(position);
+        int y = Position.unpackY(position);
+        for (Direction direction : Direction.values()) {
+            // a tile with an exit to tile in direction lies one step the
+            // other way
+            Tile from = this.positions.getTile(Position.pack(
+                    x - direction.getDx(), y - direction.getDy()));
+            if (from != null && from.getExit(direction) == tile) {
+                try {
+                    from.removeExit(direction);
+                } catch (NoExitException e) {
+                    throw new IllegalStateException(e);
                 }
             }
-            if (flag == 0 ) {
-                this.tileArray.add(toSearch.remove());
-            } else {
-                Tile tempTile = toSearch.remove();
+        }
+        // removing the exits has cut tile off, unless it was only reached
+        // from a tile linked on its own (see linkTile())
+        this.positions.remove(tile);
+        tile.arrayParent = null;
+        this.orderStale = true;
+    }
+
+    /**
+     * Called by Tile.addExit() after tile gains the exit (direction, target).
+     * If tile is in the array, target is linked at the position beside it,
+     * along with the tiles that are newly reachable through it. Only those
+     * tiles are searched (see linkTile()).
+     * @param tile - the tile the exit was added to
+     * @param direction - the direction of the exit
+     * @param target - the tile the exit goes to
+     * @throws WorldMapInconsistentException - if target cannot be placed
+     *                                         beside tile consistently. The
+     *                                         array is left unchanged.
+     */
+    void onExitAdded(Tile tile, Direction direction, Tile target)
+            throws WorldMapInconsistentException {
+        long position = this.positions.positionOf(tile);
+        if (position != Position.NONE) {
+            boolean known = this.positions.containsTile(target);
+            linkTile(target, Position.unpackX(position) + direction.getDx(),
+                    Position.unpackY(position) + direction.getDy());
+            if (!known || (target.arrayParent == null
+                    && target != this.startingTile)) {
+                // target is now reached through tile
+                target.arrayParent = tile;
             }
+            // a new edge between two tiles already in the array can still
+            // change the breadth-first search order
+            this.orderStale = true;
+        }
+        if (this.reachability != null) {
+            this.reachability.update(tile);
+        }
+    }
 
+    /**
+     * Called by Tile.removeExit() (and Tile.addExit() when an exit is
+     * replaced) after tile loses the exit (direction, target). If target
+     * was first reached through this exit, the tiles that are no longer
+     * reachable are removed from the array (see cutOff()), looking only at
+     * the tiles that were reached through target. After a parallel
+     * addLinkedTiles() the whole array is walked once instead, as the
+     * parallel search does not record which tile reached which.
+     * @param tile - the tile the exit was removed from
+     * @param direction - the direction of the exit
+     * @param target - the tile the exit used to go to
+     */
+    void onExitRemoved(Tile tile, Direction direction, Tile target) {
+        if (this.positions.containsTile(tile)
+                && this.positions.containsTile(target)) {
+            this.orderStale = true;
+            if (!this.parentsKnown) {
+                // the walk already leaves out the tiles cut off
+                reorder();
+            } else if (target.arrayParent == tile) {
+                cutOff(target);
+            }
+        }
+        if (this.reachability != null) {
+            this.reachability.update(tile);
+        }
+    }
+
+    /**
+     * Remove the tiles that can no longer be reached from the starting
+     * tile, after root lost the exit it was first reached through. Only the
+     * tiles reached through root are looked at: each that a tile still in
+     * the array has an exit to is reattached, along with the tiles
+     * reachable from it, and the rest are removed.
+     * @param root - the tile that lost the exit it was reached through
+     */
+    private void cutOff(Tile root) {
+        List<Tile> below = new ArrayList<>();
+        Set<Tile> cut = Collections.newSetFromMap(new IdentityHashMap<>());
+        below.add(root);
+        cut.add(root);
+        for (int i = 0; i < below.size(); i++) {
+            Tile current = below.get(i);
+            for (Direction direction : Direction.values()) {
+                Tile exit = current.getExit(direction);
+                if (exit != null && exit.arrayParent == current
+                        && this.positions.containsTile(exit)
+                        && cut.add(exit)) {
+                    below.add(exit);
+                }
+            }
+        }
+
+        ArrayDeque<Tile> reattached = new ArrayDeque<>();
+        for (Tile tile : below) {
+            Tile from = enteredFrom(tile, cut);
+            if (from != null) {
+                tile.arrayParent = from;
+                cut.remove(tile);
+                reattached.add(tile);
+            }
+        }
+        while (!reattached.isEmpty()) {
+            Tile current = reattached.poll();
+            for (Direction direction : Direction.values()) {
+                Tile exit = current.getExit(direction);
+                if (exit != null && cut.remove(exit)) {
+                    exit.arrayParent = current;
+                    reattached.add(exit);
+                }
+            }
+        }
+
+        for (Tile tile : cut) {
+            this.positions.remove(tile);
+            tile.arrayParent = null;
+        }
+    }
+
+    /**
+     * Find a tile in the array, other than those in cut, with an exit to
+     * tile.
+     * @param tile - the tile to find a way into
+     * @param cut - the tiles that do not count
+     * @return - a tile with an exit to tile, or null if there is none
+     */
+    private Tile enteredFrom(Tile tile, Set<Tile> cut) {
+        long position = this.positions.positionOf(tile);
+        int x = Position.unpackX(position);
+        int y = Position.unpackY(position);
+        for (Direction direction : Direction.values()) {
+            Tile from = this.positions.getTile(Position.pack(
+                    x - direction.getDx(), y - direction.getDy()));
+            if (from != null && !cut.contains(from)
+                    && from.getExit(direction) == tile) {
+                return from;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called by Tile after the number of blocks on tile changes, which can
+     * change which of its exits can be walked through.
+     * @param tile - the tile whose height changed
+     */
+    void onHeightChanged(Tile tile) {
+        ReachabilityIndex index = this.reachability;
+        if (index != null) {
+            synchronized (index) {
+                index.update(tile);
+            }
+        }
+    }
+
+    /**
+     * Stop keeping a ReachabilityIndex, dropping any already built. Used by
+     * ConcurrentWorld: its builders change heights under per-tile locks,
+     * and keeping one index up to date would make every change take the
+     * index's lock too, so builders in different regions would wait for
+     * each other. Once disabled, reachesByIndex() is false and callers
+     * search instead (see Builder.canReach()).
+     */
+    void disableReachability() {
+        this.reachabilityDisabled = true;
+        this.reachability = null;
+    }
+
+    /**
+     * Check whether canReach() can be used.
+     * @return - false if disableReachability() has been called
+     */
+    boolean reachesByIndex() {
+        return !this.reachabilityDisabled;
+    }
+
+    /**
+     * Check whether a builder on one tile could walk to another, as for
+     * Builder.findPath(). Answered from a ReachabilityIndex, which is built
+     * on the first call and then kept up to date as tiles change.
+     * @param from - the tile to start from
+     * @param to - the tile to go to
+     * @return - true if there is a route from from to to
+     * @require - from != null, to != null, reachesByIndex()
+     */
+    boolean canReach(Tile from, Tile to) {
+        ReachabilityIndex index = this.reachability;
+        if (index == null) {
+            synchronized (this) {
+                if (this.reachability == null) {
+                    this.reachability = new ReachabilityIndex(getTiles());
+                }
+                index = this.reachability;
+            }
+        }
+        synchronized (index) {
+            return index.canReach(from, to);
+        }
+    }
+
+    /**
+     * Walk the array from the starting tile in breadth-first search order,
+     * rebuilding tileArray and the position index, dropping any tile the
+     * walk does not reach, and recording the tile each tile was first
+     * reached from. Takes O(n) time. Positions are already known to be
+     * consistent, so no checks are needed.
+     */
+    private void reorder() {
+        TilePositionIndex reached = new TilePositionIndex();
+        this.tileArray.clear();
+        ArrayDeque<Tile> toSearch = new ArrayDeque<>();
+        if (this.startingTile != null
+                && this.positions.containsTile(this.startingTile)) {
+            reached.put(this.positions.positionOf(this.startingTile),
+                    this.startingTile);
+            this.startingTile.arrayParent = null;
+            toSearch.add(this.startingTile);
+        }
+        while (!toSearch.isEmpty()) {
+            Tile current = toSearch.poll();
+            reach(current, current.getExit(Direction.NORTH), reached,
+                    toSearch);
+            reach(current, current.getExit(Direction.EAST), reached,
+                    toSearch);
+            reach(current, current.getExit(Direction.SOUTH), reached,
+                    toSearch);
+            reach(current, current.getExit(Direction.WEST), reached,
+                    toSearch);
+            this.tileArray.add(current);
+        }
+        this.positions = reached;
+        this.orderStale = false;
+        this.parentsKnown = true;
+    }
+
+    /**
+     * Visit one exit of current during reorder(), if it is in the array and
+     * has not been reached yet.
+     */
+    private void reach(Tile current, Tile exit, TilePositionIndex reached,
+            ArrayDeque<Tile> toSearch) {
+        if (exit == null || reached.containsTile(exit)
+                || !this.positions.containsTile(exit)) {
+            return;
         }
+        reached.put(this.positions.positionOf(exit), exit);
+        exit.arrayParent = current;
+        toSearch.add(exit);
     }
 
 }
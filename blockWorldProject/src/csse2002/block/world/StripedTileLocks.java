@@ -0,0 +1,99 @@
+package csse2002.block.world;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks shared out between tile positions. <br>
+ * Each packed position (see Position.pack()) always maps to the same
+ * stripe, so threads working on the same tile take the same lock, while
+ * threads working in different regions usually take different ones. <br>
+ * Two stripes are always locked in stripe order, lowest first, so threads
+ * locking pairs of tiles cannot deadlock.
+ */
+final class StripedTileLocks {
+    /* Stripes per available processor, when not given */
+    private static final int STRIPES_PER_PROCESSOR = 16;
+
+    /* The locks. The length is a power of two */
+    private final ReentrantLock[] stripes;
+
+    /* stripes.length - 1 */
+    private final int mask;
+
+    /**
+     * Create a set of locks sized for the number of processors.
+     */
+    StripedTileLocks() {
+        this(STRIPES_PER_PROCESSOR
+                * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a set of at least count locks.
+     * @param count - the least number of stripes
+     * @require - count &gt; 0
+     */
+    StripedTileLocks(int count) {
+        int size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Get the stripe that guards a position.
+     * @param position - a packed position, or Position.NONE
+     * @return - the index of the stripe
+     */
+    int stripeOf(long position) {
+        position *= 0x9E3779B97F4A7C15L;
+        return (int) (position ^ (position >>> 32)) & this.mask;
+    }
+
+    /**
+     * Lock the stripe guarding a position, waiting until it is free.
+     * @param position - a packed position
+     */
+    void lock(long position) {
+        this.stripes[stripeOf(position)].lock();
+    }
+
+    /**
+     * Unlock the stripe locked by lock(position).
+     * @param position - the packed position passed to lock()
+     */
+    void unlock(long position) {
+        this.stripes[stripeOf(position)].unlock();
+    }
+
+    /**
+     * Lock the stripes guarding two positions, in stripe order. If both
+     * positions share a stripe it is only locked once.
+     * @param first - a packed position
+     * @param second - another packed position
+     */
+    void lock(long first, long second) {
+        int a = stripeOf(first);
+        int b = stripeOf(second);
+        this.stripes[Math.min(a, b)].lock();
+        if (a != b) {
+            this.stripes[Math.max(a, b)].lock();
+        }
+    }
+
+    /**
+     * Unlock the stripes locked by lock(first, second).
+     * @param first - the first packed position passed to lock()
+     * @param second - the second packed position passed to lock()
+     */
+    void unlock(long first, long second) {
+        int a = stripeOf(first);
+        int b = stripeOf(second);
+        if (a != b) {
+            this.stripes[Math.max(a, b)].unlock();
+        }
+        this.stripes[Math.min(a, b)].unlock();
+    }
+}
@@ -0,0 +1,69 @@
+package csse2002.block.world;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes results as the lines Action.processAction() prints, through a
+ * large buffer rather than one System.out.println() per result. <br>
+ * As with PrintStream, write errors are not thrown but recorded, and can
+ * be checked with checkError().
+ */
+final class TextResultSink implements ActionResultSink {
+    /* Number of characters held before they are written out */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /* Ends each line, as println() does */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /* Where the lines go */
+    private final Writer out;
+
+    /* True once writing has failed */
+    private boolean error;
+
+    /**
+     * Create a sink writing lines to out in the default charset, as
+     * System.out does.
+     * @param out - the stream to write to
+     */
+    TextResultSink(OutputStream out) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out),
+                BUFFER_SIZE);
+    }
+
+    @Override
+    public void accept(ActionResult result, String detail) {
+        try {
+            this.out.write(result.getText());
+            if (detail != null) {
+                this.out.write(' ');
+                this.out.write(detail);
+            }
+            this.out.write(LINE_SEPARATOR);
+        } catch (IOException e) {
+            this.error = true;
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            this.out.flush();
+        } catch (IOException e) {
+            this.error = true;
+        }
+    }
+
+    /**
+     * Flush the sink, and check whether writing has ever failed.
+     * @return - true if a write or flush has failed
+     */
+    boolean checkError() {
+        flush();
+        return this.error;
+    }
+}
@@ -1,10 +1,17 @@
 package csse2002.block.world;
 
 import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
 import java.util.TreeMap;
 
 /**
@@ -20,11 +27,29 @@ public class Tile implements Serializable {
     /* The maximum number of ground allowed on a tile. */
     private static final int MAX_GROUND_BLOCKS = 3;
 
-    /* Exits from this Tile. Strings are names of the exits */
-    private Map<String, Tile> exits;
+    /* Exits from this Tile in each Direction, indexed by ordinal. Null
+     * where there is no exit */
+    private final Tile[] exits = new Tile[4];
 
-    /* Blocks in this Tile*/
-    private List<Block> blocks;
+    /* Exits whose names are not directions. Null until one is added */
+    private Map<String, Tile> namedExits;
+
+    /* The read-only view of the exits returned by getExits(). Created when
+     * first asked for */
+    private transient Map<String, Tile> exitsView;
+
+    /* Blocks in this Tile, packed as described in BlockStacks. Block
+     * objects are only created when getBlocks() or getTopBlock() asks */
+    private int blocks;
+
+    /* The SparseTileArray this tile was last linked into, which is told
+     * about exit changes. Null if the tile has never been linked. */
+    transient SparseTileArray sparseTileArray;
+
+    /* The tile this tile was first reached from when it was linked into
+     * sparseTileArray, so the array can tell which tiles are cut off when
+     * an exit is removed. Null for the starting tile */
+    transient Tile arrayParent;
 
     /**
      * Construct a new tile.<br>
@@ -36,15 +61,10 @@ public class Tile implements Serializable {
      * a new Tile.
      */
     public Tile() {
-        exits = new TreeMap<String, Tile>();
-
-        // use a list for now, but could be a stack
-        blocks = new LinkedList<Block>();
-
         // each tile starts with 2 soil blocks and 1 grass block
-        blocks.add(new SoilBlock());
-        blocks.add(new SoilBlock());
-        blocks.add(new GrassBlock());
+        blocks = BlockStacks.push(BlockStacks.push(BlockStacks.push(
+                BlockStacks.EMPTY, BlockStacks.SOIL), BlockStacks.SOIL),
+                BlockStacks.GRASS);
     }
 
     /**
@@ -70,11 +90,11 @@ public class Tile implements Serializable {
      * @throws TooHighException if startingBlocks.size() &gt; 8, or if
      *                          startingBlocks elements with index &ge; 3
      *                          are instances of GroundBlock
+     * @require every block is a SoilBlock, GrassBlock, WoodBlock or
+     *          StoneBlock
      */
     public Tile(List<Block> startingBlocks) throws TooHighException {
-        exits = new TreeMap<>();
-
-        if (startingBlocks.size() > 8) {
+        if (startingBlocks.size() > MAX_BLOCKS) {
             throw new TooHighException();
         }
 
@@ -86,7 +106,40 @@ public class Tile implements Serializable {
         }
 
         // make a copy of startingBlocks
-        blocks = new LinkedList<>(startingBlocks);
+        blocks = BlockStacks.pack(startingBlocks);
+    }
+
+    /**
+     * Construct a new tile with no exits, whose blocks are given in packed
+     * form.
+     * @param blocks - the blocks, packed as described in BlockStacks
+     * @require BlockStacks.isValid(blocks)
+     */
+    Tile(int blocks) {
+        this.blocks = blocks;
+    }
+
+    /**
+     * Get the blocks on this tile in packed form.
+     * @return the blocks, packed as described in BlockStacks
+     */
+    int getPackedBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Replace the blocks on this tile with blocks in packed form, e.g. to
+     * restore the blocks it had before an action (see DeltaLog).
+     * @param blocks - the blocks, packed as described in BlockStacks
+     * @require BlockStacks.isValid(blocks)
+     */
+    void setPackedBlocks(int blocks) {
+        boolean heightChanged =
+                BlockStacks.height(blocks) != BlockStacks.height(this.blocks);
+        this.blocks = blocks;
+        if (heightChanged) {
+            heightChanged();
+        }
     }
 
     /**
@@ -95,7 +148,120 @@ public class Tile implements Serializable {
      * @return map of names to Tiles
      */
     public Map<String, Tile> getExits() {
-        return Collections.unmodifiableMap(this.exits);
+        if (exitsView == null) {
+            exitsView = new ExitMap();
+        }
+        return exitsView;
+    }
+
+    /**
+     * Get the exit in a direction. <br>
+     * This is the same as getExits().get(direction.getName()), but is a
+     * single array lookup.
+     * @param direction the direction of the exit
+     * @return the tile the exit goes to, or null if there is no exit that
+     *         way
+     */
+    public Tile getExit(Direction direction) {
+        return exits[direction.ordinal()];
+    }
+
+    /**
+     * Get the exit with a name.
+     * @param name the name of the exit, which may be null
+     * @return the tile the exit goes to, or null if there is no such exit
+     */
+    private Tile getExit(String name) {
+        Direction direction = Direction.fromName(name);
+        if (direction != null) {
+            return exits[direction.ordinal()];
+        }
+        if (name == null || namedExits == null) {
+            return null;
+        }
+        return namedExits.get(name);
+    }
+
+    /**
+     * Check if any exit from this tile goes to target.
+     * @param target the tile to look for
+     * @return true if target is the tile of an exit in getExits()
+     */
+    boolean hasExitTo(Tile target) {
+        if (target == null) {
+            return false;
+        }
+        for (Tile exit : exits) {
+            if (exit == target) {
+                return true;
+            }
+        }
+        return namedExits != null && namedExits.containsValue(target);
+    }
+
+    /**
+     * A read-only view of the exits of this tile, keyed by name. Directions
+     * are looked up in the exits array without comparing strings.
+     */
+    private final class ExitMap extends AbstractMap<String, Tile> {
+        @Override
+        public Tile get(Object key) {
+            return key instanceof String ? getExit((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            // exits never go to null, so a null result means no exit
+            return get(key) != null;
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            return value instanceof Tile && hasExitTo((Tile) value);
+        }
+
+        @Override
+        public int size() {
+            int size = namedExits == null ? 0 : namedExits.size();
+            for (Tile exit : exits) {
+                if (exit != null) {
+                    size++;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public Set<Entry<String, Tile>> entrySet() {
+            return new AbstractSet<Entry<String, Tile>>() {
+                @Override
+                public Iterator<Entry<String, Tile>> iterator() {
+                    // iterate over a sorted copy, in the same order as the
+                    // TreeMap the exits used to be kept in
+                    List<Entry<String, Tile>> entries = new ArrayList<>();
+                    for (int i = 0; i < exits.length; i++) {
+                        if (exits[i] != null) {
+                            entries.add(new SimpleImmutableEntry<>(
+                                    Direction.fromOrdinal(i).getName(),
+                                    exits[i]));
+                        }
+                    }
+                    if (namedExits != null) {
+                        for (Entry<String, Tile> entry
+                                : namedExits.entrySet()) {
+                            entries.add(new SimpleImmutableEntry<>(entry));
+                        }
+                    }
+                    entries.sort(Entry.comparingByKey());
+                    return Collections.unmodifiableList(entries).iterator();
+                }
+
+                @Override
+                public int size() {
+                    return ExitMap.this.size();
+                }
+            };
+        }
     }
 
     /**
@@ -105,7 +271,25 @@ public class Tile implements Serializable {
      * @return Blocks on the Tile
      */
     public List<Block> getBlocks() {
-        return Collections.unmodifiableList(this.blocks);
+        return new BlockList();
+    }
+
+    /**
+     * A read-only view of the blocks on this tile, which looks up the
+     * shared Block of each type when it is asked for.
+     */
+    private final class BlockList extends AbstractList<Block>
+            implements RandomAccess {
+        @Override
+        public Block get(int index) {
+            Objects.checkIndex(index, size());
+            return BlockRegistry.forCode(BlockStacks.codeAt(blocks, index));
+        }
+
+        @Override
+        public int size() {
+            return BlockStacks.height(blocks);
+        }
     }
 
     /**
@@ -115,11 +299,11 @@ public class Tile implements Serializable {
      * @throws TooLowException if there are no blocks on the tile
      */
     public Block getTopBlock() throws TooLowException {
-        if (blocks.size() == 0) {
+        if (blocks == BlockStacks.EMPTY) {
             throw new TooLowException();
         }
 
-        return blocks.get(blocks.size() - 1);
+        return BlockRegistry.forCode(BlockStacks.topCode(blocks));
     }
 
     /**
@@ -128,11 +312,12 @@ public class Tile implements Serializable {
      * @throws TooLowException if there are no blocks on the tile
      */
     public void removeTopBlock() throws TooLowException {
-        if (blocks.size() == 0) {
+        if (blocks == BlockStacks.EMPTY) {
             throw new TooLowException();
         }
 
-        blocks.remove(blocks.size() - 1);
+        blocks = BlockStacks.pop(blocks);
+        heightChanged();
     }
 
     /**
@@ -140,18 +325,82 @@ public class Tile implements Serializable {
      * The Map returned by getExits() must now include an
      * entry (name, target).
      * Overwrites any existing exit with the same name <br>
-     * If name or target is null, throw a NoExitException.
+     * If name or target is null, throw a NoExitException. <br>
+     * If this tile is in a SparseTileArray (see WorldMap), the array is
+     * updated to match, and the exit is rejected if it would make the array
+     * geometrically inconsistent: that is, if name is "north", "east",
+     * "south" or "west" and target cannot be placed one step that way from
+     * this tile, because another tile is already there, or target (or a
+     * tile reachable from it) is already in the array somewhere else. A
+     * rejected exit is not added, any exit it would have replaced is kept,
+     * and a NoExitException is thrown. <br>
+     * Exits with other names have no position, so they are never
+     * rejected.
      * @param name Name of the exit
      * @param target Tile the exit goes to
-     * @throws NoExitException if name or target is null
+     * @throws NoExitException if name or target is null, or the exit is
+     *                         rejected as inconsistent with the tile's
+     *                         SparseTileArray
      */
     public void addExit(String name, Tile target) throws NoExitException {
         if (name == null || target == null) {
             throw new NoExitException();
         }
 
+        Direction direction = Direction.fromName(name);
+        if (direction != null) {
+            addExit(direction, target);
+            return;
+        }
+
+        // exits that are not directions have no position, so they are
+        // never in a SparseTileArray
+        if (namedExits == null) {
+            namedExits = new TreeMap<>();
+        }
+        namedExits.put(name, target);
+    }
+
+    /**
+     * Add a new exit to this tile in a direction. <br>
+     * This is the same as addExit(direction.getName(), target).
+     * @param direction Direction of the exit
+     * @param target Tile the exit goes to
+     * @throws NoExitException if direction or target is null, or the exit
+     *                         is inconsistent with the tile's SparseTileArray
+     */
+    public void addExit(Direction direction, Tile target)
+            throws NoExitException {
+        if (direction == null || target == null) {
+            throw new NoExitException();
+        }
+
         // add to exits
-        exits.put(name, target);
+        Tile previous = exits[direction.ordinal()];
+        exits[direction.ordinal()] = target;
+
+        if (sparseTileArray == null || previous == target) {
+            return;
+        }
+        if (previous != null) {
+            sparseTileArray.onExitRemoved(this, direction, previous);
+        }
+        try {
+            sparseTileArray.onExitAdded(this, direction, target);
+        } catch (WorldMapInconsistentException inconsistent) {
+            // put the exits back the way they were
+            exits[direction.ordinal()] = previous;
+            if (previous != null) {
+                try {
+                    sparseTileArray.onExitAdded(this, direction, previous);
+                } catch (WorldMapInconsistentException alsoInconsistent) {
+                    // the previous exit was consistent, and the failed
+                    // link left the array as it was
+                    throw new IllegalStateException(alsoInconsistent);
+                }
+            }
+            throw new NoExitException();
+        }
     }
 
     /**
@@ -159,16 +408,43 @@ public class Tile implements Serializable {
      * The Map returned by getExits() must no longer have
      * the key name. <br>
      * If name does not exist in getExits(), or name is null,
-     * throw a NoExitException.
+     * throw a NoExitException. <br>
+     * If this tile is in a SparseTileArray, the array is updated to match.
      * @param name Name of exit to remove
      * @throws NoExitException if name is not in exits, or name is null
      */
     public void removeExit(String name) throws NoExitException {
-        if (name == null || exits.containsKey(name) == false) {
+        Direction direction = Direction.fromName(name);
+        if (direction != null) {
+            removeExit(direction);
+            return;
+        }
+
+        if (name == null || namedExits == null
+                || namedExits.containsKey(name) == false) {
             throw new NoExitException();
         }
+        namedExits.remove(name);
+    }
 
-        exits.remove(name);
+    /**
+     * Remove the exit in a direction from this tile. <br>
+     * This is the same as removeExit(direction.getName()).
+     * @param direction Direction of the exit to remove
+     * @throws NoExitException if there is no exit that way, or direction is
+     *                         null
+     */
+    public void removeExit(Direction direction) throws NoExitException {
+        if (direction == null || exits[direction.ordinal()] == null) {
+            throw new NoExitException();
+        }
+
+        Tile target = exits[direction.ordinal()];
+        exits[direction.ordinal()] = null;
+
+        if (sparseTileArray != null) {
+            sparseTileArray.onExitRemoved(this, direction, target);
+        }
     }
 
     /**
@@ -186,19 +462,36 @@ public class Tile implements Serializable {
      * @throws InvalidBlockException if the block is not diggable
      */
     public Block dig() throws TooLowException, InvalidBlockException {
-
-        if (blocks.size() == 0) {
-            throw new TooLowException();
+        int stack = blocks;
+        switch (tryDig()) {
+            case MutationStatus.TOO_LOW:
+                throw new TooLowException();
+            case MutationStatus.INVALID_BLOCK:
+                throw new InvalidBlockException();
         }
+        return BlockRegistry.forCode(BlockStacks.topCode(stack));
+    }
 
-        Block result = blocks.get(blocks.size() - 1);
+    /**
+     * Attempt to dig in the current tile, as for dig(), but return a status
+     * code rather than throwing an exception. The removed block is the one
+     * given by getTopBlock() before the call.
+     * @return MutationStatus.OK if the top block was removed,
+     *         MutationStatus.TOO_LOW if there are no blocks on the tile, or
+     *         MutationStatus.INVALID_BLOCK if the block is not diggable
+     */
+    public int tryDig() {
+        if (blocks == BlockStacks.EMPTY) {
+            return MutationStatus.TOO_LOW;
+        }
 
-        if (!result.isDiggable()) {
-            throw new InvalidBlockException();
+        if (!BlockStacks.isDiggable(BlockStacks.topCode(blocks))) {
+            return MutationStatus.INVALID_BLOCK;
         }
 
-        removeTopBlock();
-        return result;
+        blocks = BlockStacks.pop(blocks);
+        heightChanged();
+        return MutationStatus.OK;
     }
 
     /**
@@ -225,38 +518,85 @@ public class Tile implements Serializable {
      */
     public void moveBlock(String exitName) throws TooHighException,
             InvalidBlockException, NoExitException {
-        if (exitName == null || !exits.containsKey(exitName)) {
-            throw new NoExitException();
-        }
+        moveBlockTo(getExit(exitName));
+    }
 
-        Tile exit = exits.get(exitName);
-        if (exit.getBlocks().size() >= blocks.size()) {
-            throw new TooHighException();
-        }
+    /**
+     * Attempt to move the current top block to the tile at the exit in a
+     * direction. <br>
+     * This is the same as moveBlock(direction.getName()).
+     * @param direction the direction of the exit to move the block to
+     * @throws TooHighException if the target tile is &ge; to this one.
+     * @throws InvalidBlockException if the block is not moveable
+     * @throws NoExitException if direction is null or there is no exit that
+     *                         way
+     */
+    public void moveBlock(Direction direction) throws TooHighException,
+            InvalidBlockException, NoExitException {
+        moveBlockTo(direction == null ? null : getExit(direction));
+    }
 
-        Block block = null;
-        try {
-            block = getTopBlock();
-        } catch (TooLowException tooLow) {
-            // not possible to end up here,
-            // but required anyway.
-            assert (false);
+    /**
+     * Attempt to move the current top block to the tile at the exit in a
+     * direction, as for moveBlock(direction), but return a status code
+     * rather than throwing an exception.
+     * @param direction the direction of the exit to move the block to
+     * @return MutationStatus.OK if the block was moved,
+     *         MutationStatus.NO_EXIT if direction is null or there is no
+     *         exit that way, MutationStatus.TOO_HIGH if the target tile is
+     *         &ge; to this one, or MutationStatus.INVALID_BLOCK if the block
+     *         is not moveable
+     */
+    public int tryMoveBlock(Direction direction) {
+        return tryMoveBlockTo(direction == null ? null : getExit(direction));
+    }
+
+    /**
+     * Move the current top block to an exit, as for moveBlock().
+     * @param exit the tile to move the block to, or null if there is no
+     *             such exit
+     */
+    private void moveBlockTo(Tile exit) throws TooHighException,
+            InvalidBlockException, NoExitException {
+        switch (tryMoveBlockTo(exit)) {
+            case MutationStatus.NO_EXIT:
+                throw new NoExitException();
+            case MutationStatus.TOO_HIGH:
+                throw new TooHighException();
+            case MutationStatus.INVALID_BLOCK:
+                throw new InvalidBlockException();
         }
+    }
 
-        if (!block.isMoveable()) {
-            throw new InvalidBlockException();
+    /**
+     * Move the current top block to an exit, as for tryMoveBlock().
+     * @param exit the tile to move the block to, or null if there is no
+     *             such exit
+     * @return the status of the move
+     */
+    private int tryMoveBlockTo(Tile exit) {
+        if (exit == null) {
+            return MutationStatus.NO_EXIT;
         }
 
-        // should not throw TooHighException, because must be < 8 blocks
-        exit.placeBlock(block);
+        int height = BlockStacks.height(blocks);
+        if (BlockStacks.height(exit.blocks) >= height) {
+            return MutationStatus.TOO_HIGH;
+        }
 
-        try {
-            removeTopBlock();
-        } catch (TooLowException tooLow) {
-            // not possible to end up here,
-            // but required anyway.
-            assert (false);
+        // this tile has at least one block, as the exit is lower
+        int top = BlockStacks.topCode(blocks);
+        if (!BlockStacks.isMoveable(top)) {
+            return MutationStatus.INVALID_BLOCK;
         }
+
+        // the exit has fewer than 8 blocks, and ground blocks cannot be
+        // moved, so the block always fits
+        exit.blocks = BlockStacks.push(exit.blocks, top);
+        blocks = BlockStacks.pop(blocks);
+        exit.heightChanged();
+        heightChanged();
+        return MutationStatus.OK;
     }
 
     /**
@@ -266,7 +606,8 @@ public class Tile implements Serializable {
      * only be placed underground.
      * Handle the following cases:
      * <ul>
-     * <li> If the block is null, throw an InvalidBlockException </li>
+     * <li> If the block is null, or not one of the four block types, throw
+     * an InvalidBlockException </li>
      * <li> If the target tile has 8 blocks already, or if the block is
      * a GroundBlock and the target tile has 3 or more blocks already, throw
      * a TooHighException </li>
@@ -275,21 +616,55 @@ public class Tile implements Serializable {
      * @throws TooHighException if there are already 8 blocks on the tile, or
      *                          if this is a ground block and there are already
      *                          3 or more blocks on the tile.
-     * @throws InvalidBlockException if the block is null
+     * @throws InvalidBlockException if the block is null, or is not a
+     *                               SoilBlock, GrassBlock, WoodBlock or
+     *                               StoneBlock
      */
     public void placeBlock(Block block) throws TooHighException,
             InvalidBlockException {
-        if (block == null) {
-            throw new InvalidBlockException();
+        switch (tryPlaceBlock(block)) {
+            case MutationStatus.INVALID_BLOCK:
+                throw new InvalidBlockException();
+            case MutationStatus.TOO_HIGH:
+                throw new TooHighException();
         }
+    }
 
-        if (blocks.size() >= MAX_BLOCKS
-                || (block instanceof GroundBlock
-                && blocks.size() >= MAX_GROUND_BLOCKS)) {
-            throw new TooHighException();
+    /**
+     * Attempt to place a block on the tile, as for placeBlock(), but return
+     * a status code rather than throwing an exception.
+     * @param block the block to place.
+     * @return MutationStatus.OK if the block was placed,
+     *         MutationStatus.INVALID_BLOCK if the block is null, or is not a
+     *         SoilBlock, GrassBlock, WoodBlock or StoneBlock, or
+     *         MutationStatus.TOO_HIGH if there is no room for the block
+     */
+    public int tryPlaceBlock(Block block) {
+        int code = block == null ? BlockStacks.NO_CODE
+                : BlockStacks.codeOf(block);
+        if (code == BlockStacks.NO_CODE) {
+            return MutationStatus.INVALID_BLOCK;
+        }
+
+        int height = BlockStacks.height(blocks);
+        if (height >= MAX_BLOCKS || (BlockStacks.isGround(code)
+                && height >= MAX_GROUND_BLOCKS)) {
+            return MutationStatus.TOO_HIGH;
         }
 
-        blocks.add(block);
+        blocks = BlockStacks.push(blocks, code);
+        heightChanged();
+        return MutationStatus.OK;
+    }
+
+    /**
+     * Tell the tile's SparseTileArray, if any, that the number of blocks on
+     * the tile has changed.
+     */
+    private void heightChanged() {
+        if (sparseTileArray != null) {
+            sparseTileArray.onHeightChanged(this);
+        }
     }
 
 }
@@ -0,0 +1,210 @@
+package csse2002.block.world;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free claim tables used by {@link ParallelTileSearch}. <br>
+ * Tiles claim a packed position, and positions claim a tile, with
+ * compare-and-set on open-addressing tables. The tables can be claimed
+ * from many threads at once, but only grow through ensureCapacity(), which
+ * must be called while no claims are running (between search levels).
+ */
+final class TileClaimTable {
+    /* Level of a claim whose data has not been published yet */
+    private static final int UNPUBLISHED = Integer.MIN_VALUE;
+
+    /* Claimed tiles. Null marks an empty slot */
+    private AtomicReferenceArray<Tile> tiles;
+
+    /* Packed position claimed by each tile */
+    private long[] tilePositions;
+
+    /* Search level each tile was claimed in. Written last, so a claim is
+     * only read once its level is published */
+    private AtomicIntegerArray tileLevels;
+
+    /* The smallest exit slot that reached each tile within its level */
+    private AtomicIntegerArray firstSlots;
+
+    /* Claimed packed positions. Position.NONE marks an empty slot */
+    private AtomicLongArray positions;
+
+    /* Tile claiming each position. May briefly be null after the position
+     * is claimed */
+    private AtomicReferenceArray<Tile> positionTiles;
+
+    /**
+     * Create a table with room for at least the given number of claims.
+     * @param expected - the number of claims to make room for
+     */
+    TileClaimTable(int expected) {
+        allocate(capacityFor(expected));
+    }
+
+    /**
+     * Make room for the given total number of claims. Not thread safe.
+     * @param expected - the number of claims to make room for
+     */
+    void ensureCapacity(int expected) {
+        int needed = capacityFor(expected);
+        if (needed <= this.tiles.length()) {
+            return;
+        }
+        AtomicReferenceArray<Tile> oldTiles = this.tiles;
+        long[] oldTilePositions = this.tilePositions;
+        AtomicIntegerArray oldLevels = this.tileLevels;
+        AtomicIntegerArray oldFirstSlots = this.firstSlots;
+        allocate(needed);
+        for (int i = 0; i < oldTiles.length(); i++) {
+            Tile tile = oldTiles.get(i);
+            if (tile != null) {
+                int slot = claimTile(tile, oldTilePositions[i],
+                        oldLevels.get(i));
+                this.firstSlots.set(slot, oldFirstSlots.get(i));
+                claimPosition(oldTilePositions[i], tile);
+            }
+        }
+    }
+
+    /**
+     * Claim a tile at a position in a level, or find its existing claim.
+     * @param tile - the tile to claim
+     * @param position - the packed position to claim it at
+     * @param level - the level the claim is made in
+     * @return - the slot of the tile's claim, which may hold a different
+     *           position and level if the tile was already claimed
+     */
+    int claimTile(Tile tile, long position, int level) {
+        int mask = this.tiles.length() - 1;
+        int slot = mix(System.identityHashCode(tile)) & mask;
+        while (true) {
+            Tile claimed = this.tiles.get(slot);
+            if (claimed == null) {
+                if (!this.tiles.compareAndSet(slot, null, tile)) {
+                    // lost the slot, so look at it again
+                    continue;
+                }
+                this.tilePositions[slot] = position;
+                this.firstSlots.set(slot, Integer.MAX_VALUE);
+                this.tileLevels.set(slot, level);
+                return slot;
+            }
+            if (claimed == tile) {
+                while (this.tileLevels.get(slot) == UNPUBLISHED) {
+                    Thread.onSpinWait();
+                }
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Claim a position for a tile, unless it is already claimed.
+     * @param position - the packed position to claim
+     * @param tile - the tile claiming it
+     * @return - the tile that already claimed position, or null if tile
+     *           now holds it
+     */
+    Tile claimPosition(long position, Tile tile) {
+        int mask = this.positions.length() - 1;
+        int slot = mix(position) & mask;
+        while (true) {
+            long claimed = this.positions.get(slot);
+            if (claimed == Position.NONE) {
+                if (!this.positions.compareAndSet(slot, Position.NONE,
+                        position)) {
+                    continue;
+                }
+                this.positionTiles.set(slot, tile);
+                return null;
+            }
+            if (claimed == position) {
+                Tile occupant;
+                while ((occupant = this.positionTiles.get(slot)) == null) {
+                    Thread.onSpinWait();
+                }
+                return occupant;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Get the position held by a tile claim.
+     * @param slot - a slot returned by claimTile()
+     * @return - the packed position
+     */
+    long positionAt(int slot) {
+        return this.tilePositions[slot];
+    }
+
+    /**
+     * Get the level a tile claim was made in.
+     * @param slot - a slot returned by claimTile()
+     * @return - the level
+     */
+    int levelAt(int slot) {
+        return this.tileLevels.get(slot);
+    }
+
+    /**
+     * Record that exit slot reached the claimed tile, keeping the smallest.
+     * @param slot - a slot returned by claimTile()
+     * @param exitSlot - the exit slot that reached the tile
+     */
+    void reachedFrom(int slot, int exitSlot) {
+        int current = this.firstSlots.get(slot);
+        while (exitSlot < current
+                && !this.firstSlots.compareAndSet(slot, current, exitSlot)) {
+            current = this.firstSlots.get(slot);
+        }
+    }
+
+    /**
+     * Get the smallest exit slot that reached the claimed tile.
+     * @param slot - a slot returned by claimTile()
+     * @return - the exit slot
+     */
+    int firstReachedFrom(int slot) {
+        return this.firstSlots.get(slot);
+    }
+
+    /**
+     * Replace every table with empty ones of the given capacity.
+     */
+    private void allocate(int capacity) {
+        this.tiles = new AtomicReferenceArray<>(capacity);
+        this.tilePositions = new long[capacity];
+        this.tileLevels = new AtomicIntegerArray(capacity);
+        this.firstSlots = new AtomicIntegerArray(capacity);
+        this.positions = new AtomicLongArray(capacity);
+        this.positionTiles = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            this.tileLevels.set(i, UNPUBLISHED);
+            this.positions.set(i, Position.NONE);
+        }
+    }
+
+    /**
+     * The power of two table capacity that keeps the given number of
+     * claims at most half full.
+     */
+    private static int capacityFor(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Spread the bits of a key across the table.
+     */
+    private static int mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
@@ -0,0 +1,493 @@
+package csse2002.block.world;
+
+import java.util.List;
+
+/**
+ * A two-way index between tiles and (x, y) positions. <br>
+ * Positions are packed into a single long (see {@link Position#pack}) and
+ * stored in open-addressing tables with parallel key/value arrays, so
+ * neither direction of lookup allocates. <br>
+ * Tiles are keyed by identity. <br>
+ * Tiles are also stored in square chunks keyed by packed chunk
+ * coordinate, in a third table of the same kind, so that the tiles in a
+ * rectangle can be found without scanning every tile.
+ */
+final class TilePositionIndex {
+    /* Initial number of slots in each table. Must be a power of two. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /* log2 of the width and height of a chunk */
+    private static final int CHUNK_BITS = 5;
+
+    /* The width and height of a chunk */
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /**
+     * A CHUNK_SIZE by CHUNK_SIZE square of tiles, stored row by row.
+     */
+    private static final class Chunk {
+        /* The tiles in the chunk, or null where there is no tile */
+        final Tile[] tiles = new Tile[CHUNK_SIZE * CHUNK_SIZE];
+
+        /* The number of tiles in the chunk */
+        int size;
+    }
+
+    /* Packed positions, parallel to positionValues */
+    private long[] positionKeys;
+
+    /* Tiles at each packed position. A null entry marks an empty slot */
+    private Tile[] positionValues;
+
+    /* Tiles, parallel to tileValues. A null entry marks an empty slot */
+    private Tile[] tileKeys;
+
+    /* Packed position of each tile */
+    private long[] tileValues;
+
+    /* The number of tiles in the index */
+    private int size;
+
+    /* Packed chunk coordinates, parallel to chunkValues */
+    private long[] chunkKeys;
+
+    /* Chunks holding at least one tile. A null entry marks an empty slot */
+    private Chunk[] chunkValues;
+
+    /* The number of chunks in the index */
+    private int chunkCount;
+
+    /**
+     * Construct an empty index.
+     */
+    TilePositionIndex() {
+        allocate(INITIAL_CAPACITY);
+        allocateChunks(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Get the number of tiles in the index.
+     * @return - the number of tiles
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Remove every tile from the index.
+     */
+    void clear() {
+        allocate(INITIAL_CAPACITY);
+        allocateChunks(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Get the tile at the given packed position.
+     * @param position - the packed position
+     * @return - the tile at that position, or null if there is none
+     */
+    Tile getTile(long position) {
+        int mask = this.positionKeys.length - 1;
+        int slot = mix(position) & mask;
+        Tile tile;
+        while ((tile = this.positionValues[slot]) != null) {
+            if (this.positionKeys[slot] == position) {
+                return tile;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Check if a tile has been given a position.
+     * @param tile - the tile to look for
+     * @return - true if the tile is in the index
+     */
+    boolean containsTile(Tile tile) {
+        return findTile(tile) >= 0;
+    }
+
+    /**
+     * Get the packed position of a tile.
+     * @param tile - the tile to look for
+     * @return - the packed position of tile, or {@link Position#NONE} if the
+     *           tile is not in the index
+     */
+    long positionOf(Tile tile) {
+        int slot = findTile(tile);
+        return slot < 0 ? Position.NONE : this.tileValues[slot];
+    }
+
+    /**
+     * Add a tile at a packed position. <br>
+     * The caller must already have checked that neither the tile nor the
+     * position are in the index. The index does not shrink on removal.
+     * @param position - the packed position
+     * @param tile - the tile to add
+     * @require - tile != null
+     */
+    void put(long position, Tile tile) {
+        if ((this.size + 1) * 2 > this.positionKeys.length) {
+            grow();
+        }
+        insert(position, tile);
+        this.size++;
+
+        long chunkKey = chunkKey(position);
+        Chunk chunk = getChunk(chunkKey);
+        if (chunk == null) {
+            chunk = new Chunk();
+            putChunk(chunkKey, chunk);
+        }
+        chunk.tiles[chunkSlot(position)] = tile;
+        chunk.size++;
+    }
+
+    /**
+     * Add every tile with minX &le; x &le; maxX and minY &le; y &le; maxY to
+     * result. Tiles are added chunk by chunk, and row by row within each
+     * chunk. Only chunks that overlap the rectangle are looked at.
+     * @param minX - the smallest x coordinate in the rectangle
+     * @param minY - the smallest y coordinate in the rectangle
+     * @param maxX - the largest x coordinate in the rectangle
+     * @param maxY - the largest y coordinate in the rectangle
+     * @param result - the list to add the tiles to
+     */
+    void collectRegion(int minX, int minY, int maxX, int maxY,
+            List<Tile> result) {
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+        long minChunkX = minX >> CHUNK_BITS;
+        long maxChunkX = maxX >> CHUNK_BITS;
+        long minChunkY = minY >> CHUNK_BITS;
+        long maxChunkY = maxY >> CHUNK_BITS;
+        long chunksInRegion =
+                (maxChunkX - minChunkX + 1) * (maxChunkY - minChunkY + 1);
+        if (chunksInRegion > this.chunkCount) {
+            // the rectangle is mostly empty space, so it is cheaper to
+            // check each chunk that exists
+            for (int slot = 0; slot < this.chunkValues.length; slot++) {
+                Chunk chunk = this.chunkValues[slot];
+                if (chunk == null) {
+                    continue;
+                }
+                int chunkX = Position.unpackX(this.chunkKeys[slot]);
+                int chunkY = Position.unpackY(this.chunkKeys[slot]);
+                if (chunkX >= minChunkX && chunkX <= maxChunkX
+                        && chunkY >= minChunkY && chunkY <= maxChunkY) {
+                    collectChunk(chunk, chunkX, chunkY,
+                            minX, minY, maxX, maxY, result);
+                }
+            }
+            return;
+        }
+        for (long chunkY = minChunkY; chunkY <= maxChunkY; chunkY++) {
+            for (long chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                Chunk chunk = getChunk(
+                        Position.pack((int) chunkX, (int) chunkY));
+                if (chunk != null) {
+                    collectChunk(chunk, (int) chunkX, (int) chunkY,
+                            minX, minY, maxX, maxY, result);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the tiles of one chunk that are inside the rectangle to result.
+     */
+    private static void collectChunk(Chunk chunk, int chunkX, int chunkY,
+            int minX, int minY, int maxX, int maxY, List<Tile> result) {
+        long baseX = (long) chunkX << CHUNK_BITS;
+        long baseY = (long) chunkY << CHUNK_BITS;
+        int fromX = (int) Math.max(minX - baseX, 0);
+        int toX = (int) Math.min(maxX - baseX, CHUNK_SIZE - 1);
+        int fromY = (int) Math.max(minY - baseY, 0);
+        int toY = (int) Math.min(maxY - baseY, CHUNK_SIZE - 1);
+        for (int y = fromY; y <= toY; y++) {
+            for (int x = fromX; x <= toX; x++) {
+                Tile tile = chunk.tiles[(y << CHUNK_BITS) + x];
+                if (tile != null) {
+                    result.add(tile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the packed coordinate of the chunk holding a packed position.
+     */
+    private static long chunkKey(long position) {
+        return Position.pack(Position.unpackX(position) >> CHUNK_BITS,
+                Position.unpackY(position) >> CHUNK_BITS);
+    }
+
+    /**
+     * Get the index within its chunk of a packed position.
+     */
+    private static int chunkSlot(long position) {
+        int x = Position.unpackX(position) & (CHUNK_SIZE - 1);
+        int y = Position.unpackY(position) & (CHUNK_SIZE - 1);
+        return (y << CHUNK_BITS) + x;
+    }
+
+    /**
+     * Remove a tile, and its position, from the index.
+     * @param tile - the tile to remove
+     * @return - true if the tile was in the index
+     */
+    boolean remove(Tile tile) {
+        int slot = findTile(tile);
+        if (slot < 0) {
+            return false;
+        }
+        long position = this.tileValues[slot];
+        deleteTileSlot(slot);
+
+        int mask = this.positionKeys.length - 1;
+        slot = mix(position) & mask;
+        while (this.positionKeys[slot] != position
+                || this.positionValues[slot] == null) {
+            slot = (slot + 1) & mask;
+        }
+        deletePositionSlot(slot);
+        this.size--;
+
+        long chunkKey = chunkKey(position);
+        int chunkSlot = findChunk(chunkKey);
+        Chunk chunk = this.chunkValues[chunkSlot];
+        chunk.tiles[chunkSlot(position)] = null;
+        if (--chunk.size == 0) {
+            deleteChunkSlot(chunkSlot);
+            this.chunkCount--;
+        }
+        return true;
+    }
+
+    /**
+     * Get the chunk with a packed chunk coordinate.
+     * @return - the chunk, or null if it holds no tiles
+     */
+    private Chunk getChunk(long chunkKey) {
+        int slot = findChunk(chunkKey);
+        return slot < 0 ? null : this.chunkValues[slot];
+    }
+
+    /**
+     * Find the slot holding a packed chunk coordinate in the chunk table.
+     * @return - the slot, or -1 if the chunk is not in the index
+     */
+    private int findChunk(long chunkKey) {
+        int mask = this.chunkKeys.length - 1;
+        int slot = mix(chunkKey) & mask;
+        while (this.chunkValues[slot] != null) {
+            if (this.chunkKeys[slot] == chunkKey) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Add a chunk that is not yet in the chunk table, growing the table if
+     * needed.
+     */
+    private void putChunk(long chunkKey, Chunk chunk) {
+        if ((this.chunkCount + 1) * 2 > this.chunkKeys.length) {
+            long[] oldKeys = this.chunkKeys;
+            Chunk[] oldValues = this.chunkValues;
+            int oldCount = this.chunkCount;
+            allocateChunks(oldKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    insertChunk(oldKeys[i], oldValues[i]);
+                }
+            }
+            this.chunkCount = oldCount;
+        }
+        insertChunk(chunkKey, chunk);
+        this.chunkCount++;
+    }
+
+    /**
+     * Write a chunk into the chunk table without checking capacity.
+     */
+    private void insertChunk(long chunkKey, Chunk chunk) {
+        int mask = this.chunkKeys.length - 1;
+        int slot = mix(chunkKey) & mask;
+        while (this.chunkValues[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        this.chunkKeys[slot] = chunkKey;
+        this.chunkValues[slot] = chunk;
+    }
+
+    /**
+     * Empty a slot of the chunk table, shifting back any later entries of
+     * the same probe run so lookups never stop early.
+     */
+    private void deleteChunkSlot(int slot) {
+        int mask = this.chunkKeys.length - 1;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            Chunk value = this.chunkValues[next];
+            if (value == null) {
+                break;
+            }
+            int home = mix(this.chunkKeys[next]) & mask;
+            if (isBetween(slot, home, next)) {
+                continue;
+            }
+            this.chunkKeys[slot] = this.chunkKeys[next];
+            this.chunkValues[slot] = value;
+            slot = next;
+        }
+        this.chunkValues[slot] = null;
+    }
+
+    /**
+     * Empty a slot of the tile table, shifting back any later entries of
+     * the same probe run so lookups never stop early.
+     */
+    private void deleteTileSlot(int slot) {
+        int mask = this.tileKeys.length - 1;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            Tile key = this.tileKeys[next];
+            if (key == null) {
+                break;
+            }
+            int home = mix(System.identityHashCode(key)) & mask;
+            if (isBetween(slot, home, next)) {
+                continue;
+            }
+            this.tileKeys[slot] = key;
+            this.tileValues[slot] = this.tileValues[next];
+            slot = next;
+        }
+        this.tileKeys[slot] = null;
+    }
+
+    /**
+     * Empty a slot of the position table, shifting back any later entries of
+     * the same probe run so lookups never stop early.
+     */
+    private void deletePositionSlot(int slot) {
+        int mask = this.positionKeys.length - 1;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            Tile value = this.positionValues[next];
+            if (value == null) {
+                break;
+            }
+            int home = mix(this.positionKeys[next]) & mask;
+            if (isBetween(slot, home, next)) {
+                continue;
+            }
+            this.positionKeys[slot] = this.positionKeys[next];
+            this.positionValues[slot] = value;
+            slot = next;
+        }
+        this.positionValues[slot] = null;
+    }
+
+    /**
+     * Is home cyclically within (gap, current]? If so the entry at current
+     * cannot be moved back into gap.
+     */
+    private static boolean isBetween(int gap, int home, int current) {
+        if (gap <= current) {
+            return gap < home && home <= current;
+        }
+        return gap < home || home <= current;
+    }
+
+    /**
+     * Find the slot holding tile in the tile table.
+     * @param tile - the tile to look for
+     * @return - the slot, or -1 if the tile is not in the index
+     */
+    private int findTile(Tile tile) {
+        int mask = this.tileKeys.length - 1;
+        int slot = mix(System.identityHashCode(tile)) & mask;
+        Tile key;
+        while ((key = this.tileKeys[slot]) != null) {
+            if (key == tile) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Write a tile into both tables without checking capacity.
+     */
+    private void insert(long position, Tile tile) {
+        int mask = this.positionKeys.length - 1;
+        int slot = mix(position) & mask;
+        while (this.positionValues[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        this.positionKeys[slot] = position;
+        this.positionValues[slot] = tile;
+
+        slot = mix(System.identityHashCode(tile)) & mask;
+        while (this.tileKeys[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        this.tileKeys[slot] = tile;
+        this.tileValues[slot] = position;
+    }
+
+    /**
+     * Double the capacity of both tables, rehashing every entry.
+     */
+    private void grow() {
+        long[] oldKeys = this.positionKeys;
+        Tile[] oldValues = this.positionValues;
+        int oldSize = this.size;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                insert(oldKeys[i], oldValues[i]);
+            }
+        }
+        this.size = oldSize;
+    }
+
+    /**
+     * Replace both tables with empty ones of the given capacity.
+     */
+    private void allocate(int capacity) {
+        this.positionKeys = new long[capacity];
+        this.positionValues = new Tile[capacity];
+        this.tileKeys = new Tile[capacity];
+        this.tileValues = new long[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Replace the chunk table with an empty one of the given capacity.
+     */
+    private void allocateChunks(int capacity) {
+        this.chunkKeys = new long[capacity];
+        this.chunkValues = new Chunk[capacity];
+        this.chunkCount = 0;
+    }
+
+    /**
+     * Spread the bits of a key so that nearby positions do not cluster
+     * in the table.
+     */
+    private static int mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
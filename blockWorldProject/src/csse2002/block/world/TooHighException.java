@@ -5,5 +5,11 @@ package csse2002.block.world;
  * @serial exclude
  */
 public class TooHighException extends BlockWorldException {
-
+    /**
+     * Create the exception, without a stack trace (see
+     * BlockWorldException).
+     */
+    public TooHighException() {
+        super(null, false);
+    }
 }
@@ -5,5 +5,11 @@ package csse2002.block.world;
  * @serial exclude
  */
 public class TooLowException extends BlockWorldException {
-
+    /**
+     * Create the exception, without a stack trace (see
+     * BlockWorldException).
+     */
+    public TooLowException() {
+        super(null, false);
+    }
 }
@@ -1,20 +1,31 @@
 package csse2002.block.world;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.File;
+import java.io.Reader;
 import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class WorldMap {
+    /* The most tiles readTileSection() makes room for before reading any */
+    private static final int MAX_PRESIZED_TILES = 1 << 20;
+
+    /* Size of the buffer saveMap() writes through */
+    private static final int SAVE_BUFFER_SIZE = 1 << 16;
+
+    /* Exit directions, in the order saveMap() writes them */
+    private static final Direction[] EXIT_DIRECTIONS = Direction.values();
 
     Builder builder;
     Position startPosition;
@@ -22,6 +33,16 @@ public class WorldMap {
     Tile startingTile;
     String builderName;
 
+    /* Records the actions performed on the map, if not null */
+    ActionJournal journal;
+
+    /* Takes checkpoints of the map as actions are performed, if not null */
+    CheckpointManager checkpoints;
+
+    /* Records the changes made by actions so they can be undone, if not
+     * null */
+    DeltaLog deltas;
+
     /**
      * Constructs a new block world map from a startingTile,
      * position and builder, such that getBuilder() == builder,
@@ -98,21 +119,23 @@ public class WorldMap {
             throw new FileNotFoundException();
         }
 
-        try {
-            BufferedReader input = new BufferedReader(new
-                    FileReader(file));
+        try (Reader reader = new FileReader(file)) {
+            WorldMapScanner input = new WorldMapScanner(reader);
             List<Block> builderInvent = readFirstSection(input);
-            List<Block> blocksOnTile = new ArrayList<>();
-            Map<Integer, Tile> tiles = new HashMap<>();
-            Integer numOfTiles = readTileSection(input, blocksOnTile, tiles);
-            this.builder = new Builder(builderName, tiles.get(0),
+            int numOfTiles = readTileCount(input);
+            Tile[] tiles = readTileSection(input, numOfTiles);
+            Tile startingTile = tileWithID(tiles, 0);
+            if (startingTile == null) {
+                throw new WorldMapFormatException();
+            }
+            this.builder = new Builder(builderName, startingTile,
                     builderInvent);
-            String line = input.readLine();
-            if (!line.equals("exits")) {
+            input.requireLine();
+            if (!input.matches(input.lineStart(), input.lineEnd(), "exits")) {
                 throw new WorldMapFormatException();
             }
             readExits(input, tiles, numOfTiles);
-            this.sparseTile.addLinkedTiles(tiles.get(0),
+            this.sparseTile.addLinkedTiles(startingTile,
                     this.startPosition.getX(), this.startPosition.getY());
         } catch (IOException | InvalidBlockException e) {
             throw new WorldMapFormatException();
@@ -122,170 +145,236 @@ public class WorldMap {
 
     /**
      * Reads the exits from a given file
-     * @param input - the BufferedReader containing information about world.
-     * @param tiles - A list of tiles, whose exits are to be populated.
+     * @param input - the scanner containing information about world.
+     * @param tiles - the tiles by ID, whose exits are to be populated.
      * @param tileCount - The amount of tiles (used for error checking)
      */
-    private void readExits(BufferedReader input, Map<Integer, Tile> tiles,
-            Integer tileCount)
-            throws WorldMapFormatException {
-        String line;
-        Integer exitCount = 0;
-        List<Integer> tilesPrevious = new ArrayList<>();
+    private void readExits(WorldMapScanner input, Tile[] tiles,
+            int tileCount)
+            throws WorldMapFormatException, IOException {
+        int exitCount = 0;
+        BitSet tilesPrevious = new BitSet(tiles.length);
+        // exitsPrevious[id] == exitCount + 1 if the current line already
+        // has an exit to tile id, so it never needs clearing between lines
+        int[] exitsPrevious = new int[tiles.length];
         try {
-            line = input.readLine();
-            while (line != null) {
-                if (line.isEmpty()) {
+            while (input.nextLine()) {
+                if (input.lineIsEmpty()) {
+                    throw new WorldMapFormatException();
+                }
+                int start = input.lineStart();
+                int end = input.lineEnd();
+                int space = input.indexOf(' ', start, end);
+                if (space == start) {
                     throw new WorldMapFormatException();
                 }
-                Integer tileID;
-                String[] IDAndExits = line.split(" ");
-                if (IDAndExits.length == 1) {
+                if (input.onlyContains(' ', space, end)) {
+                    // just an ID, so the tile has no exits
                     exitCount++;
-                    line = input.readLine();
                     continue;
                 }
-                String[] exitsAndDests = IDAndExits[1].split(","); //Exits and
-                                                                // Destinations
-                tileID = Integer.parseInt(IDAndExits[0]);
-                if (tilesPrevious.contains(tileID)) {
+                int tileID = input.parseInt(start, space);
+                if (tileID < 0 || tileID >= tileCount
+                        || tileWithID(tiles, tileID) == null
+                        || tilesPrevious.get(tileID)) {
                     throw new WorldMapFormatException();
                 }
-                if (tileID < 0 || tileID >= tileCount) {
+
+                int from = space + 1;
+                int exitsEnd = input.indexOf(' ', from, end);
+                if (exitsEnd == from) {
                     throw new WorldMapFormatException();
                 }
-
-                List<Integer> exitsPrevious = new ArrayList<>();
-                for (String exit: exitsAndDests) {
-                    String[] singleExit = exit.split(":");
-                    if (singleExit.length != 2) {
+                // trailing commas are ignored, as they were by String.split()
+                while (exitsEnd > from && input.buffer()[exitsEnd - 1] == ',') {
+                    exitsEnd--;
+                }
+                while (from < exitsEnd) {
+                    int exitEnd = input.indexOf(',', from, exitsEnd);
+                    int colon = input.indexOf(':', from, exitEnd);
+                    if (colon == exitEnd) {
                         throw new WorldMapFormatException();
                     }
-                    Integer destinationTile = Integer.parseInt(singleExit[1]);
-                    if (exitsPrevious.contains(destinationTile)) {
+                    int destinationEnd = input.indexOf(':', colon + 1, exitEnd);
+                    if (!input.onlyContains(':', destinationEnd, exitEnd)) {
                         throw new WorldMapFormatException();
                     }
-                    if (destinationTile < 0 || destinationTile.equals(tileID) ||
+                    int destinationTile =
+                            input.parseInt(colon + 1, destinationEnd);
+                    if (destinationTile < 0 || destinationTile == tileID ||
                             destinationTile >= tileCount) {
                         throw new WorldMapFormatException();
                     }
-                    if (!(singleExit[0].equals("north") ||
-                            singleExit[0].equals("east") ||
-                            singleExit[0].equals("south") ||
-                            singleExit[0].equals("west"))){
+                    Tile destination = tileWithID(tiles, destinationTile);
+                    if (destination == null
+                            || exitsPrevious[destinationTile] == exitCount + 1) {
                         throw new WorldMapFormatException();
                     }
-                    exitsPrevious.add(destinationTile);
-                    tiles.get(tileID).addExit(singleExit[0],
-                            tiles.get(destinationTile));
+                    Direction direction = readDirection(input, from, colon);
+                    exitsPrevious[destinationTile] = exitCount + 1;
+                    tiles[tileID].addExit(direction, destination);
+                    from = exitEnd + 1;
                 }
-                tilesPrevious.add(tileID);
+                tilesPrevious.set(tileID);
                 exitCount++;
-                line = input.readLine();
             }
 
-        } catch (IOException | NumberFormatException | NoExitException e) {
+        } catch (NoExitException e) {
             throw new WorldMapFormatException();
         }
-        if (!exitCount.equals(tileCount)) {
+        if (exitCount != tileCount) {
             throw new WorldMapFormatException();
         }
     }
 
-    private Integer readTileSection(BufferedReader input,
-            List<Block> blocksOnTile, Map<Integer, Tile> tiles)
+    /**
+     * Reads the name of an exit direction.
+     * @param input - the scanner holding the name
+     * @param from - the index of the start of the name
+     * @param to - the index after the end of the name
+     * @return - the direction with that name
+     * @throws WorldMapFormatException - if the name is not a direction
+     */
+    private Direction readDirection(WorldMapScanner input, int from, int to)
             throws WorldMapFormatException {
-        List<Integer> tilesPrevious = new ArrayList<>();
-        Integer numOfTiles;
-        try {
-            String line  = input.readLine();
-            String[] lineSections = line.split(":");
-            if (lineSections.length != 2 || !lineSections[0].equals("total")) {
-                throw new WorldMapFormatException();
+        for (Direction direction : EXIT_DIRECTIONS) {
+            if (input.matches(from, to, direction.getName())) {
+                return direction;
             }
-            numOfTiles = Integer.parseInt(lineSections[1]);
-            line = input.readLine();
-            while (!line.isEmpty()) {
-                blocksOnTile = new ArrayList<>();
-                Integer tileID;
-                lineSections = line.split(" ");
-                tileID = Integer.parseInt(lineSections[0]);
-                if (tilesPrevious.contains(tileID)) {
+        }
+        throw new WorldMapFormatException();
+    }
+
+    /**
+     * Reads the "total:N" line that starts the tile section.
+     * @param input - the scanner containing information about world.
+     * @return - the number of tiles, N
+     * @throws WorldMapFormatException - if the line is not "total:N"
+     */
+    private int readTileCount(WorldMapScanner input)
+            throws WorldMapFormatException, IOException {
+        input.requireLine();
+        int start = input.lineStart();
+        int end = input.lineEnd();
+        int colon = input.indexOf(':', start, end);
+        if (colon == end || !input.matches(start, colon, "total")) {
+            throw new WorldMapFormatException();
+        }
+        int numberEnd = input.indexOf(':', colon + 1, end);
+        int numOfTiles = input.parseInt(colon + 1, numberEnd);
+        if (!input.onlyContains(':', numberEnd, end)) {
+            throw new WorldMapFormatException();
+        }
+        return numOfTiles;
+    }
+
+    /**
+     * Reads the tiles, up to the blank line before "exits".
+     * @param input - the scanner containing information about world.
+     * @param tileCount - the number of tiles given by "total:"
+     * @return - the tiles, indexed by ID. IDs past the end of the array
+     *           have no tile (see tileWithID()).
+     * @throws WorldMapFormatException - if a tile is badly formatted, or its
+     *                                   ID is repeated or out of range
+     */
+    private Tile[] readTileSection(WorldMapScanner input, int tileCount)
+            throws WorldMapFormatException, IOException {
+        // trust the header for the initial size only up to a point, so a
+        // bad total cannot allocate a huge array
+        Tile[] tiles = new Tile[Math.max(0,
+                Math.min(tileCount, MAX_PRESIZED_TILES))];
+        try {
+            // reused for every tile, as Tile copies its starting blocks
+            List<Block> blocksOnTile = new ArrayList<>();
+            input.requireLine();
+            while (!input.lineIsEmpty()) {
+                int start = input.lineStart();
+                int end = input.lineEnd();
+                int space = input.indexOf(' ', start, end);
+                int tileID = input.parseInt(start, space);
+                if (tileID < 0 || tileID >= tileCount) {
                     throw new WorldMapFormatException();
                 }
-                if (tileID < 0 || tileID >= numOfTiles) {
+                if (tileID >= tiles.length) {
+                    tiles = Arrays.copyOf(tiles, (int) Math.min(tileCount,
+                            Math.max(2L * tiles.length, tileID + 1L)));
+                }
+                if (tiles[tileID] != null) {
                     throw new WorldMapFormatException();
                 }
-                if (lineSections.length == 1) {
-                    tiles.put(tileID, new Tile(blocksOnTile));
-                    line = input.readLine();
-                    continue;
+                blocksOnTile.clear();
+                if (space < end) {
+                    populateBlockList(input, space + 1,
+                            input.indexOf(' ', space + 1, end), blocksOnTile);
                 }
-                String[] blocks = lineSections[1].split(",");
-                populateBlockList(blocksOnTile, blocks);
 
-                tiles.put(tileID, new Tile(blocksOnTile));
-                line = input.readLine();
-                tilesPrevious.add(tileID);
+                tiles[tileID] = new Tile(blocksOnTile);
+                input.requireLine();
             }
-        } catch (IOException | NumberFormatException | TooHighException e) {
+        } catch (TooHighException e) {
             throw new WorldMapFormatException();
         }
-        return numOfTiles;
+        return tiles;
     }
 
-    private List<Block> readFirstSection(BufferedReader input)
-            throws WorldMapFormatException {
+    /**
+     * Get a tile read by readTileSection().
+     * @param tiles - the tiles returned by readTileSection()
+     * @param id - the ID of the tile, which must not be negative
+     * @return - the tile with that ID, or null if there is none
+     */
+    private static Tile tileWithID(Tile[] tiles, int id) {
+        return id < tiles.length ? tiles[id] : null;
+    }
+
+    private List<Block> readFirstSection(WorldMapScanner input)
+            throws WorldMapFormatException, IOException {
         int startX;
         int startY;
-        List<Block> builderInvent;
-        try {
-            String line = input.readLine();
-            startX = Integer.parseInt(line);
-            line = input.readLine();
-            startY = Integer.parseInt(line);
-            this.startPosition = new Position(startX, startY);
-            line = input.readLine();
-            builderName = line;
-            line = input.readLine();
-            builderInvent = processBuilderInventory(line);
-            line = input.readLine();
-            if (!line.isEmpty()) {
-                throw new WorldMapFormatException(); /*This is after*/
-            }                                         /*the invent line*/
-        } catch (IOException | NumberFormatException e) {
-            throw new WorldMapFormatException();
-        }
+        List<Block> builderInvent = new ArrayList<>();
+        input.requireLine();
+        startX = input.parseInt(input.lineStart(), input.lineEnd());
+        input.requireLine();
+        startY = input.parseInt(input.lineStart(), input.lineEnd());
+        this.startPosition = new Position(startX, startY);
+        input.requireLine();
+        builderName = input.lineString();
+        input.requireLine();
+        populateBlockList(input, input.lineStart(), input.lineEnd(),
+                builderInvent);
+        input.requireLine();
+        if (!input.lineIsEmpty()) {
+            throw new WorldMapFormatException(); /*This is after*/
+        }                                         /*the invent line*/
         return builderInvent;
     }
 
-    private void populateBlockList (List<Block> toFill, String[] blocks)
-            throws WorldMapFormatException{
-        for (String item: blocks) {
-            if (item.equals("soil")) {
-                toFill.add(new SoilBlock());
-            } else if (item.equals("grass")) {
-                toFill.add(new GrassBlock());
-            } else if (item.equals("wood")) {
-                toFill.add(new WoodBlock());
-            } else if (item.equals("stone")) {
-                toFill.add(new StoneBlock());
-            } else if (item.equals("")) {
+    /**
+     * Adds the blocks named in a comma separated list to toFill, using the
+     * shared block of each type from BlockRegistry. An empty name ends the
+     * list.
+     * @param input - the scanner holding the list
+     * @param from - the index of the start of the list
+     * @param to - the index after the end of the list
+     * @param toFill - the list to add the blocks to
+     * @throws WorldMapFormatException - if a name is not a block type
+     */
+    private void populateBlockList(WorldMapScanner input, int from, int to,
+            List<Block> toFill) throws WorldMapFormatException {
+        while (from < to) {
+            int end = input.indexOf(',', from, to);
+            Block block = BlockRegistry.forType(input, from, end);
+            if (block != null) {
+                toFill.add(block);
+            } else if (from == end) {
                 break;
             } else {
                 throw new WorldMapFormatException();
             }
+            from = end + 1;
         }
     }
 
-    private List<Block> processBuilderInventory(String line) throws
-            WorldMapFormatException {
-        String[] inventContents = line.split(",");
-        List<Block> inventory = new ArrayList<>();
-        populateBlockList(inventory, inventContents);
-        return inventory;
-    }
-
     /**
      * Gets the builder associated with this block world.
      * @return the builder object
@@ -349,84 +438,278 @@ public class WorldMap {
      */
 
     public void saveMap(String filename) throws IOException {
-        BufferedWriter writer = new BufferedWriter(new FileWriter(filename));
-        writer.write(Integer.toString(this.startPosition.getX()));
-        writer.newLine();
-        writer.write(Integer.toString(this.startPosition.getY()));
-        writer.newLine();
-        writer.write(this.getBuilder().getName());
-        writer.newLine();
-
-        int inventorySize = this.getBuilder().getInventory().size();
-        int count = 0;
-
-        for (Block block: this.getBuilder().getInventory()) {
-            writer.append(block.getBlockType());
-            if (count < inventorySize - 1) {
-                writer.append(",");
-            }
-            count++;
+        List<Tile> tiles = this.getTiles();
+        // tile IDs, found by identity so each lookup is constant time
+        Map<Tile, Integer> tileIDs = new IdentityHashMap<>(tiles.size());
+        for (int i = 0; i < tiles.size(); i++) {
+            tileIDs.put(tiles.get(i), i);
         }
-        writer.newLine();
-        writer.newLine();
-        writer.write("total:");
-        writer.write(Integer.toString(this.getTiles().size()));
-        count = 0;
-        for (Tile tile: this.getTiles()) {
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename),
+                SAVE_BUFFER_SIZE)) {
+            writer.write(Integer.toString(this.startPosition.getX()));
             writer.newLine();
-            writer.write(Integer.toString(count));
-            writer.append(" ");
-            int blockCount = 0;
-            for (Block block: tile.getBlocks()) {
-                writer.write(block.getBlockType());
-                if (blockCount <
-                        this.getTiles().get(count).getBlocks().size() - 1) {
-                    writer.append(",");
-                }
-                blockCount++;
-            }
-            count++;
-        }
-        writer.newLine();
-        writer.newLine();
-        writer.write("exits");
-        count = 0;
-        for (Tile tile: this.getTiles()) {
+            writer.write(Integer.toString(this.startPosition.getY()));
             writer.newLine();
-            writer.write(Integer.toString(this.getTiles().indexOf(tile)));
-            if (tile.getExits().containsKey("north")) {
-
-                writer.append(" ");
-                writer.write("north:");
-                Tile exit = tile.getExits().get("north");
-                int index = this.getTiles().indexOf(exit);
-                writer.write(Integer.toString(index));
-            }
-            if (tile.getExits().containsKey("east")) {
-                writer.append(" ");
-                writer.write("east:");
-                Tile exit = tile.getExits().get("east");
-                int index = this.getTiles().indexOf(exit);
-                writer.write(Integer.toString(index));
-            }
-            if (tile.getExits().containsKey("south")) {
-                writer.append(" ");
-                writer.write("south:");
-                Tile exit = tile.getExits().get("south");
-                int index = this.getTiles().indexOf(exit);
-                writer.write(Integer.toString(index));
+            writer.write(this.getBuilder().getName());
+            writer.newLine();
+            writeBlockList(writer, this.getBuilder().getInventory());
+            writer.newLine();
+            writer.newLine();
+            writer.write("total:");
+            writer.write(Integer.toString(tiles.size()));
+            for (int i = 0; i < tiles.size(); i++) {
+                writer.newLine();
+                writer.write(Integer.toString(i));
+                writer.write(' ');
+                writeBlockList(writer, tiles.get(i).getBlocks());
             }
-            if (tile.getExits().containsKey("west")) {
-                writer.append(" ");
-                writer.write("west:");
-                Tile exit = tile.getExits().get("west");
-                int index = this.getTiles().indexOf(exit);
-                writer.write(Integer.toString(index));
+            writer.newLine();
+            writer.newLine();
+            writer.write("exits");
+            for (int i = 0; i < tiles.size(); i++) {
+                writer.newLine();
+                writer.write(Integer.toString(i));
+                writer.write(' ');
+                Tile tile = tiles.get(i);
+                boolean first = true;
+                for (Direction direction : EXIT_DIRECTIONS) {
+                    Tile exit = tile.getExit(direction);
+                    if (exit == null) {
+                        continue;
+                    }
+                    if (!first) {
+                        writer.write(',');
+                    }
+                    writer.write(direction.getName());
+                    writer.write(':');
+                    writer.write(Integer.toString(tileIDs.get(exit)));
+                    first = false;
+                }
             }
-            count++;
         }
-        writer.flush();
     }
 
+    /**
+     * Load a map saved by saveBinary(). <br>
+     * See WorldMapBinaryFormat for the format, which holds the same
+     * information as the text format read by WorldMap(filename). The file
+     * is memory-mapped rather than read through a buffer.
+     * @param path - the file to load the map from
+     * @return - the loaded map
+     * @throws WorldMapFormatException - if the file is not a binary map
+     * @throws WorldMapInconsistentException - if the file is correctly
+     * formatted, but has inconsistencies (such as overlapping tiles)
+     * @throws IOException - if the file cannot be opened or read
+     */
+    static WorldMap loadBinary(Path path) throws WorldMapFormatException,
+            WorldMapInconsistentException, IOException {
+        return WorldMapBinaryFormat.read(path);
+    }
+
+    /**
+     * Save this map in the binary format read by loadBinary(). As for
+     * saveMap(), tile IDs are the ordering of tiles returned by getTiles().
+     * @param path - the file to write to
+     * @throws IOException - if the file cannot be opened or written to
+     */
+    void saveBinary(Path path) throws IOException {
+        WorldMapBinaryFormat.write(this, path);
+    }
+
+    /**
+     * Start recording the changes made to this map by the actions of
+     * Action, so that they can be undone and redone (see DeltaLog). Any
+     * actions recorded before are forgotten. The map must only be changed
+     * by actions while the changes are being recorded.
+     * @param capacity - the most actions that can be undone. Once that
+     *                   many are recorded, each action forgets the oldest.
+     * @require capacity &gt; 0
+     */
+    void startUndoLog(int capacity) {
+        this.deltas = new DeltaLog(this.builder, capacity);
+    }
+
+    /**
+     * Stop recording changes, forgetting those recorded.
+     */
+    void stopUndoLog() {
+        this.deltas = null;
+    }
+
+    /**
+     * Undo the most recent actions performed on this map, restoring the
+     * tiles they changed, the builder's tile and the builder's inventory.
+     * Each action takes O(1) time to undo. Only actions recorded since
+     * startUndoLog(), and not yet undone, can be undone.
+     * @param count - the most actions to undo
+     * @return - the number of actions undone, fewer than count if no more
+     *           were recorded
+     * @throws IllegalStateException - if a journal is started, as it
+     * cannot record the changes undone
+     */
+    int undo(int count) {
+        if (this.deltas == null) {
+            return 0;
+        }
+        checkNoJournal();
+        return this.deltas.undo(count);
+    }
+
+    /**
+     * Redo the actions most recently undone by undo(). Actions can no
+     * longer be redone once another action is performed.
+     * @param count - the most actions to redo
+     * @return - the number of actions redone, fewer than count if fewer
+     *           were undone
+     * @throws IllegalStateException - if a journal is started, as it
+     * cannot record the changes redone
+     */
+    int redo(int count) {
+        if (this.deltas == null) {
+            return 0;
+        }
+        checkNoJournal();
+        return this.deltas.redo(count);
+    }
+
+    /**
+     * Throw an IllegalStateException if a journal is started.
+     */
+    private void checkNoJournal() {
+        if (this.journal != null) {
+            throw new IllegalStateException(
+                    "Cannot undo or redo while journalling actions");
+        }
+    }
 
+    /**
+     * Start recording the actions performed on this map by Action in a
+     * journal (see ActionJournal), so that recover() can rebuild the map
+     * after a crash. The journal should hold the actions performed since
+     * the map was last saved, so it should be empty (or missing) when the
+     * map has just been saved, or hold the actions already replayed by
+     * recover(). Changes made to tiles other than by actions are not
+     * recorded. If writing the journal fails, later actions throw an
+     * UncheckedIOException without being performed, so the journal never
+     * misses an action in the middle.
+     * @param path - the journal file, added to if it exists
+     * @param syncMillis - the longest an action may wait before it is
+     *                     forced to disk, in ms, or 0 to force each action
+     *                     before it is performed
+     * @throws IOException - if the journal cannot be opened
+     */
+    void startJournal(Path path, long syncMillis) throws IOException {
+        stopJournal();
+        this.journal = new ActionJournal(path, syncMillis);
+    }
+
+    /**
+     * Stop recording actions, forcing any that are left to disk. Does
+     * nothing if no journal was started.
+     * @throws IOException - if the journal could not be written
+     */
+    void stopJournal() throws IOException {
+        ActionJournal old = this.journal;
+        this.journal = null;
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * Start taking checkpoints of this map in a directory as actions are
+     * performed by Action, journalling the actions in between (see
+     * CheckpointManager), so that recover(directory) can rebuild the map
+     * after a crash without replaying the whole session. A checkpoint is
+     * written before this returns. Any journal started by startJournal()
+     * is stopped.
+     * @param directory - the directory to keep checkpoints and journals in
+     * @param everyActions - the most actions between checkpoints, or 0
+     * @param everyMillis - the longest time between checkpoints, in ms, or
+     *                      0
+     * @param syncMillis - the longest an action may wait before it is
+     *                     forced to disk, in ms, or 0 to force each action
+     *                     before it is performed
+     * @throws IOException - if the first checkpoint cannot be written
+     */
+    void startCheckpoints(Path directory, long everyActions,
+            long everyMillis, long syncMillis) throws IOException {
+        stopCheckpoints();
+        this.checkpoints = new CheckpointManager(this, directory,
+                everyActions, everyMillis, syncMillis);
+    }
+
+    /**
+     * Stop taking checkpoints, waiting for the last to be written, and
+     * stop the journal. Does nothing if checkpoints were not started.
+     * @throws IOException - if a checkpoint or the journal could not be
+     *                       written
+     */
+    void stopCheckpoints() throws IOException {
+        CheckpointManager old = this.checkpoints;
+        this.checkpoints = null;
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * Rebuild a map after a crash from a directory of checkpoints, by
+     * loading the latest checkpoint and performing the actions recorded
+     * since it.
+     * @param directory - the directory passed to startCheckpoints()
+     * @return - the rebuilt map, with no journal or checkpoints started
+     * @throws WorldMapFormatException - if the checkpoint is incorrectly
+     * formatted
+     * @throws WorldMapInconsistentException - if the checkpoint has
+     * inconsistencies (such as overlapping tiles)
+     * @throws IOException - if there is no checkpoint, or a file cannot be
+     * read
+     */
+    static WorldMap recover(Path directory) throws WorldMapFormatException,
+            WorldMapInconsistentException, IOException {
+        return CheckpointManager.recover(directory);
+    }
+
+    /**
+     * Rebuild a map after a crash, by loading the last save and performing
+     * the actions recorded in its journal since then.
+     * @param snapshot - the saved map, in the text or binary format
+     * @param journal - the journal started after the save. If it does not
+     *                  exist, the map is as saved.
+     * @return - the rebuilt map, with no journal started
+     * @throws WorldMapFormatException - if the save is incorrectly
+     * formatted
+     * @throws WorldMapInconsistentException - if the save has
+     * inconsistencies (such as overlapping tiles)
+     * @throws IOException - if a file cannot be read, or the journal is not
+     * a journal
+     */
+    static WorldMap recover(Path snapshot, Path journal)
+            throws WorldMapFormatException, WorldMapInconsistentException,
+            IOException {
+        WorldMap map = WorldMapBinaryFormat.isBinary(snapshot)
+                ? loadBinary(snapshot) : new WorldMap(snapshot.toString());
+        if (Files.exists(journal)) {
+            ActionJournal.replay(journal, map);
+        }
+        return map;
+    }
+
+    /**
+     * Write the types of blocks as a comma separated list.
+     * @param writer - the writer to write to
+     * @param blocks - the blocks to write
+     * @throws IOException - if writing fails
+     */
+    private static void writeBlockList(Writer writer, List<Block> blocks)
+            throws IOException {
+        for (int i = 0; i < blocks.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(blocks.get(i).getBlockType());
+        }
+    }
 }
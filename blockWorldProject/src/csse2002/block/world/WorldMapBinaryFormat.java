@@ -0,0 +1,284 @@
+package csse2002.block.world;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes block world maps in a compact binary format. <br>
+ * All numbers are big-endian (as for DataOutputStream). The format is:
+ * <pre>
+ *  int     MAGIC ("BWMP")
+ *  int     VERSION
+ *  int     startingX
+ *  int     startingY
+ *  int     length of the builder's name in UTF-8 bytes, then the bytes
+ *  int     inventory size, then one byte block code (see BlockStacks)
+ *          per block
+ *  int     the ID of the builder's current tile
+ *  int     number of tiles (N)
+ *  N times:  byte height, then the low 16 bits of the tile's packed
+ *            blocks (see BlockStacks)
+ *  4 times (north, east, south, west):
+ *          N ints, the ID of each tile's exit in that direction, or -1
+ * </pre>
+ * As in the text format, tile IDs are the ordering of tiles returned by
+ * getTiles(), i.e. tile 0 is the starting tile. Version 1 files have no
+ * builder's tile ID, and put the builder on the starting tile.
+ */
+final class WorldMapBinaryFormat {
+    /* "BWMP" in ASCII, which starts every binary map */
+    static final int MAGIC = 0x42574D50;
+
+    /* The version of the format written by write() */
+    static final int VERSION = 2;
+
+    /* The version with no builder's tile ID, which can still be read */
+    private static final int VERSION_1 = 1;
+
+    /* Exit directions, in the order their ID arrays are stored */
+    private static final Direction[] EXIT_DIRECTIONS = Direction.values();
+
+    /* ID of a missing exit */
+    private static final int NO_EXIT = -1;
+
+    /* The fewest bytes a tile takes: height, blocks and four exits */
+    private static final int MIN_TILE_BYTES = 1 + 2 + 4 * 4;
+
+    /* Size of the buffer used for writing */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private WorldMapBinaryFormat() {
+    }
+
+    /**
+     * The state of a map at one point in time, which can be written out
+     * later (e.g. on another thread) while the map changes. <br>
+     * The heights and blocks of the tiles, the builder's tile and the
+     * inventory are copied when the snapshot is taken. The exits are not
+     * copied, but read when the snapshot is written, so they must not
+     * change in between. Actions never change exits.
+     */
+    static final class Snapshot {
+        private final Position startPosition;
+        private final String builderName;
+        private final List<Block> inventory;
+        private final Tile builderTile;
+
+        /* The tiles in getTiles() order, and their packed blocks */
+        private final Tile[] tiles;
+        private final int[] blocks;
+
+        /**
+         * Take a snapshot of a map. Takes time proportional to the number
+         * of tiles, but only copies primitive state.
+         * @param map - the map to take a snapshot of
+         */
+        Snapshot(WorldMap map) {
+            this.startPosition = map.getStartPosition();
+            this.builderName = map.getBuilder().getName();
+            this.inventory = new ArrayList<>(map.getBuilder().getInventory());
+            this.builderTile = map.getBuilder().getCurrentTile();
+            this.tiles = map.getTiles().toArray(new Tile[0]);
+            this.blocks = new int[this.tiles.length];
+            for (int i = 0; i < this.tiles.length; i++) {
+                this.blocks[i] = this.tiles[i].getPackedBlocks();
+            }
+        }
+    }
+
+    /**
+     * Write a map to a file in the binary format.
+     * @param map - the map to write
+     * @param path - the file to write to
+     * @throws IOException - if the file cannot be opened or written to
+     */
+    static void write(WorldMap map, Path path) throws IOException {
+        write(new Snapshot(map), path);
+    }
+
+    /**
+     * Write a snapshot of a map to a file in the binary format.
+     * @param snapshot - the snapshot to write
+     * @param path - the file to write to
+     * @throws IOException - if the file cannot be opened or written to
+     */
+    static void write(Snapshot snapshot, Path path) throws IOException {
+        Tile[] tiles = snapshot.tiles;
+        Map<Tile, Integer> tileIDs = new IdentityHashMap<>(tiles.length);
+        for (int i = 0; i < tiles.length; i++) {
+            tileIDs.put(tiles[i], i);
+        }
+        Integer builderTileID = tileIDs.get(snapshot.builderTile);
+
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path),
+                        BUFFER_SIZE))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(snapshot.startPosition.getX());
+            output.writeInt(snapshot.startPosition.getY());
+            byte[] nameBytes =
+                    snapshot.builderName.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(nameBytes.length);
+            output.write(nameBytes);
+            output.writeInt(snapshot.inventory.size());
+            for (Block block : snapshot.inventory) {
+                int code = BlockStacks.codeOf(block);
+                if (code == BlockStacks.NO_CODE) {
+                    throw new IllegalArgumentException(block.getBlockType());
+                }
+                output.writeByte(code);
+            }
+            // a builder off the map (e.g. moved by hand) is put back on the
+            // starting tile, as in the text format
+            output.writeInt(builderTileID == null ? 0 : builderTileID);
+
+            output.writeInt(tiles.length);
+            for (int blocks : snapshot.blocks) {
+                output.writeByte(BlockStacks.height(blocks));
+                output.writeShort(blocks);
+            }
+            for (Direction direction : EXIT_DIRECTIONS) {
+                for (Tile tile : tiles) {
+                    Tile exit = tile.getExit(direction);
+                    output.writeInt(
+                            exit == null ? NO_EXIT : tileIDs.get(exit));
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a map written by write(). <br>
+     * The file is memory-mapped and the tiles are built straight from the
+     * mapped bytes. Tiles keep their blocks in the packed form they are
+     * stored in, so no Block objects are created for them.
+     * @param path - the file to read from
+     * @return - the map
+     * @throws WorldMapFormatException - if the file is not a binary map of
+     *                                   a known version, or is truncated
+     * @throws WorldMapInconsistentException - if the file is correctly
+     * formatted, but has inconsistencies (such as overlapping tiles)
+     * @throws IOException - if the file cannot be opened or read
+     */
+    static WorldMap read(Path path)
+            throws WorldMapFormatException, WorldMapInconsistentException,
+            IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            MappedFileReader input = new MappedFileReader(channel);
+            if (input.readInt() != MAGIC) {
+                throw new WorldMapFormatException();
+            }
+            int version = input.readInt();
+            if (version != VERSION && version != VERSION_1) {
+                throw new WorldMapFormatException();
+            }
+            Position startPosition =
+                    new Position(input.readInt(), input.readInt());
+            byte[] nameBytes = new byte[readCount(input, 1)];
+            input.readFully(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            List<Block> inventory = new ArrayList<>();
+            int inventorySize = readCount(input, 1);
+            for (int i = 0; i < inventorySize; i++) {
+                inventory.add(blockFromCode(input.readUnsignedByte()));
+            }
+            int builderTileID = version == VERSION_1 ? 0 : input.readInt();
+
+            int tileCount = readCount(input, MIN_TILE_BYTES);
+            if (tileCount == 0) {
+                throw new WorldMapFormatException();
+            }
+            Tile[] tiles = new Tile[tileCount];
+            for (int i = 0; i < tileCount; i++) {
+                int height = input.readUnsignedByte();
+                int blocks = (height << BlockStacks.HEIGHT_SHIFT)
+                        | input.readUnsignedShort();
+                if (!BlockStacks.isValid(blocks)) {
+                    throw new WorldMapFormatException();
+                }
+                tiles[i] = new Tile(blocks);
+            }
+            for (Direction direction : EXIT_DIRECTIONS) {
+                for (int i = 0; i < tileCount; i++) {
+                    int exit = input.readInt();
+                    if (exit == NO_EXIT) {
+                        continue;
+                    }
+                    if (exit < 0 || exit >= tileCount || exit == i) {
+                        throw new WorldMapFormatException();
+                    }
+                    tiles[i].addExit(direction, tiles[exit]);
+                }
+            }
+            if (!input.atEnd()) {
+                throw new WorldMapFormatException();
+            }
+
+            if (builderTileID < 0 || builderTileID >= tileCount) {
+                throw new WorldMapFormatException();
+            }
+            Builder builder =
+                    new Builder(name, tiles[builderTileID], inventory);
+            return new WorldMap(tiles[0], startPosition, builder);
+        } catch (EOFException | NoExitException | InvalidBlockException e) {
+            throw new WorldMapFormatException();
+        }
+    }
+
+    /**
+     * Check if a file starts like a binary map.
+     * @param path - the file to check
+     * @return - true if the file starts with MAGIC
+     * @throws IOException - if the file cannot be opened or read
+     */
+    static boolean isBinary(Path path) throws IOException {
+        try (DataInputStream input = new DataInputStream(
+                Files.newInputStream(path))) {
+            return input.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the block with a code.
+     * @param code - a block code (see BlockStacks)
+     * @return - the shared block of that type (see BlockRegistry)
+     * @throws WorldMapFormatException - if code is not a block code
+     */
+    private static Block blockFromCode(int code)
+            throws WorldMapFormatException {
+        if (code > BlockStacks.STONE) {
+            throw new WorldMapFormatException();
+        }
+        return BlockRegistry.forCode(code);
+    }
+
+    /**
+     * Read a count of items, checking it is not negative and that the
+     * items could fit in the file, so that a corrupt count cannot cause a
+     * huge allocation.
+     */
+    private static int readCount(MappedFileReader input, int bytesPerItem)
+            throws IOException, WorldMapFormatException {
+        int count = input.readInt();
+        if (count < 0 || (long) count * bytesPerItem > input.size()) {
+            throw new WorldMapFormatException();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,41 @@
+package csse2002.block.world;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Converts block world maps between the text format (see
+ * WorldMap(filename)) and the binary format (see WorldMap.loadBinary()).
+ */
+public class WorldMapConverter {
+    /**
+     * The entry point of the converter.
+     * Takes 2 parameters, an input map file (args[0]) and an output map
+     * file (args[1]). If the input is a binary map it is written out as
+     * text, otherwise it is read as text and written out as binary.
+     * @param args - the input arguments to the program
+     */
+    public static void main(java.lang.String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: program inputMap outputMap");
+            System.exit(1);
+        }
+        Path input = Paths.get(args[0]);
+        Path output = Paths.get(args[1]);
+
+        try {
+            if (WorldMapBinaryFormat.isBinary(input)) {
+                WorldMap.loadBinary(input).saveMap(args[1]);
+            } else {
+                new WorldMap(args[0]).saveBinary(output);
+            }
+        } catch (WorldMapFormatException | WorldMapInconsistentException e) {
+            System.err.println(e);
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(3);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package csse2002.block.world;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a block world map file one line at a time into a reused character
+ * buffer. <br>
+ * Lines are not turned into Strings; instead the current line is given by
+ * lineStart() and lineEnd(), indexes into buffer(), and can be picked apart
+ * with indexOf(), parseInt() and matches(). Lines end at "\n", "\r" or
+ * "\r\n", as for BufferedReader.readLine().
+ */
+final class WorldMapScanner {
+    /* Initial size of the buffer. It grows to fit the longest line */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /* Where characters are read from */
+    private final Reader reader;
+
+    /* Characters read but not yet consumed are buffer[position, limit) */
+    private char[] buffer = new char[BUFFER_SIZE];
+
+    /* The first character that has not been consumed */
+    private int position;
+
+    /* One past the last character read into the buffer */
+    private int limit;
+
+    /* True once the reader has no more characters */
+    private boolean endOfInput;
+
+    /* True if the last line ended with "\r", so a following "\n" is part of
+     * the same line ending */
+    private boolean skipLineFeed;
+
+    /* Bounds of the current line in buffer */
+    private int lineStart;
+    private int lineEnd;
+
+    /**
+     * Create a scanner reading from the given reader.
+     * @param reader - the reader to read the map from
+     */
+    WorldMapScanner(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Move to the next line.
+     * @return - true if there was another line, false at the end of input
+     * @throws IOException - if the reader fails
+     */
+    boolean nextLine() throws IOException {
+        if (this.skipLineFeed) {
+            if (this.position == this.limit) {
+                fill();
+            }
+            if (this.position < this.limit
+                    && this.buffer[this.position] == '\n') {
+                this.position++;
+            }
+            this.skipLineFeed = false;
+        }
+        int scan = this.position;
+        while (true) {
+            while (scan < this.limit) {
+                char next = this.buffer[scan];
+                if (next == '\n' || next == '\r') {
+                    this.lineStart = this.position;
+                    this.lineEnd = scan;
+                    this.position = scan + 1;
+                    this.skipLineFeed = next == '\r';
+                    return true;
+                }
+                scan++;
+            }
+            if (this.endOfInput) {
+                if (this.position == this.limit) {
+                    return false;
+                }
+                this.lineStart = this.position;
+                this.lineEnd = this.limit;
+                this.position = this.limit;
+                return true;
+            }
+            scan -= this.position;
+            fill();
+            scan += this.position;
+        }
+    }
+
+    /**
+     * Move to the next line, treating the end of input as a format error.
+     * @throws WorldMapFormatException - if there are no more lines
+     * @throws IOException - if the reader fails
+     */
+    void requireLine() throws WorldMapFormatException, IOException {
+        if (!nextLine()) {
+            throw new WorldMapFormatException();
+        }
+    }
+
+    /**
+     * Get the buffer holding the current line.
+     * @return - the buffer; only valid until the next call to nextLine()
+     */
+    char[] buffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Get the index in buffer() of the first character of the current line.
+     * @return - the start of the line
+     */
+    int lineStart() {
+        return this.lineStart;
+    }
+
+    /**
+     * Get the index in buffer() one past the last character of the current
+     * line, not including the line ending.
+     * @return - the end of the line
+     */
+    int lineEnd() {
+        return this.lineEnd;
+    }
+
+    /**
+     * Check if the current line is empty.
+     * @return - true if the line has no characters
+     */
+    boolean lineIsEmpty() {
+        return this.lineStart == this.lineEnd;
+    }
+
+    /**
+     * Copy the current line into a String.
+     * @return - the current line
+     */
+    String lineString() {
+        return new String(this.buffer, this.lineStart,
+                this.lineEnd - this.lineStart);
+    }
+
+    /**
+     * Find a character in buffer()[from, to).
+     * @param c - the character to find
+     * @param from - the first index to look at
+     * @param to - one past the last index to look at
+     * @return - the index of the first c, or to if there is none
+     */
+    int indexOf(char c, int from, int to) {
+        while (from < to && this.buffer[from] != c) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Check if every character in buffer()[from, to) is c.
+     * @param c - the character to check for
+     * @param from - the first index to look at
+     * @param to - one past the last index to look at
+     * @return - true if there are only c characters (or none at all)
+     */
+    boolean onlyContains(char c, int from, int to) {
+        return indexOfOther(c, from, to) == to;
+    }
+
+    /**
+     * Check if buffer()[from, to) is exactly the given word.
+     * @param from - the first index to compare
+     * @param to - one past the last index to compare
+     * @param word - the word to compare against
+     * @return - true if the characters match word
+     */
+    boolean matches(int from, int to, String word) {
+        if (to - from != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (this.buffer[from + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse buffer()[from, to) as a decimal int, accepting the same
+     * strings as Integer.parseInt(), including digits other than ASCII
+     * ones.
+     * @param from - the first index of the number
+     * @param to - one past the last index of the number
+     * @return - the number
+     * @throws WorldMapFormatException - if the characters are not an int
+     */
+    int parseInt(int from, int to) throws WorldMapFormatException {
+        if (from == to) {
+            throw new WorldMapFormatException();
+        }
+        boolean negative = false;
+        char first = this.buffer[from];
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            from++;
+            if (from == to) {
+                throw new WorldMapFormatException();
+            }
+        }
+        // accumulate negatively, since |MIN_VALUE| > MAX_VALUE
+        int bound = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int result = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(this.buffer[i], 10);
+            if (digit < 0 || result < bound / 10) {
+                throw new WorldMapFormatException();
+            }
+            result *= 10;
+            if (result < bound + digit) {
+                throw new WorldMapFormatException();
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Find the first character in buffer()[from, to) that is not c.
+     */
+    private int indexOfOther(char c, int from, int to) {
+        while (from < to && this.buffer[from] == c) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Read more characters, moving the unconsumed ones to the front of the
+     * buffer and growing it if it is full.
+     */
+    private void fill() throws IOException {
+        if (this.position > 0) {
+            System.arraycopy(this.buffer, this.position, this.buffer, 0,
+                    this.limit - this.position);
+            this.limit -= this.position;
+            this.position = 0;
+        }
+        if (this.limit == this.buffer.length) {
+            char[] larger = new char[this.buffer.length * 2];
+            System.arraycopy(this.buffer, 0, larger, 0, this.limit);
+            this.buffer = larger;
+        }
+        int read = this.reader.read(this.buffer, this.limit,
+                this.buffer.length - this.limit);
+        if (read == -1) {
+            this.endOfInput = true;
+        } else {
+            this.limit += read;
+        }
+    }
+}
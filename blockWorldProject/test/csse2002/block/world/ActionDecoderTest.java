@@ -0,0 +1,224 @@
+package csse2002.block.world;
+
+import static csse2002.block.world.Fixtures.newTiles;
+import static csse2002.block.world.Fixtures.state;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class ActionDecoderTest {
+    /* Lines that readLine() and split(" ") treat in less obvious ways */
+    private static final String[] LINES = {
+        "DIG", "DIG ", " DIG", "  DIG", "DIG  ", "", " ", "  ",
+        "MOVE_BUILDER north", " MOVE_BUILDER north", "MOVE_BUILDER  north",
+        "MOVE_BUILDER north ", "MOVE_BUILDER north  ", "MOVE_BUILDER",
+        "MOVE_BUILDER north extra", "MOVE_BUILDER up", "MOVE_BUILDER North",
+        "MOVE_BLOCK west", "MOVE_BLOCK  west", "DROP 0", "DROP  0",
+        " DROP 0", "DROP 0 ", "DROP -1", "DROP +1", "DROP 007",
+        "DROP 99999999999", "DROP x", "DROP", "MOVE_TO 1,1", "MOVE_TO  1,1",
+        "MOVE_TO", "dig", "DIGG", "\t DIG"
+    };
+
+    /* Line separators readLine() accepts */
+    private static final String[] SEPARATORS = {"\n", "\r\n", "\r"};
+
+    /* Verbs and operands for random action files */
+    private static final String[] VERBS = {
+        "MOVE_BUILDER", "MOVE_BLOCK", "DIG", "DROP", "MOVE_TO"
+    };
+    private static final String[] OPERANDS = {
+        "north", "east", "south", "west", "up", "0", "1", "2", "-1", "+1",
+        "007", "99999999999", "x", "1,1", "0,0", "5,5"
+    };
+
+    /**
+     * Tests that each line, on its own, is accepted or rejected as
+     * loadAction() would, and decodes to the same action.
+     */
+    @Test
+    public void singleLineParityTest() {
+        for (String line : LINES) {
+            for (String separator : SEPARATORS) {
+                assertEquals(line, loaded(line + separator),
+                        decoded(line + separator));
+            }
+            assertEquals(line, loaded(line), decoded(line));
+        }
+    }
+
+    /**
+     * Tests that a file of many lines, including empty lines and mixed
+     * separators, decodes to the same actions as loadAction() gives, up to
+     * the first invalid line.
+     */
+    @Test
+    public void multiLineParityTest() {
+        Random random = new Random(1);
+        for (int file = 0; file < 500; file++) {
+            StringBuilder text = new StringBuilder();
+            int lines = 1 + random.nextInt(20);
+            for (int i = 0; i < lines; i++) {
+                text.append(random.nextInt(4) == 0 ? ""
+                        : LINES[random.nextInt(LINES.length)]);
+                if (i < lines - 1 || random.nextBoolean()) {
+                    text.append(SEPARATORS[random.nextInt(3)]);
+                }
+            }
+            assertEquals(text.toString(), loaded(text.toString()),
+                    decoded(text.toString()));
+        }
+    }
+
+    /**
+     * Tests that processActions(), which performs most actions straight
+     * from the decoder, prints the same results and leaves the map in the
+     * same state as loading and processing each action in turn.
+     */
+    @Test
+    public void processActionsParityTest() throws Exception {
+        Random random = new Random(2);
+        for (int file = 0; file < 300; file++) {
+            StringBuilder text = new StringBuilder();
+            int lines = 1 + random.nextInt(40);
+            for (int i = 0; i < lines; i++) {
+                String verb = VERBS[random.nextInt(VERBS.length)];
+                text.append(verb);
+                if (!verb.equals("DIG") || random.nextInt(4) == 0) {
+                    text.append(random.nextInt(50) == 0 ? "  " : " ")
+                            .append(OPERANDS[random.nextInt(
+                                    OPERANDS.length)]);
+                }
+                text.append(SEPARATORS[random.nextInt(3)]);
+            }
+
+            WorldMap decodedMap = newMap();
+            String decodedOutput = captureOutput(() ->
+                    Action.processActions(reader(text.toString()),
+                            decodedMap));
+            WorldMap loadedMap = newMap();
+            String loadedOutput = captureOutput(() -> {
+                BufferedReader reader = reader(text.toString());
+                Action action;
+                while ((action = Action.loadAction(reader)) != null) {
+                    Action.processAction(action, loadedMap);
+                }
+            });
+            assertEquals(text.toString(), loadedOutput, decodedOutput);
+            assertEquals(text.toString(), state(loadedMap),
+                    state(decodedMap));
+        }
+    }
+
+    /* Code run with System.out captured */
+    private interface Printing {
+        void run() throws Exception;
+    }
+
+    /**
+     * Run code, returning what it printed, followed by the exception it
+     * threw, if any.
+     */
+    private static String captureOutput(Printing printing) {
+        PrintStream original = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true));
+        String thrown = "";
+        try {
+            printing.run();
+        } catch (Exception e) {
+            thrown = e.getClass().getSimpleName();
+        } finally {
+            System.setOut(original);
+        }
+        return output + thrown;
+    }
+
+    /**
+     * The actions loadAction() reads from text, described as for
+     * describe(), ending with "END" or "invalid".
+     */
+    private static List<String> loaded(String text) {
+        BufferedReader reader = reader(text);
+        List<String> actions = new ArrayList<>();
+        try {
+            Action action;
+            while ((action = Action.loadAction(reader)) != null) {
+                actions.add(describe(action.getPrimaryAction(),
+                        action.getSecondaryAction()));
+            }
+            actions.add("END");
+        } catch (ActionFormatException e) {
+            actions.add("invalid");
+        }
+        return actions;
+    }
+
+    /**
+     * The actions an ActionDecoder reads from text, described as for
+     * loaded().
+     */
+    private static List<String> decoded(String text) {
+        ActionDecoder decoder = new ActionDecoder(reader(text), () -> { });
+        List<String> actions = new ArrayList<>();
+        try {
+            while (true) {
+                int result = decoder.next();
+                if (result == ActionDecoder.END) {
+                    break;
+                } else if (result == ActionDecoder.GENERAL) {
+                    actions.add(describe(decoder.action().getPrimaryAction(),
+                            decoder.action().getSecondaryAction()));
+                } else if (decoder.opcode() == Action.DIG) {
+                    actions.add(describe(Action.DIG, ""));
+                } else if (decoder.opcode() == Action.DROP) {
+                    actions.add(describe(Action.DROP,
+                            Integer.toString(decoder.operand())));
+                } else {
+                    actions.add(describe(decoder.opcode(),
+                            Direction.values()[decoder.operand()]
+                                    .getName()));
+                }
+            }
+            actions.add("END");
+        } catch (ActionFormatException e) {
+            actions.add("invalid");
+        }
+        return actions;
+    }
+
+    /**
+     * Describe an action, writing a DROP index that is a plain integer the
+     * way the decoder keeps it.
+     */
+    private static String describe(int primary, String secondary) {
+        if (primary == Action.DROP) {
+            try {
+                secondary = Integer.toString(Integer.parseInt(secondary));
+            } catch (NumberFormatException e) {
+                // reported as an invalid action when performed
+            }
+        }
+        return primary + " " + secondary;
+    }
+
+    private static BufferedReader reader(String text) {
+        return new BufferedReader(new StringReader(text));
+    }
+
+    /**
+     * The map of Fixtures.newMap(), with an extra "up" exit that has no
+     * direction.
+     */
+    private static WorldMap newMap() throws Exception {
+        Tile[] tiles = newTiles();
+        tiles[0].addExit("up", tiles[3]);
+        return Fixtures.newMap(tiles);
+    }
+}
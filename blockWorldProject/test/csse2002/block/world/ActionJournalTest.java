@@ -0,0 +1,139 @@
+package csse2002.block.world;
+
+import static csse2002.block.world.Fixtures.actions;
+import static csse2002.block.world.Fixtures.newMap;
+import static csse2002.block.world.Fixtures.perform;
+import static csse2002.block.world.Fixtures.state;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ActionJournalTest {
+    private Path directory;
+    private Path snapshot;
+    private Path journal;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal");
+        snapshot = directory.resolve("map.txt");
+        journal = directory.resolve("map.journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Tests that the saved map and the journal recover the live map, when
+     * each action is forced as it is performed.
+     */
+    @Test
+    public void recoverSyncEachTest() throws Exception {
+        WorldMap map = newMap();
+        map.saveMap(snapshot.toString());
+        map.startJournal(journal, 0);
+        perform(map, actions(1, 300));
+        // forced already, so this is what a crash would leave
+        assertEquals(state(map), state(WorldMap.recover(snapshot, journal)));
+        map.stopJournal();
+        assertEquals(state(map), state(WorldMap.recover(snapshot, journal)));
+    }
+
+    /**
+     * Tests that the saved map and the journal recover the live map, when
+     * actions are forced together in the background.
+     */
+    @Test
+    public void recoverGroupSyncTest() throws Exception {
+        WorldMap map = newMap();
+        map.saveMap(snapshot.toString());
+        map.startJournal(journal, 10);
+        perform(map, actions(2, 300));
+        // the syncer has forced everything well within this time
+        Thread.sleep(500);
+        assertEquals(state(map), state(WorldMap.recover(snapshot, journal)));
+        perform(map, actions(3, 100));
+        map.stopJournal();
+        assertEquals(state(map), state(WorldMap.recover(snapshot, journal)));
+    }
+
+    /**
+     * Tests that a record cut short at the end of the journal is ignored
+     * by recovery, and dropped when the journal is opened again.
+     */
+    @Test
+    public void tornTailTest() throws Exception {
+        WorldMap map = newMap();
+        map.saveMap(snapshot.toString());
+        map.startJournal(journal, 0);
+        perform(map, actions(4, 100));
+        map.stopJournal();
+        long length = Files.size(journal);
+
+        // half of a DECODED record
+        Files.write(journal, new byte[] {ActionJournal.DECODED, 2, 0},
+                StandardOpenOption.APPEND);
+        assertEquals(state(map), state(WorldMap.recover(snapshot, journal)));
+
+        new ActionJournal(journal, 0).close();
+        assertEquals(length, Files.size(journal));
+
+        map.startJournal(journal, 0);
+        perform(map, actions(5, 50));
+        map.stopJournal();
+        assertEquals(state(map), state(WorldMap.recover(snapshot, journal)));
+    }
+
+    /**
+     * Tests that once a write fails, later actions are refused rather than
+     * performed without being recorded, so the journal has no gap.
+     */
+    @Test
+    public void failedWriteRefusesTest() throws Exception {
+        WorldMap map = newMap();
+        map.saveMap(snapshot.toString());
+        map.startJournal(journal, 0);
+        Action dig = new Action(Action.DIG, "");
+        Action.processAction(dig, map, ActionResultSink.DISCARD);
+        String recorded = state(map);
+
+        Field channel = ActionJournal.class.getDeclaredField("channel");
+        channel.setAccessible(true);
+        ((FileChannel) channel.get(map.journal)).close();
+        // recorded in the buffer, but cannot be forced
+        Action.processAction(dig, map, ActionResultSink.DISCARD);
+        String lost = state(map);
+
+        try {
+            Action.processAction(dig, map, ActionResultSink.DISCARD);
+            fail("append after a failed write was not refused");
+        } catch (UncheckedIOException expected) {
+            // the action was not performed
+        }
+        assertEquals(lost, state(map));
+        try {
+            map.stopJournal();
+            fail("failure not reported on close");
+        } catch (IOException expected) {
+            // the first failure
+        }
+        assertEquals(recorded, state(WorldMap.recover(snapshot, journal)));
+    }
+}
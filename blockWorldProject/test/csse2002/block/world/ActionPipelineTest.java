@@ -0,0 +1,135 @@
+package csse2002.block.world;
+
+import static csse2002.block.world.Fixtures.actions;
+import static csse2002.block.world.Fixtures.newMap;
+import static csse2002.block.world.Fixtures.state;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class ActionPipelineTest {
+    /* A way of performing a file of actions on a map */
+    private interface Processor {
+        void process(BufferedReader reader, WorldMap map,
+                ActionResultSink sink) throws Exception;
+    }
+
+    /**
+     * Tests that short files of random actions, including MOVE_TO and
+     * other lines performed by processAction(), give the same results and
+     * final map on both paths.
+     */
+    @Test
+    public void shortFilesTest() throws Exception {
+        for (int seed = 0; seed < 200; seed++) {
+            assertParity(actions(seed, 1 + seed % 50));
+        }
+    }
+
+    /**
+     * Tests that a file of several batches of actions gives the same
+     * results and final map on both paths.
+     */
+    @Test
+    public void longFileTest() throws Exception {
+        assertParity(actions(1, 5000));
+    }
+
+    /**
+     * Tests that an invalid line in the middle of a file stops both paths
+     * after the same actions, with their results passed on first.
+     */
+    @Test
+    public void invalidLineTest() throws Exception {
+        String text = actions(2, 1500) + "NOT_AN_ACTION north\n"
+                + actions(3, 500);
+        List<String> results = assertParity(text);
+        assertEquals("ActionFormatException",
+                results.get(results.size() - 1));
+        assertEquals(process(actions(2, 1500), Action::processActions),
+                results.subList(0, results.size() - 1));
+    }
+
+    /**
+     * Tests that when an action throws part way through a long file (here
+     * a journal refusing it, once its buffer cannot be written), both paths
+     * pass on the results of the actions before it, then throw.
+     */
+    @Test
+    public void failedActionTest() throws Exception {
+        String text = actions(4, 15000);
+        List<List<String>> results = new ArrayList<>();
+        Path directory = Files.createTempDirectory("pipeline");
+        try {
+            for (Processor processor : new Processor[] {
+                    Action::processActions,
+                    Action::processActionsPipelined}) {
+                Path journal = directory.resolve("map.journal");
+                results.add(process(text, (reader, map, sink) -> {
+                    // the records fill the buffer before it is written out
+                    map.startJournal(journal, 60000);
+                    Field channel = ActionJournal.class.getDeclaredField(
+                            "channel");
+                    channel.setAccessible(true);
+                    ((FileChannel) channel.get(map.journal)).close();
+                    try {
+                        processor.process(reader, map, sink);
+                    } finally {
+                        map.journal = null;
+                        Files.delete(journal);
+                    }
+                }));
+            }
+        } finally {
+            Files.delete(directory);
+        }
+        assertEquals(results.get(0), results.get(1));
+        List<String> pipelined = results.get(1);
+        assertEquals("UncheckedIOException",
+                pipelined.get(pipelined.size() - 1));
+        assertTrue(pipelined.size() > 5000);
+    }
+
+    /**
+     * Process text on a new map on both paths, and check that the results,
+     * the exception thrown, if any, and the final map are the same.
+     * @return - the results, followed by the state of the map and the
+     *           simple name of the exception thrown, if any
+     */
+    private static List<String> assertParity(String text) throws Exception {
+        List<String> sequential = process(text, Action::processActions);
+        List<String> pipelined = process(text,
+                Action::processActionsPipelined);
+        assertEquals(sequential, pipelined);
+        return pipelined;
+    }
+
+    /**
+     * Process text on a new map, returning each result with its detail,
+     * then the state of the map, then the simple name of the exception
+     * thrown, if any.
+     */
+    private static List<String> process(String text, Processor processor)
+            throws Exception {
+        WorldMap map = newMap();
+        List<String> results = new ArrayList<>();
+        try {
+            processor.process(new BufferedReader(new StringReader(text)),
+                    map, (result, detail) -> results.add(result + " "
+                            + detail));
+            results.add(state(map));
+        } catch (Exception e) {
+            results.add(state(map));
+            results.add(e.getClass().getSimpleName());
+        }
+        return results;
+    }
+}
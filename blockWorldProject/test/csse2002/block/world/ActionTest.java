@@ -5,6 +5,9 @@ import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -332,4 +335,110 @@ public class ActionTest {
                 map);
         assertEquals(expectedOutput, outContent.toString());
     }
+
+    /**
+     * Tests that MOVE_TO walks the builder along a route to a position,
+     * and does not move it when there is no tile or no route there.
+     */
+    @Test
+    public void testingMoveTo() throws NoExitException,
+            WorldMapInconsistentException, ActionFormatException,
+            TooHighException, InvalidBlockException {
+        secondSetup();
+        Builder builder = new Builder("Tim", tile1);
+        WorldMap map = new WorldMap(tile1, new Position(0, 0), builder);
+        String actions = "MOVE_TO 0,-1" + newLine
+                + "MOVE_TO 0,0" + newLine
+                + "MOVE_TO 5,5" + newLine
+                + "MOVE_TO north" + newLine;
+        Action.processActions(new BufferedReader(new StringReader(actions)),
+                map);
+        assertEquals("Moved builder to 0,-1" + newLine
+                + "Moved builder to 0,0" + newLine
+                + "No exit this way" + newLine
+                + "Error: Invalid action" + newLine, outContent.toString());
+        assertEquals(tile1, builder.getCurrentTile());
+        assertEquals(2, builder.findPath(tile6).size());
+
+        // tile6 is now too high to enter from tile2
+        tile6.placeBlock(new WoodBlock());
+        tile6.placeBlock(new WoodBlock());
+        assertNull(builder.findPath(tile6));
+        assertEquals(1, builder.findPath(tile2).size());
+    }
+
+    /**
+     * Tests that lines are split as BufferedReader.readLine() and
+     * String.split(" ") would split them.
+     */
+    @Test
+    public void testingLineEndings() throws NoExitException,
+            WorldMapInconsistentException, ActionFormatException {
+        secondSetup();
+        Builder builder = new Builder("Tim", tile1);
+        WorldMap map = new WorldMap(tile1, new Position(0, 0), builder);
+        String actions = "DIG \r\nDIG 1\rDROP +99\nMOVE_BUILDER up";
+        Action.processActions(new BufferedReader(new StringReader(actions)),
+                map);
+        assertEquals("Top block on current tile removed" + newLine
+                + "Top block on current tile removed" + newLine
+                + "Cannot use that block" + newLine
+                + "Error: Invalid action" + newLine
+                + "No exit this way" + newLine, outContent.toString());
+    }
+
+    /**
+     * Tests that the buffered and counting sinks see the same results that
+     * processActions() prints.
+     */
+    @Test
+    public void testingResultSinks() throws NoExitException,
+            WorldMapInconsistentException, ActionFormatException {
+        secondSetup();
+        WorldMap map = new WorldMap(tile1, new Position(0, 0),
+                new Builder("Tim", tile1));
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        CountingResultSink counts = new CountingResultSink();
+        Action.processActions(new BufferedReader(new StringReader(
+                inputString3)), map, new TextResultSink(text));
+        Action.processActions(new BufferedReader(new StringReader(
+                inputString3)), map, counts);
+
+        assertEquals("Moved builder north" + newLine
+                + "Top block on current tile removed" + newLine
+                + "Moved builder east" + newLine
+                + "Top block on current tile removed" + newLine,
+                text.toString());
+        assertEquals(4, counts.getTotal());
+        assertEquals(2, counts.getCount(ActionResult.NO_EXIT));
+        assertEquals("", outContent.toString());
+    }
+
+    /**
+     * Tests that an atomic batch is undone if an action in it fails, and
+     * kept if every action succeeds.
+     */
+    @Test
+    public void testingAtomicBatch() throws NoExitException,
+            WorldMapInconsistentException {
+        secondSetup();
+        Builder builder = new Builder("Tim", tile1);
+        WorldMap map = new WorldMap(tile1, new Position(0, 0), builder);
+        List<Action> actions = new ArrayList<>(Arrays.asList(
+                new Action(Action.MOVE_BUILDER, "north"),
+                new Action(Action.DIG, ""),
+                new Action(Action.DIG, ""),
+                new Action(Action.MOVE_BUILDER, "west")));
+
+        assertFalse(Action.processBatch(actions, map, true));
+        assertSame(tile1, builder.getCurrentTile());
+        assertEquals(3, tile2.getBlocks().size());
+        assertEquals(0, builder.getInventory().size());
+
+        actions.remove(3);
+        assertTrue(Action.processBatch(actions, map, true));
+        assertSame(tile2, builder.getCurrentTile());
+        assertEquals(1, tile2.getBlocks().size());
+        assertEquals(1, builder.getInventory().size());
+    }
 }
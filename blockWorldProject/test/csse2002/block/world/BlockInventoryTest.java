@@ -0,0 +1,151 @@
+package csse2002.block.world;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class BlockInventoryTest {
+    /* The block types, with one of each to copy */
+    private static final Block[] BLOCKS = {
+        new SoilBlock(), new GrassBlock(), new WoodBlock(), new StoneBlock()
+    };
+
+    /**
+     * Tests that random adds, removes and inserts keep the inventory the
+     * same as a plain list, as it grows to a few thousand blocks and
+     * shrinks again, through many compactions and logs of sizes that are
+     * not powers of two.
+     */
+    @Test
+    public void matchesListTest() {
+        Random random = new Random(1);
+        BlockInventory inventory = new BlockInventory();
+        List<Block> expected = new ArrayList<>();
+        for (int step = 0; step < 40000; step++) {
+            // grow for the first half of each round, then shrink
+            boolean growing = step % 10000 < 5000;
+            int choice = random.nextInt(10);
+            if (expected.isEmpty() || choice < (growing ? 5 : 2)) {
+                Block block = BLOCKS[random.nextInt(BLOCKS.length)];
+                inventory.add(block);
+                expected.add(block);
+            } else if (choice < 8) {
+                int index = random.nextInt(expected.size());
+                assertSame(expected.remove(index), inventory.remove(index));
+            } else {
+                int index = random.nextInt(expected.size() + 1);
+                Block block = BLOCKS[random.nextInt(BLOCKS.length)];
+                inventory.insert(index, block);
+                expected.add(index, block);
+            }
+            if (step % 97 == 0 || expected.size() < 20) {
+                assertMatches(expected, inventory);
+            }
+        }
+        assertMatches(expected, inventory);
+    }
+
+    /**
+     * Tests that inserting a block back at the index it was removed from,
+     * as undoing a drop does, restores the inventory, including after
+     * removals that compacted the log.
+     */
+    @Test
+    public void removeInsertTest() {
+        Random random = new Random(2);
+        BlockInventory inventory = new BlockInventory();
+        List<Block> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Block block = BLOCKS[random.nextInt(BLOCKS.length)];
+            inventory.add(block);
+            expected.add(block);
+        }
+
+        int[] indexes = new int[700];
+        Block[] removed = new Block[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = random.nextInt(inventory.size());
+            removed[i] = inventory.remove(indexes[i]);
+        }
+        for (int i = indexes.length - 1; i >= 0; i--) {
+            inventory.insert(indexes[i], removed[i]);
+        }
+        assertMatches(expected, inventory);
+    }
+
+    /**
+     * Tests that a builder with a large inventory, dropping blocks from
+     * random indexes and digging them back onto the end, has the inventory
+     * and counts of a plain list, and that undoing the drops and digs
+     * restores the inventory it started with.
+     */
+    @Test
+    public void builderDropDigTest() throws Exception {
+        Random random = new Random(3);
+        List<Block> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            expected.add(random.nextBoolean() ? new WoodBlock()
+                    : new SoilBlock());
+        }
+        // an empty tile, so ground blocks can be dropped on it
+        Tile tile = new Tile(new ArrayList<>());
+        Builder builder = new Builder("Bob", tile, expected);
+        WorldMap map = new WorldMap(tile, new Position(0, 0), builder);
+        List<Block> start = new ArrayList<>(expected);
+        map.startUndoLog(4000);
+
+        for (int step = 0; step < 2000; step++) {
+            int index = random.nextInt(expected.size());
+            Action.processAction(new Action(Action.DROP,
+                    Integer.toString(index)), map, ActionResultSink.DISCARD);
+            Block dropped = expected.remove(index);
+            Action.processAction(new Action(Action.DIG, ""), map,
+                    ActionResultSink.DISCARD);
+            Block dug = builder.getInventory().get(expected.size());
+            assertEquals(dropped.getBlockType(), dug.getBlockType());
+            expected.add(dug);
+            assertEquals(expected, builder.getInventory());
+            assertEquals(0, tile.getBlocks().size());
+        }
+        for (String type : new String[] {"wood", "soil", "grass"}) {
+            assertEquals(type, count(expected, type),
+                    builder.countInventory(type));
+        }
+
+        assertEquals(4000, map.undo(4000));
+        assertEquals(start, builder.getInventory());
+    }
+
+    /**
+     * Check an inventory's blocks, through get() and view(), and its
+     * counts of each type against a list.
+     */
+    private static void assertMatches(List<Block> expected,
+            BlockInventory inventory) {
+        assertEquals(expected.size(), inventory.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), inventory.get(i));
+        }
+        assertEquals(expected, inventory.view());
+        for (Block block : BLOCKS) {
+            String type = block.getBlockType();
+            assertEquals(type, count(expected, type), inventory.count(type));
+        }
+    }
+
+    /**
+     * The number of blocks of a type in a list.
+     */
+    private static int count(List<Block> blocks, String type) {
+        int count = 0;
+        for (Block block : blocks) {
+            if (block.getBlockType().equals(type)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
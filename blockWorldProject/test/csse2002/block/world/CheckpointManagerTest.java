@@ -0,0 +1,203 @@
+package csse2002.block.world;
+
+import static csse2002.block.world.Fixtures.actions;
+import static csse2002.block.world.Fixtures.newMap;
+import static csse2002.block.world.Fixtures.perform;
+import static csse2002.block.world.Fixtures.state;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointManagerTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("checkpoints");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (String name : files()) {
+            Files.delete(directory.resolve(name));
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Tests that the directory recovers the live map after checkpoints
+     * every few actions, and holds only the latest checkpoint and journal.
+     */
+    @Test
+    public void recoverTest() throws Exception {
+        WorldMap map = newMap();
+        map.startCheckpoints(directory, 20, 0, 0);
+        perform(map, actions(1, 300));
+        map.stopCheckpoints();
+
+        List<String> files = files();
+        assertEquals(files.toString(), 2, files.size());
+        long sequence = sequence(files.get(0), "checkpoint.");
+        assertTrue(files.toString(), sequence > 1);
+        assertEquals("journal." + sequence, files.get(1));
+        assertEquals(state(map), state(WorldMap.recover(directory)));
+    }
+
+    /**
+     * Tests that recovery ignores a checkpoint left half-written, and a
+     * journal from before the latest checkpoint, whose actions it already
+     * holds.
+     */
+    @Test
+    public void leftoverFilesTest() throws Exception {
+        WorldMap map = newMap();
+        map.startCheckpoints(directory, 20, 0, 0);
+        perform(map, actions(2, 300));
+        map.stopCheckpoints();
+        long sequence = sequence(files().get(0), "checkpoint.");
+
+        Files.write(directory.resolve("checkpoint." + (sequence + 1)
+                + ".tmp"), new byte[] {1, 2, 3});
+        Files.copy(directory.resolve("journal." + sequence),
+                directory.resolve("journal." + (sequence - 1)));
+        assertEquals(state(map), state(WorldMap.recover(directory)));
+
+        // a new session clears them away once its first checkpoint is safe
+        map.startCheckpoints(directory, 20, 0, 0);
+        perform(map, actions(3, 10));
+        map.stopCheckpoints();
+        assertEquals(2, files().size());
+        assertEquals(state(map), state(WorldMap.recover(directory)));
+    }
+
+    /**
+     * Tests that a checkpoint that cannot be written leaves the older
+     * checkpoint and journals in place, so the map can still be recovered,
+     * and that the failure is reported on close.
+     */
+    @Test
+    public void failedCheckpointTest() throws Exception {
+        WorldMap map = newMap();
+        map.startCheckpoints(directory, 20, 0, 60000);
+        long sequence = sequence(files().get(0), "checkpoint.");
+        // a directory where the next checkpoint's temporary file goes
+        Path blocked = directory.resolve("checkpoint." + (sequence + 1)
+                + ".tmp");
+        Files.createDirectory(blocked);
+
+        perform(map, actions(4, 20));
+        try {
+            map.stopCheckpoints();
+            fail("failed checkpoint not reported");
+        } catch (IOException expected) {
+            // the checkpoint could not be written
+        }
+        List<String> files = files();
+        assertTrue(files.toString(), files.contains("checkpoint." + sequence));
+        assertTrue(files.toString(), files.contains("journal." + sequence));
+        assertTrue(files.toString(),
+                files.contains("journal." + (sequence + 1)));
+        assertEquals(state(map), state(WorldMap.recover(directory)));
+    }
+
+    /**
+     * Tests that a crash after the journal moves on, but before the
+     * checkpoint is written, leaves files that recover the live map, even
+     * when actions are not forced as they are performed.
+     */
+    @Test
+    public void crashBeforeWriteTest() throws Exception {
+        WorldMap map = newMap();
+        map.startCheckpoints(directory, 20, 0, 60000);
+        long sequence = sequence(files().get(0), "checkpoint.");
+        // hold up the writer, so the checkpoint is not written
+        Field writer = CheckpointManager.class.getDeclaredField("writer");
+        writer.setAccessible(true);
+        CountDownLatch release = new CountDownLatch(1);
+        ((ExecutorService) writer.get(map.checkpoints)).execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        try {
+            perform(map, actions(5, 20));
+            assertTrue(Files.exists(directory.resolve(
+                    "journal." + (sequence + 1))));
+            assertFalse(Files.exists(directory.resolve(
+                    "checkpoint." + (sequence + 1))));
+            assertEquals(state(map), state(WorldMap.recover(directory)));
+        } finally {
+            release.countDown();
+            map.stopCheckpoints();
+        }
+        assertEquals(state(map), state(WorldMap.recover(directory)));
+    }
+
+    /**
+     * Tests that a checkpoint is skipped if the journal cannot be forced to
+     * disk before moving on, and that the journal then refuses actions.
+     */
+    @Test
+    public void failedSyncTest() throws Exception {
+        WorldMap map = newMap();
+        map.startCheckpoints(directory, 20, 0, 60000);
+        long sequence = sequence(files().get(0), "checkpoint.");
+        perform(map, actions(6, 10));
+        Field channel = ActionJournal.class.getDeclaredField("channel");
+        channel.setAccessible(true);
+        ((FileChannel) channel.get(map.journal)).close();
+
+        perform(map, actions(6, 10));
+        assertEquals(files().toString(), 2, files().size());
+        assertTrue(files().contains("journal." + sequence));
+        try {
+            perform(map, "DIG\n");
+            fail("action after a failed sync was not refused");
+        } catch (UncheckedIOException expected) {
+            // the action was not performed
+        }
+        try {
+            map.stopCheckpoints();
+            fail("failed sync not reported");
+        } catch (IOException expected) {
+            // the journal could not be forced
+        }
+    }
+
+    /**
+     * The names of the files in the directory, sorted.
+     */
+    private List<String> files() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> names.add(file.getFileName().toString()));
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * The sequence number of a file named prefix followed by a number.
+     */
+    private static long sequence(String name, String prefix) {
+        assertTrue(name, name.startsWith(prefix));
+        return Long.parseLong(name.substring(prefix.length()));
+    }
+}
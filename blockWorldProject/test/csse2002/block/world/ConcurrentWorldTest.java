@@ -0,0 +1,207 @@
+package csse2002.block.world;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConcurrentWorldTest {
+    /* Times each thread repeats its step */
+    private static final int ITERATIONS = 20000;
+
+    /* Two tiles side by side, joined both ways */
+    private Tile west;
+    private Tile east;
+
+    private ConcurrentWorld world;
+    private Builder westBuilder;
+    private Builder eastBuilder;
+
+    @Before
+    public void setUp() throws NoExitException,
+            WorldMapInconsistentException {
+        west = new Tile();
+        east = new Tile();
+        west.addExit("east", east);
+        east.addExit("west", west);
+        westBuilder = new Builder("West", west);
+        eastBuilder = new Builder("East", east);
+        world = new ConcurrentWorld(new WorldMap(west, new Position(0, 0),
+                westBuilder));
+        world.addBuilder(eastBuilder);
+    }
+
+    /**
+     * Tests that placeBlock() places on the builder's current tile.
+     */
+    @Test
+    public void placeBlockTest() throws TooHighException,
+            InvalidBlockException {
+        world.placeBlock(eastBuilder, new WoodBlock());
+        assertEquals(4, east.getBlocks().size());
+        assertEquals(3, west.getBlocks().size());
+    }
+
+    /**
+     * Two builders placing, moving and digging blocks towards each other
+     * lock the same two tiles in opposite directions, which must not
+     * deadlock, and must not lose a change to either tile.
+     */
+    @Test
+    public void oppositeMoveBlockTest() throws InterruptedException {
+        AtomicInteger changes = new AtomicInteger();
+        run(mover(westBuilder, Direction.EAST, changes),
+                mover(eastBuilder, Direction.WEST, changes));
+
+        assertEquals(6 + changes.get(),
+                west.getBlocks().size() + east.getBlocks().size());
+        // no index is kept while shared, so this searches
+        assertEquals(westBuilder.findPath(east) != null,
+                westBuilder.canReach(east));
+    }
+
+    /**
+     * Two builders on the same tile each drop a block and dig it back up,
+     * which must not lose or duplicate a block.
+     */
+    @Test
+    public void digDropTest() throws Exception {
+        world.placeBlock(westBuilder, new WoodBlock());
+        Builder first = new Builder("First", west, woods(3));
+        Builder second = new Builder("Second", west, woods(3));
+        world.addBuilder(first);
+        world.addBuilder(second);
+
+        // each builder has dropped a block before it digs, so the top
+        // block is always wood
+        run(dropDigger(first), dropDigger(second));
+
+        assertEquals(4, west.getBlocks().size());
+        assertEquals("wood", west.getTopBlock().getBlockType());
+        assertEquals(3, first.getInventory().size());
+        assertEquals(3, second.getInventory().size());
+    }
+
+    /**
+     * Two builders move back and forth between the tiles while another
+     * changes the height of one of them by one, so every move must
+     * succeed.
+     */
+    @Test
+    public void moveBuilderTest() throws Exception {
+        Builder digger = new Builder("Digger", west, woods(1));
+        world.addBuilder(digger);
+
+        run(walker(westBuilder, Direction.EAST),
+                walker(eastBuilder, Direction.WEST), dropDigger(digger));
+
+        assertSame(west, westBuilder.getCurrentTile());
+        assertSame(east, eastBuilder.getCurrentTile());
+        assertEquals(3, west.getBlocks().size());
+        assertEquals(1, digger.getInventory().size());
+    }
+
+    /* One step of the work of a thread */
+    private interface Step {
+        void run() throws BlockWorldException;
+    }
+
+    /**
+     * Run each step ITERATIONS times on its own thread, all starting
+     * together, and check that none deadlocked or failed.
+     */
+    private static void run(Step... steps) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[steps.length];
+        for (int i = 0; i < steps.length; i++) {
+            Step step = steps[i];
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < ITERATIONS; j++) {
+                        step.run();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(30000);
+            assertFalse("deadlocked", thread.isAlive());
+        }
+        assertNull(failure.get());
+    }
+
+    /**
+     * A step that places a wood block on the builder's tile, moves its top
+     * block one way, and digs, ignoring changes the heights or blocks
+     * refuse. Adds one to changes for each block placed, and takes one
+     * away for each dug.
+     */
+    private Step mover(Builder builder, Direction direction,
+            AtomicInteger changes) {
+        return () -> {
+            try {
+                world.placeBlock(builder, new WoodBlock());
+                changes.incrementAndGet();
+            } catch (TooHighException e) {
+                // tile full
+            }
+            try {
+                world.moveBlock(builder, direction);
+            } catch (TooHighException | InvalidBlockException e) {
+                // the other tile is as high, or the top is grass
+            }
+            try {
+                world.dig(builder);
+                changes.decrementAndGet();
+            } catch (TooLowException e) {
+                // nothing left to dig
+            }
+        };
+    }
+
+    /**
+     * A step that drops the first block of a builder's inventory on its
+     * tile, then digs the top block.
+     */
+    private Step dropDigger(Builder builder) {
+        return () -> {
+            world.dropFromInventory(builder, 0);
+            world.dig(builder);
+        };
+    }
+
+    /**
+     * A step that moves a builder one way, then back.
+     */
+    private Step walker(Builder builder, Direction direction) {
+        Direction back = direction == Direction.EAST ? Direction.WEST
+                : Direction.EAST;
+        return () -> {
+            world.moveBuilder(builder, direction);
+            world.moveBuilder(builder, back);
+        };
+    }
+
+    /**
+     * A list of wood blocks, for an inventory.
+     */
+    private static ArrayList<Block> woods(int count) {
+        Block[] blocks = new Block[count];
+        for (int i = 0; i < count; i++) {
+            blocks[i] = new WoodBlock();
+        }
+        return new ArrayList<>(Arrays.asList(blocks));
+    }
+}
@@ -0,0 +1,145 @@
+package csse2002.block.world;
+
+import static csse2002.block.world.Fixtures.newMap;
+import static csse2002.block.world.Fixtures.perform;
+import static csse2002.block.world.Fixtures.state;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class DeltaLogTest {
+    /* One action of each kind, each changing the map it is performed on in
+     * turn: DIG carries the top block, DROP 2 drops from the middle of the
+     * inventory, and the block dropped is moved on */
+    private static final String[] ACTIONS = {
+        "DIG", "DROP 2", "MOVE_BLOCK east", "MOVE_BUILDER east"
+    };
+
+    /**
+     * Tests that undoing each kind of action restores the map as it was
+     * before, and redoing it restores the map as it was after.
+     */
+    @Test
+    public void undoRedoEachKindTest() throws Exception {
+        WorldMap map = newMap();
+        map.startUndoLog(10);
+        for (String action : ACTIONS) {
+            String before = state(map);
+            perform(map, action + "\n");
+            String after = state(map);
+            assertFalse(action, before.equals(after));
+
+            assertEquals(action, 1, map.undo(1));
+            assertEquals(action, before, state(map));
+            assertEquals(action, 1, map.redo(1));
+            assertEquals(action, after, state(map));
+        }
+    }
+
+    /**
+     * Tests that a run of actions is undone in reverse order, back to the
+     * map as it was when the log started, and redone in order.
+     */
+    @Test
+    public void undoRedoAllTest() throws Exception {
+        WorldMap map = newMap();
+        map.startUndoLog(10);
+        List<String> states = performAll(map);
+
+        assertEquals(ACTIONS.length, map.undo(10));
+        assertEquals(states.get(0), state(map));
+        assertEquals(0, map.undo(1));
+        for (int i = 1; i < states.size(); i++) {
+            assertEquals(1, map.redo(1));
+            assertEquals(states.get(i), state(map));
+        }
+        assertEquals(0, map.redo(1));
+    }
+
+    /**
+     * Tests that once the log is full, each action forgets the oldest.
+     */
+    @Test
+    public void overflowTest() throws Exception {
+        WorldMap map = newMap();
+        map.startUndoLog(2);
+        List<String> states = performAll(map);
+
+        assertEquals(2, map.undo(10));
+        assertEquals(states.get(ACTIONS.length - 2), state(map));
+        assertEquals(2, map.redo(10));
+        assertEquals(states.get(ACTIONS.length), state(map));
+    }
+
+    /**
+     * Tests that an action performed after an undo forgets the actions
+     * undone, which can no longer be redone.
+     */
+    @Test
+    public void newActionClearsRedoTest() throws Exception {
+        WorldMap map = newMap();
+        map.startUndoLog(10);
+        List<String> states = performAll(map);
+
+        assertEquals(2, map.undo(2));
+        perform(map, "DIG\n");
+        String dug = state(map);
+        assertEquals(0, map.redo(1));
+        assertEquals(dug, state(map));
+        assertEquals(1, map.undo(1));
+        assertEquals(states.get(ACTIONS.length - 2), state(map));
+    }
+
+    /**
+     * Tests that undo() and redo() are refused while a journal is started,
+     * as it cannot record the changes.
+     */
+    @Test
+    public void journalRefusesTest() throws Exception {
+        Path directory = Files.createTempDirectory("undo");
+        Path journal = directory.resolve("map.journal");
+        WorldMap map = newMap();
+        map.startUndoLog(10);
+        perform(map, "DIG\n");
+        map.startJournal(journal, 0);
+        try {
+            String dug = state(map);
+            try {
+                map.undo(1);
+                fail("undo while journalling was not refused");
+            } catch (IllegalStateException expected) {
+                // nothing undone
+            }
+            try {
+                map.redo(1);
+                fail("redo while journalling was not refused");
+            } catch (IllegalStateException expected) {
+                // nothing redone
+            }
+            assertEquals(dug, state(map));
+        } finally {
+            map.stopJournal();
+            Files.delete(journal);
+            Files.delete(directory);
+        }
+        assertEquals(1, map.undo(1));
+    }
+
+    /**
+     * Perform each of ACTIONS in turn, returning the map's state before the
+     * first and after each.
+     */
+    private static List<String> performAll(WorldMap map) throws Exception {
+        List<String> states = new ArrayList<>();
+        states.add(state(map));
+        for (String action : ACTIONS) {
+            perform(map, action + "\n");
+            states.add(state(map));
+        }
+        return states;
+    }
+}
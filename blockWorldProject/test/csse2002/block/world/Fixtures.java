@@ -0,0 +1,145 @@
+package csse2002.block.world;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Maps, builders and actions shared by the tests of actions and the
+ * changes they make.
+ */
+final class Fixtures {
+    /* Verbs and operands for random actions */
+    private static final String[] VERBS = {
+        "MOVE_BUILDER", "MOVE_BLOCK", "DIG", "DROP", "MOVE_TO"
+    };
+    private static final String[] OPERANDS = {
+        "north", "east", "south", "west", "up", "0", "1", "2", "-1", "x",
+        "1,1", "0,0"
+    };
+
+    private Fixtures() {
+    }
+
+    /**
+     * Four tiles in a 2 by 2 square, with a wood block on the first. Each
+     * pair of neighbours is joined both ways, except the bottom two, which
+     * are only joined east. Saved maps only keep exits with a direction,
+     * so there are no others.
+     */
+    static Tile[] newTiles() throws Exception {
+        Tile[] tiles = {new Tile(), new Tile(), new Tile(), new Tile()};
+        tiles[0].addExit("east", tiles[1]);
+        tiles[1].addExit("west", tiles[0]);
+        tiles[0].addExit("south", tiles[2]);
+        tiles[2].addExit("north", tiles[0]);
+        tiles[1].addExit("south", tiles[3]);
+        tiles[3].addExit("north", tiles[1]);
+        tiles[2].addExit("east", tiles[3]);
+        tiles[0].placeBlock(new WoodBlock());
+        return tiles;
+    }
+
+    /**
+     * A map of newTiles(), with a builder from newBuilder() on the first.
+     */
+    static WorldMap newMap() throws Exception {
+        return newMap(newTiles());
+    }
+
+    /**
+     * A map starting at tiles[0], with a builder from newBuilder() on it.
+     */
+    static WorldMap newMap(Tile[] tiles) throws Exception {
+        return new WorldMap(tiles[0], new Position(0, 0),
+                newBuilder(tiles[0]));
+    }
+
+    /**
+     * A builder on a tile, carrying a wood, a soil and a wood block.
+     */
+    static Builder newBuilder(Tile tile) throws InvalidBlockException {
+        return new Builder("Bob", tile, new ArrayList<>(Arrays.asList(
+                new WoodBlock(), new SoilBlock(), new WoodBlock())));
+    }
+
+    /**
+     * The blocks on each tile of a map, the builder's tile and its
+     * inventory.
+     */
+    static String state(WorldMap map) {
+        return state(map.getTiles(), map.getBuilder());
+    }
+
+    /**
+     * The blocks on each tile, the index of the builder's tile and its
+     * inventory.
+     */
+    static String state(List<Tile> tiles, Builder builder) {
+        StringBuilder state = new StringBuilder();
+        for (Tile tile : tiles) {
+            for (Block block : tile.getBlocks()) {
+                state.append(block.getBlockType()).append(',');
+            }
+            state.append(' ');
+        }
+        state.append(tiles.indexOf(builder.getCurrentTile()));
+        for (Block block : builder.getInventory()) {
+            state.append(' ').append(block.getBlockType());
+        }
+        return state.toString();
+    }
+
+    /**
+     * The start position, the builder's name, the state() of a map, and
+     * the exits of each tile, by direction and tile index.
+     */
+    static String describe(WorldMap map) {
+        StringBuilder description = new StringBuilder();
+        description.append(map.getStartPosition()).append(' ')
+                .append(map.getBuilder().getName()).append(' ')
+                .append(state(map));
+        List<Tile> tiles = map.getTiles();
+        for (Tile tile : tiles) {
+            description.append(" |");
+            for (Direction direction : Direction.values()) {
+                Tile exit = tile.getExit(direction);
+                if (exit != null) {
+                    description.append(direction.getName()).append(':')
+                            .append(tiles.indexOf(exit)).append(',');
+                }
+            }
+        }
+        return description.toString();
+    }
+
+    /**
+     * Random valid lines of actions.
+     */
+    static String actions(long seed, int lines) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            String verb = VERBS[random.nextInt(VERBS.length)];
+            text.append(verb);
+            if (!verb.equals("DIG")) {
+                text.append(' ').append(
+                        OPERANDS[random.nextInt(OPERANDS.length)]);
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Perform lines of actions on a map, discarding the results.
+     */
+    static void perform(WorldMap map, String actions)
+            throws ActionFormatException {
+        Action.processActions(new BufferedReader(new StringReader(actions)),
+                map, ActionResultSink.DISCARD);
+    }
+}
@@ -2,12 +2,16 @@ package csse2002.block.world;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class SparseTileArrayTest {
 
@@ -171,6 +175,159 @@ public class SparseTileArrayTest {
         }
     }
 
+    /**
+     * Tests the primitive coordinate lookups agree with getTile(Position)
+     */
+    @Test
+    public void primitiveLookupTest() throws WorldMapInconsistentException {
+        this.testTileArray.addLinkedTiles(startingTile, -3, 7);
+        assertEquals(startingTile, testTileArray.getTile(-3, 7));
+        assertEquals(tile5, testTileArray.getTile(-3, 5));
+        assertNull(testTileArray.getTile(7, -3));
+        long position = testTileArray.positionOf(tile4);
+        assertEquals(-4, Position.unpackX(position));
+        assertEquals(7, Position.unpackY(position));
+        assertEquals(Position.NONE, testTileArray.positionOf(new Tile()));
+    }
+
+    /**
+     * Tests that adding and removing exits after linking keeps the array
+     * the same as re-running addLinkedTiles would.
+     */
+    @Test
+    public void incrementalExitChangesTest() throws
+            WorldMapInconsistentException, NoExitException {
+        this.testTileArray.addLinkedTiles(startingTile, 2, 2);
+        Tile tile6 = new Tile();
+        tile2.addExit("east", tile6);
+        assertEquals(tile6, testTileArray.getTile(new Position(4, 2)));
+        assertEquals(7, testTileArray.getTiles().size());
+        assertEquals(tile6, testTileArray.getTiles().get(6));
+
+        startingTile.removeExit("north");
+        assertNull(testTileArray.getTile(new Position(2, 1)));
+        assertNull(testTileArray.getTile(new Position(2, 0)));
+        assertEquals(5, testTileArray.getTiles().size());
+    }
+
+    /**
+     * Tests that unlinking a tile removes the exits to it, and the tiles
+     * only reachable through it, so the map can still be saved and loaded
+     * in both formats.
+     */
+    @Test
+    public void unlinkSaveReloadTest() throws WorldMapInconsistentException,
+            WorldMapFormatException, IOException {
+        WorldMap map = new WorldMap(startingTile, new Position(2, 2),
+                new Builder("Bob", startingTile));
+        map.sparseTile.unlinkTile(tile1);
+        assertNull(startingTile.getExits().get("north"));
+        assertNull(map.getTile(new Position(2, 1)));
+        assertNull(map.getTile(new Position(2, 0)));
+        assertEquals(4, map.getTiles().size());
+
+        Path text = Files.createTempFile("unlinked", ".txt");
+        Path binary = Files.createTempFile("unlinked", ".bin");
+        try {
+            map.saveMap(text.toString());
+            WorldMapBinaryFormat.write(map, binary);
+            assertEquals(4, new WorldMap(text.toString()).getTiles().size());
+            WorldMap loaded = WorldMapBinaryFormat.read(binary);
+            assertEquals(4, loaded.getTiles().size());
+            assertNull(loaded.getTile(new Position(2, 1)));
+        } finally {
+            Files.deleteIfExists(text);
+            Files.deleteIfExists(binary);
+        }
+    }
+
+    /* An exit that would put a tile in two places is refused*/
+    @Test
+    public void inconsistentExitRefusedTest() throws
+            WorldMapInconsistentException, NoExitException {
+        this.testTileArray.addLinkedTiles(startingTile, 2, 2);
+        inconsistentException.expect(NoExitException.class);
+        try {
+            tile2.addExit("east", tile4);
+        } finally {
+            assertNull(tile2.getExits().get("east"));
+            assertEquals(tile4, testTileArray.getTile(new Position(1, 2)));
+        }
+    }
+
+    /**
+     * Tests parallel indexing gives the same order as sequential indexing,
+     * and still finds inconsistencies.
+     */
+    @Test
+    public void parallelIndexingTest() throws WorldMapInconsistentException,
+            NoExitException {
+        tile1.addExit("south", startingTile);
+        this.testTileArray.addLinkedTiles(startingTile, 2, 2);
+        SparseTileArray parallelArray = new SparseTileArray();
+        parallelArray.setIndexingPool(new ForkJoinPool(2));
+        parallelArray.addLinkedTiles(startingTile, 2, 2);
+        assertEquals(testTileArray.getTiles(), parallelArray.getTiles());
+        assertEquals(tile5, parallelArray.getTile(new Position(2, 0)));
+
+        Tile looped = new Tile();
+        Tile loopedBack = new Tile();
+        looped.addExit("north", loopedBack);
+        loopedBack.addExit("north", looped);
+        inconsistentException.expect(WorldMapInconsistentException.class);
+        parallelArray.addLinkedTiles(looped, 2, 2);
+    }
+
+    /**
+     * Tests rectangle queries, including ones crossing chunk boundaries at
+     * negative coordinates.
+     */
+    @Test
+    public void tilesInRegionTest() throws WorldMapInconsistentException {
+        this.testTileArray.addLinkedTiles(startingTile, 0, 0);
+        List<Tile> region = testTileArray.getTilesInRegion(
+                new Position(-1, -2), new Position(0, 0));
+        assertEquals(4, region.size());
+        assertTrue(region.contains(startingTile));
+        assertTrue(region.contains(tile1));
+        assertTrue(region.contains(tile4));
+        assertTrue(region.contains(tile5));
+
+        assertEquals(6, testTileArray.getTilesInRegion(new Position(-1000,
+                -1000), new Position(1000, 1000)).size());
+        assertTrue(testTileArray.getTilesInRegion(new Position(1, 1),
+                new Position(0, 0)).isEmpty());
+    }
+
+    /**
+     * Tests that canReach() follows exits added after the first call, and
+     * heights that change after it.
+     */
+    @Test
+    public void canReachTest() throws WorldMapInconsistentException,
+            NoExitException, TooHighException, InvalidBlockException,
+            TooLowException {
+        this.testTileArray.addLinkedTiles(startingTile, 0, 0);
+        assertTrue(testTileArray.canReach(startingTile, tile5));
+        assertFalse(testTileArray.canReach(tile1, startingTile));
+
+        tile1.addExit("south", startingTile);
+        assertTrue(testTileArray.canReach(tile1, startingTile));
+
+        // startingTile goes from 4 blocks (soil, soil, grass, stone) to 6,
+        // while tile1 has 3, so the difference becomes 3: more than the 1 a
+        // builder can climb or drop, so the exit can't be walked either way
+        startingTile.placeBlock(new WoodBlock());
+        startingTile.placeBlock(new WoodBlock());
+        assertFalse(testTileArray.canReach(startingTile, tile1));
+        assertFalse(testTileArray.canReach(tile5, startingTile));
+
+        startingTile.removeTopBlock();
+        startingTile.removeTopBlock();
+        assertFalse(testTileArray.canReach(tile5, startingTile));
+        assertTrue(testTileArray.canReach(startingTile, tile5));
+    }
+
     /**
      * Used to set up an arrayList for testing
      */
@@ -0,0 +1,136 @@
+package csse2002.block.world;
+
+import static csse2002.block.world.Fixtures.newBuilder;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class TileMutationTest {
+    /**
+     * Three tiles in a row, joined both ways, with a builder from
+     * Fixtures.newBuilder() on the middle one.
+     */
+    private static final class Row {
+        final Tile[] tiles = {new Tile(), new Tile(), new Tile()};
+        final Builder builder;
+
+        Row() throws NoExitException, InvalidBlockException {
+            tiles[0].addExit("east", tiles[1]);
+            tiles[1].addExit("west", tiles[0]);
+            tiles[1].addExit("east", tiles[2]);
+            tiles[2].addExit("west", tiles[1]);
+            builder = newBuilder(tiles[1]);
+        }
+
+        /**
+         * The state of the row, as for Fixtures.state().
+         */
+        String state() {
+            return Fixtures.state(Arrays.asList(tiles), builder);
+        }
+    }
+
+    /**
+     * Tests that each try* method of Tile and Builder returns the status
+     * matching the exception its throwing counterpart throws, and makes the
+     * same change, over seeded random sequences of changes.
+     */
+    @Test
+    public void tryMatchesThrowingTest() throws Exception {
+        Direction[] directions = {Direction.NORTH, Direction.EAST,
+            Direction.WEST, null};
+        Random random = new Random(1);
+        for (int sequence = 0; sequence < 300; sequence++) {
+            Row throwing = new Row();
+            Row trying = new Row();
+            for (int step = 0; step < 200; step++) {
+                int tile = random.nextInt(3);
+                int status;
+                int expected;
+                switch (random.nextInt(6)) {
+                    case 0:
+                        int kind = random.nextInt(5);
+                        expected = statusOf(() -> throwing.tiles[tile]
+                                .placeBlock(block(kind)));
+                        status = trying.tiles[tile].tryPlaceBlock(
+                                block(kind));
+                        break;
+                    case 1:
+                        expected = statusOf(() -> throwing.tiles[tile].dig());
+                        status = trying.tiles[tile].tryDig();
+                        break;
+                    case 2:
+                        Direction direction =
+                                directions[random.nextInt(4)];
+                        expected = statusOf(() -> throwing.tiles[tile]
+                                .moveBlock(direction));
+                        status = trying.tiles[tile].tryMoveBlock(direction);
+                        break;
+                    case 3:
+                        int index = random.nextInt(5) - 1;
+                        expected = statusOf(() -> throwing.builder
+                                .dropFromInventory(index));
+                        status = trying.builder.tryDropFromInventory(index);
+                        break;
+                    case 4:
+                        expected = statusOf(() ->
+                                throwing.builder.digOnCurrentTile());
+                        status = trying.builder.tryDigOnCurrentTile();
+                        break;
+                    default:
+                        expected = statusOf(() -> throwing.builder.moveTo(
+                                throwing.tiles[tile]));
+                        status = trying.builder.tryMoveTo(trying.tiles[tile]);
+                        break;
+                }
+                assertEquals(expected, status);
+                assertEquals(throwing.state(), trying.state());
+            }
+        }
+    }
+
+    /* A change made through a throwing method */
+    private interface Change {
+        void run() throws BlockWorldException;
+    }
+
+    /**
+     * The status matching the exception a change throws, or OK.
+     */
+    private static int statusOf(Change change) {
+        try {
+            change.run();
+            return MutationStatus.OK;
+        } catch (TooHighException e) {
+            return MutationStatus.TOO_HIGH;
+        } catch (TooLowException e) {
+            return MutationStatus.TOO_LOW;
+        } catch (NoExitException e) {
+            return MutationStatus.NO_EXIT;
+        } catch (InvalidBlockException e) {
+            return MutationStatus.INVALID_BLOCK;
+        } catch (BlockWorldException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * A new block of a kind, or null for kind 4.
+     */
+    private static Block block(int kind) {
+        switch (kind) {
+            case 0:
+                return new SoilBlock();
+            case 1:
+                return new GrassBlock();
+            case 2:
+                return new WoodBlock();
+            case 3:
+                return new StoneBlock();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package csse2002.block.world;
+
+import static csse2002.block.world.Fixtures.describe;
+import static csse2002.block.world.Fixtures.newMap;
+import static csse2002.block.world.Fixtures.perform;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorldMapBinaryFormatTest {
+    /* Offsets in a file of a map from Fixtures.newMap(), whose builder's
+     * name and inventory are each 3 bytes long */
+    private static final int VERSION = 4;
+    private static final int NAME_LENGTH = 16;
+    private static final int INVENTORY_SIZE = 23;
+    private static final int INVENTORY = 27;
+    private static final int BUILDER_TILE = 30;
+    private static final int TILE_COUNT = 34;
+    private static final int TILES = 38;
+    private static final int EXITS = TILES + 4 * 3;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("map", ".bin");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    /**
+     * Tests that a map read back is the map written, including a builder
+     * away from the starting tile.
+     */
+    @Test
+    public void roundTripTest() throws Exception {
+        WorldMap map = newMap();
+        perform(map, "DIG\nMOVE_BUILDER east\n");
+        map.saveBinary(file);
+        assertTrue(WorldMapBinaryFormat.isBinary(file));
+        assertEquals(1, map.getTiles().indexOf(
+                map.getBuilder().getCurrentTile()));
+        assertEquals(describe(map), describe(WorldMap.loadBinary(file)));
+    }
+
+    /**
+     * Tests that a version 1 file, which has no builder's tile, is read
+     * with the builder on the starting tile.
+     */
+    @Test
+    public void version1Test() throws Exception {
+        WorldMap map = newMap();
+        map.saveBinary(file);
+        byte[] bytes = bytes();
+        ByteBuffer version1 = ByteBuffer.allocate(bytes.length - 4);
+        version1.put(bytes, 0, BUILDER_TILE);
+        version1.put(bytes, BUILDER_TILE + 4, bytes.length - BUILDER_TILE - 4);
+        version1.putInt(VERSION, 1);
+        Files.write(file, version1.array());
+        assertEquals(describe(map), describe(WorldMap.loadBinary(file)));
+    }
+
+    /**
+     * Tests that a file cut short anywhere is rejected.
+     */
+    @Test
+    public void truncatedTest() throws Exception {
+        newMap().saveBinary(file);
+        byte[] bytes = bytes();
+        for (int length = 0; length < bytes.length; length++) {
+            Files.write(file, Arrays.copyOf(bytes, length));
+            assertRejected("cut to " + length);
+        }
+    }
+
+    /**
+     * Tests that each kind of corrupt file is rejected.
+     */
+    @Test
+    public void corruptTest() throws Exception {
+        newMap().saveBinary(file);
+        byte[] bytes = bytes();
+        ByteBuffer layout = ByteBuffer.wrap(bytes);
+        assertEquals(3, layout.getInt(NAME_LENGTH));
+        assertEquals(3, layout.getInt(INVENTORY_SIZE));
+        assertEquals(4, layout.getInt(TILE_COUNT));
+        assertEquals(4, layout.get(TILES));
+        assertEquals(-1, layout.getInt(EXITS));
+        assertEquals(EXITS + 4 * 4 * 4, bytes.length);
+
+        int[][] changes = {
+            // offset, new int
+            {0, 0x42574D51},
+            {VERSION, 0},
+            {VERSION, 3},
+            {NAME_LENGTH, -1},
+            {NAME_LENGTH, Integer.MAX_VALUE},
+            {INVENTORY_SIZE, -1},
+            {INVENTORY_SIZE, 1 << 30},
+            {BUILDER_TILE, -1},
+            {BUILDER_TILE, 4},
+            {TILE_COUNT, 0},
+            {TILE_COUNT, -1},
+            {TILE_COUNT, 3},
+            {TILE_COUNT, 5},
+            {TILE_COUNT, 1 << 28},
+            // north of tile 0
+            {EXITS, 4},
+            {EXITS, 0},
+            {EXITS, -2},
+        };
+        for (int[] change : changes) {
+            ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone());
+            corrupt.putInt(change[0], change[1]);
+            Files.write(file, corrupt.array());
+            assertRejected(Arrays.toString(change));
+        }
+
+        byte[] corrupt = bytes.clone();
+        // a block code that is not a block
+        corrupt[INVENTORY] = 9;
+        Files.write(file, corrupt);
+        assertRejected("block code");
+
+        corrupt = bytes.clone();
+        // a height of 9, then soil on top of the first tile's wood
+        corrupt[TILES] = 9;
+        Files.write(file, corrupt);
+        assertRejected("height");
+        corrupt[TILES] = 4;
+        corrupt[TILES + 1] = 0;
+        corrupt[TILES + 2] = 0;
+        Files.write(file, corrupt);
+        assertRejected("ground block");
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length + 1));
+        assertRejected("trailing byte");
+    }
+
+    /**
+     * Tests that a text map is not taken for a binary one.
+     */
+    @Test
+    public void isBinaryTest() throws Exception {
+        newMap().saveMap(file.toString());
+        assertFalse(WorldMapBinaryFormat.isBinary(file));
+        Files.write(file, new byte[] {0x42, 0x57});
+        assertFalse(WorldMapBinaryFormat.isBinary(file));
+    }
+
+    /**
+     * Check that reading the file fails with a WorldMapFormatException.
+     */
+    private void assertRejected(String message) throws Exception {
+        try {
+            WorldMap.loadBinary(file);
+            fail("accepted: " + message);
+        } catch (WorldMapFormatException expected) {
+            // not a binary map
+        }
+    }
+
+    private byte[] bytes() throws IOException {
+        return Files.readAllBytes(file);
+    }
+}
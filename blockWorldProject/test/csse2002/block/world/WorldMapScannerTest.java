@@ -0,0 +1,293 @@
+package csse2002.block.world;
+
+import static csse2002.block.world.Fixtures.describe;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorldMapScannerTest {
+    /* A small map in the text format */
+    private static final String MAP = "1\n2\nBob\nwood,soil\n\n"
+            + "total:2\n0 soil,grass\n1 wood\n\n"
+            + "exits\n0 east:1\n1 west:0\n";
+
+    /* Changes to MAP that are accepted, as String.split() and
+     * Integer.parseInt() accepted them: each line of MAP, what it is
+     * replaced with, and a plainer replacement that gives the same map */
+    private static final String[][] ACCEPTED = {
+        {"1\n2\n", "+1\n2\n", "1\n2\n"},
+        {"1\n2\n", "007\n2\n", "7\n2\n"},
+        {"Bob\n", "Bob the Builder\n", "Bob the Builder\n"},
+        {"wood,soil\n", "wood,soil,\n", "wood,soil\n"},
+        // an empty block name ends the list
+        {"wood,soil\n", "wood,,soil\n", "wood\n"},
+        {"wood,soil\n", ",wood\n", "\n"},
+        {"total:2\n", "total:+2\n", "total:2\n"},
+        {"total:2\n", "total:2:\n", "total:2\n"},
+        {"0 soil,grass\n", "0 soil,grass,\n", "0 soil,grass\n"},
+        {"0 soil,grass\n", "0 soil,,grass\n", "0 soil\n"},
+        {"1 wood\n", "1 \n", "1\n"},
+        {"1 wood\n", "1  wood\n", "1\n"},
+        {"1 wood\n", "1 wood extra\n", "1 wood\n"},
+        {"1 wood\n", "+1 wood\n", "1 wood\n"},
+        {"0 east:1\n", "0 east:1,\n", "0 east:1\n"},
+        {"0 east:1\n", "0 east:+1\n", "0 east:1\n"},
+        {"0 east:1\n", "0 east:1:\n", "0 east:1\n"},
+        {"0 east:1\n", "0 east:1 extra\n", "0 east:1\n"},
+    };
+
+    /* Changes to MAP that are rejected with a WorldMapFormatException: each
+     * line of MAP, and what it is replaced with */
+    private static final String[][] REJECTED = {
+        {"1\n2\n", " 1\n2\n"},
+        {"1\n2\n", "1 \n2\n"},
+        {"1\n2\n", "2147483648\n2\n"},
+        {"1\n2\n", "-2147483649\n2\n"},
+        {"1\n2\n", "\n2\n"},
+        {"1\n2\n", "-\n2\n"},
+        {"1\n2\n", "0x1\n2\n"},
+        {"wood,soil\n", "wood,gold\n"},
+        {"wood,soil\n", "wood, soil\n"},
+        {"wood,soil\n", "grass\n"},
+        {"wood,soil\n\n", "wood,soil\n"},
+        {"total:2\n", "total: 2\n"},
+        {"total:2\n", "total:\n"},
+        {"total:2\n", "Total:2\n"},
+        {"total:2\n", "total:2:3\n"},
+        {"total:2\n", "total:3\n"},
+        {"total:2\n", "total:1\n"},
+        {"total:2\n", "total:99999999999\n"},
+        {"1 wood\n", " 1 wood\n"},
+        {"1 wood\n", "4294967297 wood\n"},
+        {"1 wood\n", "2 wood\n"},
+        {"1 wood\n", "-1 wood\n"},
+        {"1 wood\n", "0 wood\n"},
+        {"1 wood\n", "0\n"},
+        {"1 wood\n", "1 wood,wood,wood,wood,wood,wood,wood,wood,wood\n"},
+        {"1 wood\n", "1 wood,wood,wood,soil\n"},
+        {"1 wood\n", "1 gold\n"},
+        {"exits\n", ""},
+        {"exits\n", "Exits\n"},
+        {"0 east:1\n", "0 east:1,,north:1\n"},
+        {"0 east:1\n", "0 east:\n"},
+        {"0 east:1\n", "0 east\n"},
+        {"0 east:1\n", "0  east:1\n"},
+        {"0 east:1\n", "0 up:1\n"},
+        {"0 east:1\n", "0 east:0\n"},
+        {"0 east:1\n", "0 east:2\n"},
+        {"0 east:1\n", "0 east:4294967297\n"},
+        {"0 east:1\n", "0 east:1,north:1\n"},
+        {"0 east:1\n", "0 east:1\n\n"},
+        {"1 west:0\n", "0 west:1\n"},
+        {"1 west:0\n", ""},
+        {"1 west:0\n", "1 west:0\n1 west:0\n"},
+        {MAP, MAP + "\n"},
+        {MAP, ""},
+        // cut short, which String.split() crashed on
+        {"\ntotal:2\n0 soil,grass\n1 wood\n\nexits\n0 east:1\n1 west:0\n",
+            ""},
+        {"1 wood\n\nexits\n0 east:1\n1 west:0\n", ""},
+        // an id repeated after a line with no blocks, which was accepted
+        {"0 soil,grass\n1 wood\n", "1\n1 wood\n0 soil,grass\n"},
+    };
+
+    /* Numbers for parseInt(), some of which Integer.parseInt() rejects */
+    private static final String[] NUMBERS = {
+        "0", "7", "-7", "+7", "007", "-0", "+0", "2147483647", "-2147483648",
+        "2147483648", "-2147483649", "99999999999", "", "-", "+", "--1",
+        "+-1", "1-", "1 ", " 1", "0x10", "1e3", "12a", "a",
+        // digits other than ASCII ones
+        "\u0661\u0662", "1\uff12", "-\u0967"
+    };
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("map", ".txt");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    /**
+     * Tests that the scanner splits text into the same lines as
+     * BufferedReader.readLine(), for every line ending, lines longer than
+     * its first buffer, and readers that return one character at a time.
+     */
+    @Test
+    public void linesMatchReadLineTest() throws IOException {
+        String[] endings = {"\n", "\r", "\r\n"};
+        Random random = new Random(1);
+        for (int text = 0; text < 200; text++) {
+            StringBuilder builder = new StringBuilder();
+            int lines = random.nextInt(20);
+            for (int i = 0; i < lines; i++) {
+                int length = random.nextInt(50) == 0 ? 70000
+                        : random.nextInt(4) == 0 ? 0 : random.nextInt(20);
+                for (int j = 0; j < length; j++) {
+                    builder.append((char) ('a' + random.nextInt(26)));
+                }
+                if (i < lines - 1 || random.nextBoolean()) {
+                    builder.append(endings[random.nextInt(3)]);
+                }
+            }
+            List<String> expected = readLines(builder.toString());
+            assertEquals(expected, scanLines(
+                    new StringReader(builder.toString())));
+            assertEquals(expected, scanLines(
+                    oneAtATime(new StringReader(builder.toString()))));
+        }
+    }
+
+    /**
+     * Tests that parseInt() accepts exactly the numbers Integer.parseInt()
+     * does, with the same values.
+     */
+    @Test
+    public void parseIntMatchesIntegerTest() throws IOException {
+        for (String number : NUMBERS) {
+            WorldMapScanner scanner = new WorldMapScanner(
+                    new StringReader(number + "\n"));
+            assertTrue(scanner.nextLine());
+            String expected;
+            try {
+                expected = Integer.toString(Integer.parseInt(number));
+            } catch (NumberFormatException e) {
+                expected = "rejected";
+            }
+            String parsed;
+            try {
+                parsed = Integer.toString(scanner.parseInt(
+                        scanner.lineStart(), scanner.lineEnd()));
+            } catch (WorldMapFormatException e) {
+                parsed = "rejected";
+            }
+            assertEquals(number, expected, parsed);
+        }
+    }
+
+    /**
+     * Tests that MAP loads with any line ending, and without one at the
+     * end.
+     */
+    @Test
+    public void lineEndingsTest() throws Exception {
+        String expected = describe(load(MAP));
+        assertEquals(expected, describe(load(MAP.replace("\n", "\r\n"))));
+        assertEquals(expected, describe(load(MAP.replace("\n", "\r"))));
+        assertEquals(expected, describe(load(MAP.replaceFirst("\n", "\r\n")
+                .replace("Bob\n", "Bob\r"))));
+        assertEquals(expected, describe(load(
+                MAP.substring(0, MAP.length() - 1))));
+    }
+
+    /**
+     * Tests that each change in ACCEPTED loads the same map as its plainer
+     * replacement.
+     */
+    @Test
+    public void acceptedTest() throws Exception {
+        for (String[] change : ACCEPTED) {
+            assertEquals(change[1],
+                    describe(load(replace(change[0], change[2]))),
+                    describe(load(replace(change[0], change[1]))));
+        }
+    }
+
+    /**
+     * Tests that each change in REJECTED is rejected with a
+     * WorldMapFormatException.
+     */
+    @Test
+    public void rejectedTest() throws Exception {
+        for (String[] change : REJECTED) {
+            try {
+                load(replace(change[0], change[1]));
+                fail("accepted: " + change[1]);
+            } catch (WorldMapFormatException expected) {
+                // as the String.split() loader did, or should have
+            }
+        }
+    }
+
+    /**
+     * Tests that a well-formed map whose tiles overlap is rejected with a
+     * WorldMapInconsistentException.
+     */
+    @Test(expected = WorldMapInconsistentException.class)
+    public void inconsistentTest() throws Exception {
+        load(replace("1 west:0\n", "1 east:0\n"));
+    }
+
+    /**
+     * MAP with its first from replaced by to.
+     */
+    private static String replace(String from, String to) {
+        int start = MAP.indexOf(from);
+        assertTrue(from, start >= 0);
+        return MAP.substring(0, start) + to
+                + MAP.substring(start + from.length());
+    }
+
+    /**
+     * Load a map from text, through a file.
+     */
+    private WorldMap load(String text) throws Exception {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return new WorldMap(file.toString());
+    }
+
+    /**
+     * The lines of text, as BufferedReader.readLine() gives them.
+     */
+    private static List<String> readLines(String text) throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(text));
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * The lines a scanner reads.
+     */
+    private static List<String> scanLines(Reader reader) throws IOException {
+        WorldMapScanner scanner = new WorldMapScanner(reader);
+        List<String> lines = new ArrayList<>();
+        while (scanner.nextLine()) {
+            lines.add(scanner.lineString());
+        }
+        return lines;
+    }
+
+    /**
+     * A reader that returns at most one character from each read.
+     */
+    private static Reader oneAtATime(Reader reader) {
+        return new FilterReader(reader) {
+            @Override
+            public int read(char[] buffer, int offset, int length)
+                    throws IOException {
+                return super.read(buffer, offset, Math.min(length, 1));
+            }
+        };
+    }
+}